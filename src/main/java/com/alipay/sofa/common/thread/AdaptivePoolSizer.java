@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies an {@link AdaptiveSizingPolicy} to one thread pool, it's only called by the
+ * governor thread. The queue wait is computed from the cumulative counters of
+ * {@link ThreadPoolStatistics}, so it doesn't interfere with the monitor's interval reset.
+ */
+class AdaptivePoolSizer {
+
+    private final ThreadPoolExecutor   threadPoolExecutor;
+
+    private final ThreadPoolStatistics threadPoolStatistics;
+
+    private final AdaptiveSizingPolicy policy;
+
+    private final String               identity;
+
+    /** the maximum pool size when the policy is applied */
+    private final int                  originalMaximumPoolSize;
+
+    private long                       lastTaskCount;
+
+    private long                       lastStayInQueueTime;
+
+    private int                        overloadedIntervals;
+
+    private int                        underloadedIntervals;
+
+    private boolean                    initialized;
+
+    AdaptivePoolSizer(ThreadPoolExecutor threadPoolExecutor,
+                      ThreadPoolStatistics threadPoolStatistics, AdaptiveSizingPolicy policy,
+                      String identity) {
+        this.threadPoolExecutor = threadPoolExecutor;
+        this.threadPoolStatistics = threadPoolStatistics;
+        this.policy = policy;
+        this.identity = identity;
+        this.originalMaximumPoolSize = threadPoolExecutor.getMaximumPoolSize();
+        this.lastTaskCount = threadPoolStatistics.totalTaskCount.sum();
+        this.lastStayInQueueTime = threadPoolStatistics.totalStayInQueueTime.sum();
+    }
+
+    AdaptiveSizingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Check the load of the last period and resize the pool if needed
+     */
+    void adjust() {
+        if (threadPoolExecutor.isShutdown()) {
+            return;
+        }
+        int corePoolSize = threadPoolExecutor.getCorePoolSize();
+        if (!initialized) {
+            initialized = true;
+            int bounded = Math.max(policy.getMinPoolSize(),
+                Math.min(policy.getMaxPoolSize(), corePoolSize));
+            if (bounded != corePoolSize) {
+                resize(corePoolSize, bounded);
+            } else {
+                resizeQueue(corePoolSize);
+            }
+            return;
+        }
+
+        // the stay in queue time is added before the task count, read the count first
+        long taskCount = threadPoolStatistics.totalTaskCount.sum();
+        long stayInQueueTime = threadPoolStatistics.totalStayInQueueTime.sum();
+        long intervalTaskCount = taskCount - lastTaskCount;
+        long intervalStayInQueueTime = stayInQueueTime - lastStayInQueueTime;
+        lastTaskCount = taskCount;
+        lastStayInQueueTime = stayInQueueTime;
+
+        long queueSize = threadPoolStatistics.getQueueSize();
+        long averageQueueWaitMillis;
+        if (intervalTaskCount > 0) {
+            averageQueueWaitMillis = TimeUnit.NANOSECONDS.toMillis(intervalStayInQueueTime
+                                                                   / intervalTaskCount);
+        } else {
+            // nothing finished while tasks are waiting, the pool is stuck
+            averageQueueWaitMillis = queueSize > 0 ? Long.MAX_VALUE : 0;
+        }
+        int executing = threadPoolStatistics.getExecutingTaskCount();
+
+        if (queueSize > 0 && averageQueueWaitMillis >= policy.getHighQueueWaitMillis()) {
+            overloadedIntervals++;
+            underloadedIntervals = 0;
+        } else if (queueSize == 0 && averageQueueWaitMillis <= policy.getLowQueueWaitMillis()
+                   && executing < corePoolSize * policy.getLowUtilization()) {
+            underloadedIntervals++;
+            overloadedIntervals = 0;
+        } else {
+            overloadedIntervals = 0;
+            underloadedIntervals = 0;
+        }
+
+        if (overloadedIntervals >= policy.getStableIntervals()) {
+            overloadedIntervals = 0;
+            if (corePoolSize < policy.getMaxPoolSize()) {
+                resize(corePoolSize,
+                    Math.min(policy.getMaxPoolSize(), corePoolSize + policy.getStep()));
+            }
+        } else if (underloadedIntervals >= policy.getStableIntervals()) {
+            underloadedIntervals = 0;
+            if (corePoolSize > policy.getMinPoolSize()) {
+                resize(corePoolSize,
+                    Math.max(policy.getMinPoolSize(), corePoolSize - policy.getStep()));
+            }
+        }
+    }
+
+    private void resize(int corePoolSize, int newCorePoolSize) {
+        int newMaximumPoolSize = Math.max(newCorePoolSize, originalMaximumPoolSize);
+        // the core pool size must never be greater than the maximum pool size
+        if (newCorePoolSize > corePoolSize) {
+            threadPoolExecutor.setMaximumPoolSize(newMaximumPoolSize);
+            // the growth may be capped by the thread budget of the space
+            newMaximumPoolSize = threadPoolExecutor.getMaximumPoolSize();
+            newCorePoolSize = Math.min(newCorePoolSize, newMaximumPoolSize);
+            if (newCorePoolSize <= corePoolSize) {
+                return;
+            }
+            threadPoolExecutor.setCorePoolSize(newCorePoolSize);
+        } else {
+            threadPoolExecutor.setCorePoolSize(newCorePoolSize);
+            threadPoolExecutor.setMaximumPoolSize(newMaximumPoolSize);
+        }
+        int queueCapacity = resizeQueue(newCorePoolSize);
+        ThreadLogger
+            .info(
+                "Thread pool '{}' resized core pool size from {} to {}, maximum pool size: {}, queue capacity: {}",
+                identity, corePoolSize, newCorePoolSize, newMaximumPoolSize, queueCapacity);
+    }
+
+    private int resizeQueue(int corePoolSize) {
+        if (policy.getQueueCapacityPerThread() <= 0) {
+            return -1;
+        }
+        BlockingQueue<Runnable> queue = threadPoolExecutor.getQueue();
+        int capacity = (int) Math.max(
+            policy.getMinQueueCapacity(),
+            Math.min(policy.getMaxQueueCapacity(),
+                (long) corePoolSize * policy.getQueueCapacityPerThread()));
+        if (queue instanceof VariableLinkedBlockingQueue) {
+            ((VariableLinkedBlockingQueue<Runnable>) queue).setCapacity(capacity);
+        } else if (queue instanceof VariableSegmentBlockingQueue) {
+            ((VariableSegmentBlockingQueue<Runnable>) queue).setCapacity(capacity);
+        } else {
+            return -1;
+        }
+        return capacity;
+    }
+}
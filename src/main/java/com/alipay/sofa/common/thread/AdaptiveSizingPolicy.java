@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.utils.AssertUtil;
+
+/**
+ * The opt-in adaptive sizing policy of a thread pool, the {@link ThreadPoolGovernor}
+ * checks the pools with a policy periodically and resizes them within the bounds.
+ * <p>
+ * A pool is overloaded when tasks are queued and the average queue wait of the last
+ * period is at least {@link #getHighQueueWaitMillis()}, it's underloaded when the queue
+ * is empty, the average queue wait is at most {@link #getLowQueueWaitMillis()} and less
+ * than {@link #getLowUtilization()} of the core threads are executing. The core pool size
+ * is changed by {@link #getStep()} only after the same state is seen in
+ * {@link #getStableIntervals()} consecutive periods. The maximum pool size grows with the
+ * core pool size and never shrinks below it's original value. When
+ * {@link #getQueueCapacityPerThread()} is positive and the work queue is a
+ * {@link VariableLinkedBlockingQueue} or {@link VariableSegmentBlockingQueue}, the queue
+ * capacity follows the core pool size within the queue capacity bounds.
+ */
+public class AdaptiveSizingPolicy {
+
+    private final int    minPoolSize;
+
+    private final int    maxPoolSize;
+
+    private final int    step;
+
+    private final long   highQueueWaitMillis;
+
+    private final long   lowQueueWaitMillis;
+
+    private final double lowUtilization;
+
+    private final int    stableIntervals;
+
+    private final int    queueCapacityPerThread;
+
+    private final int    minQueueCapacity;
+
+    private final int    maxQueueCapacity;
+
+    public static AdaptiveSizingPolicyBuilder newBuilder() {
+        return new AdaptiveSizingPolicyBuilder();
+    }
+
+    public AdaptiveSizingPolicy(AdaptiveSizingPolicyBuilder builder) {
+        AssertUtil.isTrue(builder.minPoolSize > 0, "minPoolSize must be greater than zero");
+        AssertUtil.isTrue(builder.maxPoolSize >= builder.minPoolSize,
+            "maxPoolSize must not be less than minPoolSize");
+        AssertUtil.isTrue(builder.step > 0, "step must be greater than zero");
+        AssertUtil.isTrue(builder.highQueueWaitMillis > builder.lowQueueWaitMillis,
+            "highQueueWaitMillis must be greater than lowQueueWaitMillis");
+        AssertUtil.isTrue(builder.stableIntervals > 0, "stableIntervals must be greater than zero");
+        AssertUtil.isTrue(builder.minQueueCapacity > 0
+                          && builder.maxQueueCapacity >= builder.minQueueCapacity,
+            "queue capacity bounds are invalid");
+        this.minPoolSize = builder.minPoolSize;
+        this.maxPoolSize = builder.maxPoolSize;
+        this.step = builder.step;
+        this.highQueueWaitMillis = builder.highQueueWaitMillis;
+        this.lowQueueWaitMillis = builder.lowQueueWaitMillis;
+        this.lowUtilization = builder.lowUtilization;
+        this.stableIntervals = builder.stableIntervals;
+        this.queueCapacityPerThread = builder.queueCapacityPerThread;
+        this.minQueueCapacity = builder.minQueueCapacity;
+        this.maxQueueCapacity = builder.maxQueueCapacity;
+    }
+
+    /**
+     * The lower bound of the core pool size
+     * @return the minPoolSize
+     */
+    public int getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    /**
+     * The upper bound of the core pool size
+     * @return the maxPoolSize
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * The number of threads added or removed in one resize
+     * @return the step
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * The average queue wait to judge whether the pool is overloaded
+     * @return the highQueueWaitMillis
+     */
+    public long getHighQueueWaitMillis() {
+        return highQueueWaitMillis;
+    }
+
+    /**
+     * The average queue wait to judge whether the pool is underloaded
+     * @return the lowQueueWaitMillis
+     */
+    public long getLowQueueWaitMillis() {
+        return lowQueueWaitMillis;
+    }
+
+    /**
+     * The ratio of executing threads to core threads to judge whether the pool is underloaded
+     * @return the lowUtilization
+     */
+    public double getLowUtilization() {
+        return lowUtilization;
+    }
+
+    /**
+     * The consecutive periods of the same state before a resize
+     * @return the stableIntervals
+     */
+    public int getStableIntervals() {
+        return stableIntervals;
+    }
+
+    /**
+     * The queue capacity for each core thread, the queue is not resized when it's zero
+     * @return the queueCapacityPerThread
+     */
+    public int getQueueCapacityPerThread() {
+        return queueCapacityPerThread;
+    }
+
+    /**
+     * The lower bound of the queue capacity
+     * @return the minQueueCapacity
+     */
+    public int getMinQueueCapacity() {
+        return minQueueCapacity;
+    }
+
+    /**
+     * The upper bound of the queue capacity
+     * @return the maxQueueCapacity
+     */
+    public int getMaxQueueCapacity() {
+        return maxQueueCapacity;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("AdaptiveSizingPolicy{");
+        sb.append("minPoolSize=").append(minPoolSize);
+        sb.append(", maxPoolSize=").append(maxPoolSize);
+        sb.append(", step=").append(step);
+        sb.append(", highQueueWaitMillis=").append(highQueueWaitMillis);
+        sb.append(", lowQueueWaitMillis=").append(lowQueueWaitMillis);
+        sb.append(", lowUtilization=").append(lowUtilization);
+        sb.append(", stableIntervals=").append(stableIntervals);
+        sb.append(", queueCapacityPerThread=").append(queueCapacityPerThread);
+        sb.append(", minQueueCapacity=").append(minQueueCapacity);
+        sb.append(", maxQueueCapacity=").append(maxQueueCapacity);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static final class AdaptiveSizingPolicyBuilder {
+        private int    minPoolSize         = 1;
+        private int    maxPoolSize         = Runtime.getRuntime().availableProcessors() * 2;
+        private int    step                = 1;
+        private long   highQueueWaitMillis = 100;
+        private long   lowQueueWaitMillis  = 10;
+        private double lowUtilization      = 0.5;
+        private int    stableIntervals     = 3;
+        private int    queueCapacityPerThread;
+        private int    minQueueCapacity    = 1;
+        private int    maxQueueCapacity    = Integer.MAX_VALUE;
+
+        private AdaptiveSizingPolicyBuilder() {
+        }
+
+        public AdaptiveSizingPolicyBuilder minPoolSize(int minPoolSize) {
+            this.minPoolSize = minPoolSize;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder maxPoolSize(int maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder step(int step) {
+            this.step = step;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder highQueueWaitMillis(long highQueueWaitMillis) {
+            this.highQueueWaitMillis = highQueueWaitMillis;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder lowQueueWaitMillis(long lowQueueWaitMillis) {
+            this.lowQueueWaitMillis = lowQueueWaitMillis;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder lowUtilization(double lowUtilization) {
+            this.lowUtilization = lowUtilization;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder stableIntervals(int stableIntervals) {
+            this.stableIntervals = stableIntervals;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder queueCapacityPerThread(int queueCapacityPerThread) {
+            this.queueCapacityPerThread = queueCapacityPerThread;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder minQueueCapacity(int minQueueCapacity) {
+            this.minQueueCapacity = minQueueCapacity;
+            return this;
+        }
+
+        public AdaptiveSizingPolicyBuilder maxQueueCapacity(int maxQueueCapacity) {
+            this.maxQueueCapacity = maxQueueCapacity;
+            return this;
+        }
+
+        public AdaptiveSizingPolicy build() {
+            return new AdaptiveSizingPolicy(this);
+        }
+    }
+}
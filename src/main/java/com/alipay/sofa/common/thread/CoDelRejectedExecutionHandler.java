@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.utils.AssertUtil;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_CODEL_INTERVAL;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_CODEL_TARGET;
+
+/**
+ * A {@link RejectedExecutionHandler} which also sheds load before the queue is full, by the
+ * stay in queue time of the tasks like CoDel. It works as the handler of a
+ * {@link SofaThreadPoolExecutor}, the executor reports the stay in queue time of each
+ * dequeued task and asks it whether to shed each new task.
+ * <p>
+ * The pool is overloaded when the minimum stay in queue time of an interval is above the
+ * target, a short burst never lasts a whole interval so it's not shed. While overloaded,
+ * new tasks are shed if the last dequeued task stayed in queue more than twice the target,
+ * so the standing queue is kept near the target instead of growing until the queue is full.
+ * Shed tasks and the tasks rejected by a full queue are passed to the delegate handler.
+ * <p>
+ * CoDel drops the tasks at dequeue, when their own stay in queue time is known. This handler
+ * decides at enqueue by the time of the last dequeued task instead, so the queue is never
+ * scanned and a shed task is never run. It's only an approximation of CoDel: the time of a
+ * new task is only known when it's dequeued, and the drop rate doesn't grow with the time
+ * overloaded as CoDel's does.
+ * <p>
+ * Only {@link SofaThreadPoolExecutor} reports the stay in queue time to this handler. The
+ * scheduled pools are not supported, their stay in queue time is the schedule lag rather
+ * than a standing queue. {@link SofaForkJoinPool} has no rejected execution handler.
+ */
+public class CoDelRejectedExecutionHandler implements RejectedExecutionHandler {
+
+    private final RejectedExecutionHandler delegate;
+
+    private final long                     targetNanos;
+
+    private final long                     intervalNanos;
+
+    /** the start of the current interval */
+    private final AtomicLong               intervalStart   = new AtomicLong(System.nanoTime());
+
+    /** the minimum stay in queue time of the current interval */
+    private final AtomicLong               minSojourn      = new AtomicLong(Long.MAX_VALUE);
+
+    private volatile boolean               overloaded;
+
+    private volatile long                  lastSojourn;
+
+    private volatile long                  lastDequeueTime = System.nanoTime();
+
+    private final LongAdder                shedCount       = new LongAdder();
+
+    private final LongAdder                rejectedCount   = new LongAdder();
+
+    /**
+     * Create the handler with the default target and interval
+     * @param delegate the handler of the shed and rejected tasks
+     */
+    public CoDelRejectedExecutionHandler(RejectedExecutionHandler delegate) {
+        this(delegate, DEFAULT_CODEL_TARGET, DEFAULT_CODEL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructor
+     * @param delegate the handler of the shed and rejected tasks
+     * @param target the acceptable stay in queue time
+     * @param interval the interval to detect a standing queue, it should cover the usual bursts
+     * @param unit the unit of target and interval
+     */
+    public CoDelRejectedExecutionHandler(RejectedExecutionHandler delegate, long target,
+                                         long interval, TimeUnit unit) {
+        AssertUtil.isTrue(delegate != null, "delegate must not be null");
+        AssertUtil.isTrue(target > 0, "target must be greater than zero");
+        AssertUtil.isTrue(interval > target, "interval must be greater than target");
+        this.delegate = delegate;
+        this.targetNanos = unit.toNanos(target);
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Record the stay in queue time of a dequeued task
+     * @param sojournNanos the stay in queue time in nanoseconds
+     * @param now the dequeue time from {@link System#nanoTime()}
+     */
+    public void onDequeue(long sojournNanos, long now) {
+        lastSojourn = sojournNanos;
+        lastDequeueTime = now;
+        long min = minSojourn.get();
+        while (sojournNanos < min && !minSojourn.compareAndSet(min, sojournNanos)) {
+            min = minSojourn.get();
+        }
+        long start = intervalStart.get();
+        if (now - start >= intervalNanos && intervalStart.compareAndSet(start, now)) {
+            // increments racing with the reset are counted in the next interval
+            overloaded = minSojourn.getAndSet(Long.MAX_VALUE) > targetNanos;
+        }
+    }
+
+    /**
+     * Return whether a new task should be shed
+     * @param now the current time from {@link System#nanoTime()}
+     * @return true to shed the task
+     */
+    public boolean shouldShed(long now) {
+        // nothing is dequeued for a whole interval, the state is stale
+        return overloaded && lastSojourn > targetNanos << 1
+               && now - lastDequeueTime < intervalNanos;
+    }
+
+    /**
+     * Shed the task by the delegate handler
+     * @param r the shed task
+     * @param executor the executor
+     */
+    public void shed(Runnable r, ThreadPoolExecutor executor) {
+        shedCount.increment();
+        delegate.rejectedExecution(r, executor);
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        rejectedCount.increment();
+        delegate.rejectedExecution(r, executor);
+    }
+
+    /**
+     * Return whether the pool is overloaded in the last interval
+     * @return overloaded
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * Return the count of the shed tasks
+     * @return the shed count
+     */
+    public long getShedCount() {
+        return shedCount.sum();
+    }
+
+    /**
+     * Return the count of the tasks rejected by a full queue or a shut down executor
+     * @return the rejected count
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public RejectedExecutionHandler getDelegate() {
+        return delegate;
+    }
+}
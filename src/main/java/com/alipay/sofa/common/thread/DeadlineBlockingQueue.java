@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A {@link java.util.concurrent.BlockingQueue} ordering tasks by {@link PrioritizedTask#getDeadline()},
+ * it can be used as the work queue of {@link SofaThreadPoolExecutor}. Tasks whose deadline
+ * has passed are dropped when they reach the head of the queue instead of being returned,
+ * the future of a dropped task submitted by {@link SofaThreadPoolExecutor#submit(Runnable)}
+ * is cancelled. {@link SofaThreadPoolExecutor} counts the dropped tasks in
+ * {@link ThreadPoolStatistics#getExpiredTaskCount()}.
+ * <p>
+ * Elements are kept in a few heaps striped by the producer thread, each with it's own lock,
+ * so producers rarely contend. The head of each stripe is published, consumers take from
+ * the stripe with the earliest head, so the order is only approximately global under
+ * contention. Tasks without a deadline are ordered FIFO after all the tasks with a deadline.
+ */
+public class DeadlineBlockingQueue extends OrderedTaskBlockingQueue {
+
+    private static final Comparator<Entry> ORDER = DeadlineBlockingQueue::compare;
+
+    private final Stripe[]                 stripes;
+
+    private final int                      mask;
+
+    private final LongAdder                expiredCount = new LongAdder();
+
+    /** the enqueue order shared by all the stripes, it breaks the ties across stripes */
+    private final AtomicLong               sequence     = new AtomicLong();
+
+    private volatile Consumer<Runnable>    expiredTaskHandler;
+
+    /**
+     * Creates a queue with a capacity of {@link Integer#MAX_VALUE}
+     */
+    public DeadlineBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a queue with a stripe count of the available processors
+     * @param capacity the capacity of this queue
+     */
+    public DeadlineBlockingQueue(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a queue
+     * @param capacity the capacity of this queue
+     * @param stripes the count of stripes, it's rounded up to a power of two
+     */
+    public DeadlineBlockingQueue(int capacity, int stripes) {
+        super(capacity);
+        if (stripes <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Set the handler called on the consumer thread after a task is dropped,
+     * {@link SofaThreadPoolExecutor} sets it to count the dropped tasks
+     * @param expiredTaskHandler the handler
+     */
+    public void setExpiredTaskHandler(Consumer<Runnable> expiredTaskHandler) {
+        this.expiredTaskHandler = expiredTaskHandler;
+    }
+
+    /**
+     * Returns the count of the tasks dropped by this queue
+     * @return the expired count
+     */
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    @Override
+    void doEnqueue(Runnable e) {
+        PrioritizedTask attributes = attributesOf(e);
+        long deadline = attributes == null ? PrioritizedTask.NO_DEADLINE : attributes
+            .getDeadline();
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.lock.lock();
+        try {
+            stripe.heap.offer(new Entry(e, deadline, sequence.getAndIncrement()));
+            stripe.head = stripe.heap.peek();
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    Runnable doDequeue() {
+        for (;;) {
+            Stripe stripe = earliestStripe();
+            if (stripe == null) {
+                return null;
+            }
+            Entry entry;
+            stripe.lock.lock();
+            try {
+                entry = stripe.heap.poll();
+                stripe.head = stripe.heap.peek();
+            } finally {
+                stripe.lock.unlock();
+            }
+            if (entry == null) {
+                // taken by another consumer, search again
+                continue;
+            }
+            if (entry.deadline != PrioritizedTask.NO_DEADLINE
+                && entry.deadline - System.nanoTime() < 0) {
+                expire(entry.task);
+                continue;
+            }
+            return entry.task;
+        }
+    }
+
+    @Override
+    Runnable doPeek() {
+        Stripe stripe = earliestStripe();
+        if (stripe == null) {
+            return null;
+        }
+        Entry head = stripe.head;
+        return head == null ? null : head.task;
+    }
+
+    @Override
+    boolean doRemove(Object o) {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                Iterator<Entry> it = stripe.heap.iterator();
+                while (it.hasNext()) {
+                    if (o.equals(it.next().task)) {
+                        it.remove();
+                        stripe.head = stripe.heap.peek();
+                        return true;
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    List<Runnable> snapshot() {
+        List<Entry> entries = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                entries.addAll(stripe.heap);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        entries.sort(ORDER);
+        List<Runnable> list = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            list.add(entry.task);
+        }
+        return list;
+    }
+
+    private Stripe earliestStripe() {
+        Stripe earliest = null;
+        Entry earliestHead = null;
+        for (Stripe stripe : stripes) {
+            Entry head = stripe.head;
+            if (head != null && (earliestHead == null || compare(head, earliestHead) < 0)) {
+                earliest = stripe;
+                earliestHead = head;
+            }
+        }
+        return earliest;
+    }
+
+    private void expire(Runnable task) {
+        release();
+        expiredCount.increment();
+        Future<?> future = unwrap(task, Future.class);
+        if (future != null) {
+            // the caller waiting for the result is notified
+            future.cancel(false);
+        }
+        Consumer<Runnable> handler = expiredTaskHandler;
+        if (handler != null) {
+            handler.accept(task);
+        }
+    }
+
+    private static int compare(Entry a, Entry b) {
+        boolean aNoDeadline = a.deadline == PrioritizedTask.NO_DEADLINE;
+        boolean bNoDeadline = b.deadline == PrioritizedTask.NO_DEADLINE;
+        if (aNoDeadline != bNoDeadline) {
+            return aNoDeadline ? 1 : -1;
+        }
+        if (!aNoDeadline && a.deadline != b.deadline) {
+            // deadlines from nanoTime may overflow, compare the difference
+            return a.deadline - b.deadline < 0 ? -1 : 1;
+        }
+        return Long.compare(a.sequence, b.sequence);
+    }
+
+    private static final class Entry {
+        final Runnable task;
+        final long     deadline;
+        final long     sequence;
+
+        Entry(Runnable task, long deadline, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Stripe {
+        final ReentrantLock       lock = new ReentrantLock();
+        final PriorityQueue<Entry> heap = new PriorityQueue<>(ORDER);
+        /** the head of the heap, it's published for the consumers */
+        volatile Entry            head;
+    }
+}
@@ -16,14 +16,19 @@
  */
 package com.alipay.sofa.common.thread;
 
+import com.alipay.sofa.common.thread.context.ContextPropagation;
+
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The wrapper to the {@link Runnable} to save it's execute {@link Thread}
+ * The wrapper to the {@link Runnable} to save it's execute {@link Thread},
+ * the enqueue, dequeue and finish times are kept as {@link System#nanoTime()} values by the
+ * *Nanos accessors, the millisecond accessors convert them from and to epoch milliseconds
  * @author huzijie
  * @version ExecutingRunnable.java, v 0.1 2020年10月26日 4:22 下午 huzijie Exp $
  */
-public class ExecutingRunnable implements Runnable {
+public class ExecutingRunnable implements Runnable, TaskWrapper {
 
     public Runnable          originRunnable;
 
@@ -37,6 +42,12 @@ public class ExecutingRunnable implements Runnable {
 
     private volatile boolean printed;
 
+    private long             cpuTime        = -1;
+
+    private long             allocatedBytes = -1;
+
+    private Object[]         context;
+
     private Integer          hashCode;
 
     public ExecutingRunnable(Runnable originRunnable) {
@@ -81,33 +92,153 @@ public class ExecutingRunnable implements Runnable {
 
     @Override
     public void run() {
+        Object[] context = this.context;
+        if (context == null) {
+            runTask();
+            return;
+        }
+        ContextPropagation.restore(context);
+        try {
+            runTask();
+        } finally {
+            ContextPropagation.clear(context);
+        }
+    }
+
+    /**
+     * Run the origin task, subclasses override it instead of {@link #run()} so the captured
+     * context is still restored
+     */
+    protected void runTask() {
         originRunnable.run();
     }
 
+    /**
+     * Capture the context of current thread by the registered
+     * {@link com.alipay.sofa.common.thread.context.ContextCarrier}s, it's restored when the
+     * task runs
+     */
+    public void captureContext() {
+        this.context = ContextPropagation.capture();
+    }
+
+    /**
+     * Return the enqueue time
+     * @return the epoch milliseconds, 0 if it's not set
+     */
     public long getEnqueueTime() {
-        return enqueueTime;
+        return toEpochMillis(enqueueTime);
     }
 
+    /**
+     * Set the enqueue time
+     * @param enqueueTime the epoch milliseconds
+     */
     public void setEnqueueTime(long enqueueTime) {
-        this.enqueueTime = enqueueTime;
+        this.enqueueTime = toNanoTime(enqueueTime);
     }
 
+    /**
+     * Return the dequeue time
+     * @return the epoch milliseconds, 0 if it's not set
+     */
     public long getDequeueTime() {
-        return dequeueTime;
+        return toEpochMillis(dequeueTime);
     }
 
+    /**
+     * Set the dequeue time
+     * @param dequeueTime the epoch milliseconds
+     */
     public void setDequeueTime(long dequeueTime) {
-        this.dequeueTime = dequeueTime;
+        this.dequeueTime = toNanoTime(dequeueTime);
     }
 
+    /**
+     * Return the finish time
+     * @return the epoch milliseconds, 0 if it's not set
+     */
     public long getFinishTime() {
-        return finishTime;
+        return toEpochMillis(finishTime);
     }
 
+    /**
+     * Set the finish time
+     * @param finishTime the epoch milliseconds
+     */
     public void setFinishTime(long finishTime) {
+        this.finishTime = toNanoTime(finishTime);
+    }
+
+    /**
+     * Return the enqueue time
+     * @return the value of {@link System#nanoTime()}, 0 if it's not set
+     */
+    public long getEnqueueTimeNanos() {
+        return enqueueTime;
+    }
+
+    /**
+     * Set the enqueue time
+     * @param enqueueTime the value of {@link System#nanoTime()}
+     */
+    public void setEnqueueTimeNanos(long enqueueTime) {
+        this.enqueueTime = enqueueTime;
+    }
+
+    /**
+     * Return the dequeue time
+     * @return the value of {@link System#nanoTime()}, 0 if it's not set
+     */
+    public long getDequeueTimeNanos() {
+        return dequeueTime;
+    }
+
+    /**
+     * Set the dequeue time
+     * @param dequeueTime the value of {@link System#nanoTime()}
+     */
+    public void setDequeueTimeNanos(long dequeueTime) {
+        this.dequeueTime = dequeueTime;
+    }
+
+    /**
+     * Return the finish time
+     * @return the value of {@link System#nanoTime()}, 0 if it's not set
+     */
+    public long getFinishTimeNanos() {
+        return finishTime;
+    }
+
+    /**
+     * Set the finish time
+     * @param finishTime the value of {@link System#nanoTime()}
+     */
+    public void setFinishTimeNanos(long finishTime) {
         this.finishTime = finishTime;
     }
 
+    private static long toEpochMillis(long nanoTime) {
+        if (nanoTime == 0) {
+            return 0;
+        }
+        return System.currentTimeMillis()
+               - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime);
+    }
+
+    private static long toNanoTime(long epochMillis) {
+        if (epochMillis == 0) {
+            return 0;
+        }
+        return System.nanoTime()
+               - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - epochMillis);
+    }
+
+    @Override
+    public Object getWrappedTask() {
+        return originRunnable;
+    }
+
     public Thread getThread() {
         return thread;
     }
@@ -124,11 +255,61 @@ public class ExecutingRunnable implements Runnable {
         this.printed = printed;
     }
 
+    /**
+     * Return the running time of the task
+     * @return the running time in milliseconds
+     */
     public long getRunningTime() {
-        return finishTime - dequeueTime;
+        return TimeUnit.NANOSECONDS.toMillis(getRunningTimeNanos());
     }
 
+    /**
+     * Return the stay in queue time of the task
+     * @return the stay in queue time in milliseconds
+     */
     public long getStayInQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(getStayInQueueTimeNanos());
+    }
+
+    /**
+     * Return the running time of the task
+     * @return the running time in nanoseconds
+     */
+    public long getRunningTimeNanos() {
+        return finishTime - dequeueTime;
+    }
+
+    /**
+     * Return the stay in queue time of the task
+     * @return the stay in queue time in nanoseconds
+     */
+    public long getStayInQueueTimeNanos() {
         return dequeueTime - enqueueTime;
     }
+
+    /**
+     * Return the CPU time of the execution, it's measured only when the resource
+     * accounting of the thread pool is enabled
+     * @return the CPU time in nanoseconds, -1 if not measured
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    public void setCpuTime(long cpuTime) {
+        this.cpuTime = cpuTime;
+    }
+
+    /**
+     * Return the heap bytes allocated by the execution, it's measured only when the
+     * resource accounting of the thread pool is enabled
+     * @return the allocated bytes, -1 if not measured
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
 }
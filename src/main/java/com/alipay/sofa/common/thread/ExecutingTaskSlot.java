@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+/**
+ * The slot of one worker thread in {@link ThreadPoolStatistics}, it holds the task
+ * the worker is currently executing, the slot is reused by every task of the worker
+ */
+public class ExecutingTaskSlot {
+
+    /**
+     * the worker thread owns this slot, null when the slot is free
+     */
+    private volatile Thread   thread;
+
+    /**
+     * the executing task, null when the worker is idle
+     */
+    private volatile Runnable task;
+
+    /**
+     * the start time of the executing task from {@link System#nanoTime()}
+     */
+    private volatile long     startTime;
+
+    /**
+     * the start time of the last task whose stack trace has been printed
+     */
+    private volatile long     printedStartTime    = Long.MIN_VALUE;
+
+    /**
+     * the CPU time of the worker when the executing task started, -1 if not sampled,
+     * only accessed by the worker
+     */
+    private long              startCpuTime        = -1;
+
+    /**
+     * the allocated bytes of the worker when the executing task started, -1 if not sampled,
+     * only accessed by the worker
+     */
+    private long              startAllocatedBytes = -1;
+
+    /**
+     * the CPU time of the last finished task, -1 if not measured, only accessed by the worker
+     */
+    private long              cpuTime             = -1;
+
+    /**
+     * the allocated bytes of the last finished task, -1 if not measured, only accessed by
+     * the worker
+     */
+    private long              allocatedBytes      = -1;
+
+    ExecutingTaskSlot(Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Mark the task started on this slot
+     * @param task the task to execute
+     * @param startTime the start time of the task
+     */
+    void start(Runnable task, long startTime) {
+        // write start time before the task, readers check the task first
+        this.startTime = startTime;
+        this.task = task;
+    }
+
+    /**
+     * Save the resource usage of the worker when the task starts, it's called before
+     * {@link #start(Runnable, long)}
+     * @param cpuTime the CPU time of the worker, -1 if not sampled
+     * @param allocatedBytes the allocated bytes of the worker, -1 if not sampled
+     */
+    void startResource(long cpuTime, long allocatedBytes) {
+        this.startCpuTime = cpuTime;
+        this.startAllocatedBytes = allocatedBytes;
+    }
+
+    long getStartCpuTime() {
+        return startCpuTime;
+    }
+
+    long getStartAllocatedBytes() {
+        return startAllocatedBytes;
+    }
+
+    /**
+     * Save the resource usage of the task when it finishes
+     * @param cpuTime the CPU time of the task, -1 if not measured
+     * @param allocatedBytes the allocated bytes of the task, -1 if not measured
+     */
+    void finishResource(long cpuTime, long allocatedBytes) {
+        this.cpuTime = cpuTime;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    long getCpuTime() {
+        return cpuTime;
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Mark the executing task finished
+     * @return the start time of the finished task
+     */
+    long finish() {
+        long start = this.startTime;
+        this.task = null;
+        return start;
+    }
+
+    /**
+     * Try to take over this slot for a new worker thread, it only succeeds when the
+     * slot is free or it's owner thread has died
+     * @param newThread the new worker thread
+     * @return whether the slot is taken over
+     */
+    boolean takeOver(Thread newThread) {
+        Thread owner = this.thread;
+        if (owner != null && owner.isAlive()) {
+            return false;
+        }
+        this.task = null;
+        this.printedStartTime = Long.MIN_VALUE;
+        this.thread = newThread;
+        return true;
+    }
+
+    /**
+     * Release this slot when the owner thread will not execute tasks any more, it can
+     * be taken over by another thread immediately
+     */
+    void release() {
+        this.task = null;
+        this.thread = null;
+    }
+
+    /**
+     * Return the worker thread of this slot
+     * @return the worker thread
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * Return the executing task, or null if the worker is idle
+     * @return the executing task
+     */
+    public Runnable getTask() {
+        return task;
+    }
+
+    /**
+     * Return the start time of the executing task from {@link System#nanoTime()}
+     * @return the start time
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Return whether the stack trace of the task started at the given time has been printed,
+     * periodic tasks are the same instance in each execution so the start time is checked
+     * @param startTime the start time of the executing task
+     * @return whether printed
+     */
+    public boolean isPrinted(long startTime) {
+        return printedStartTime == startTime;
+    }
+
+    /**
+     * Mark the stack trace of the task started at the given time has been printed
+     * @param startTime the start time of the executing task
+     */
+    public void setPrinted(long startTime) {
+        this.printedStartTime = startTime;
+    }
+}
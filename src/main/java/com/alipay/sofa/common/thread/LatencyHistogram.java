@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free log-linear histogram of latencies in nanoseconds with fixed memory.
+ * Each power of two range is split into 16 linear buckets, so the relative error
+ * of the reported percentiles is at most 1/16.
+ * <p>
+ * {@link #record(long)} never allocates and can be called by any thread, the buckets
+ * are never cleared, {@link #snapshotAndReset()} reports the difference since it's
+ * last call so no concurrent record is lost. The max is kept in a few stripes picked by
+ * the recording thread, so concurrent records rarely update the same one, the stripes are
+ * merged when the interval is reported.
+ */
+public class LatencyHistogram {
+
+    private static final int      SUB_BUCKET_BITS  = 4;
+
+    private static final int      SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int      MAX_VALUE_BITS   = 44;
+
+    /**
+     * the max recordable value, about 4.9 hours, larger values are recorded as it
+     */
+    public static final long      MAX_VALUE        = (1L << MAX_VALUE_BITS) - 1;
+
+    private static final int      BUCKET_COUNT     = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1)
+                                                     * SUB_BUCKET_COUNT;
+
+    private static final int      MAX_STRIPES      = 16;
+
+    /**
+     * the distance between the max of two stripes, so they are on different cache lines
+     */
+    private static final int      STRIPE_PADDING   = 8;
+
+    private static final int      STRIPE_MASK      = stripeCount() - 1;
+
+    private final AtomicLongArray counts           = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * the max of the interval recorded by each stripe
+     */
+    private final AtomicLongArray maxes            = new AtomicLongArray((STRIPE_MASK + 1)
+                                                                         * STRIPE_PADDING);
+
+    /**
+     * the accumulated counts at the last snapshot, only accessed with the lock held
+     */
+    private final long[]          lastCounts       = new long[BUCKET_COUNT];
+
+    /**
+     * the counts of the interval being reported, only accessed with the lock held
+     */
+    private final long[]          intervalCounts   = new long[BUCKET_COUNT];
+
+    /**
+     * Record a latency value
+     * @param value the latency in nanoseconds
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        int index = ((int) Thread.currentThread().getId() & STRIPE_MASK) * STRIPE_PADDING;
+        long current;
+        while (value > (current = maxes.get(index))) {
+            if (maxes.compareAndSet(index, current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Take the percentiles of the values recorded since last call and start a new interval
+     * @return the percentiles of the finished interval
+     */
+    public synchronized Percentiles snapshotAndReset() {
+        long intervalMax = 0;
+        for (int i = 0; i < maxes.length(); i += STRIPE_PADDING) {
+            intervalMax = Math.max(intervalMax, maxes.getAndSet(i, 0));
+        }
+        long[] deltas = this.intervalCounts;
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            deltas[i] = count - lastCounts[i];
+            lastCounts[i] = count;
+            total += deltas[i];
+        }
+        return percentiles(deltas, total, intervalMax);
+    }
+
+    /**
+     * Add the counts accumulated since creation to the buckets, so histograms can be merged
+     * without resetting them
+     * @param buckets the buckets created by {@link #newBuckets()}
+     */
+    void accumulateTo(long[] buckets) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] += counts.get(i);
+        }
+    }
+
+    static long[] newBuckets() {
+        return new long[BUCKET_COUNT];
+    }
+
+    /**
+     * Take the percentiles of merged bucket counts, the max is the upper bound of the
+     * highest non-empty bucket since the exact max isn't kept in the buckets
+     * @param deltas the bucket counts
+     * @return the percentiles
+     */
+    static Percentiles percentiles(long[] deltas) {
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (deltas[i] > 0) {
+                total += deltas[i];
+                max = upperBound(i);
+            }
+        }
+        return percentiles(deltas, total, max);
+    }
+
+    private static Percentiles percentiles(long[] deltas, long total, long max) {
+        if (total == 0) {
+            return Percentiles.EMPTY;
+        }
+        return new Percentiles(total, valueAt(deltas, total, 0.5, max), valueAt(deltas, total, 0.9,
+            max), valueAt(deltas, total, 0.99, max), valueAt(deltas, total, 0.999, max), max);
+    }
+
+    private static long valueAt(long[] deltas, long total, double quantile, long max) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += deltas[i];
+            if (seen >= rank) {
+                long upper = upperBound(i);
+                // max is updated after the count, it may belong to the next interval
+                return max > 0 ? Math.min(upper, max) : upper;
+            }
+        }
+        return max;
+    }
+
+    private static int stripeCount() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+        // rounded up to a power of two
+        return processors <= 1 ? 1 : Integer.highestOneBit(processors - 1) << 1;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * The percentiles of the latencies recorded in one interval, in nanoseconds
+     */
+    public static class Percentiles {
+
+        public static final Percentiles EMPTY = new Percentiles(0, 0, 0, 0, 0, 0);
+
+        private final long              count;
+
+        private final long              p50;
+
+        private final long              p90;
+
+        private final long              p99;
+
+        private final long              p999;
+
+        private final long              max;
+
+        public Percentiles(long count, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "Percentiles{count=" + count + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99
+                   + ", p999=" + p999 + ", max=" + max + '}';
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel running periodic tasks on one worker thread, it's used to run all
+ * the {@link ThreadPoolMonitorRunner}s so the monitor thread count doesn't grow with
+ * the registered thread pools.
+ * <p>
+ * The worker wakes up once a tick and only visits the bucket of that tick, tasks due in
+ * the same tick run one after another in a batch. Tasks run at a fixed rate quantized to
+ * ticks, missed executions are skipped instead of run back to back. The worker is started
+ * by the first schedule and parks without timeout while there is no task.
+ */
+public class MonitorTimerWheel {
+
+    private final ThreadFactory                threadFactory;
+
+    private final long                         tickNanos;
+
+    private final List<Timeout>[]              wheel;
+
+    private final int                          mask;
+
+    private final long                         startTime        = System.nanoTime();
+
+    /** timeouts scheduled and not added to the wheel yet */
+    private final Queue<Timeout>               pendingTimeouts  = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean                started          = new AtomicBoolean();
+
+    private volatile Thread                    workerThread;
+
+    /** the last processed tick, only accessed by the worker */
+    private long                               tick;
+
+    /** the count of timeouts in the wheel, only accessed by the worker */
+    private int                                timeoutCount;
+
+    /**
+     * Constructor
+     * @param threadFactory the factory of the worker thread
+     * @param tickDuration the duration of one tick
+     * @param unit the unit of the tick duration
+     * @param wheelSize the bucket count, it's rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public MonitorTimerWheel(ThreadFactory threadFactory, long tickDuration, TimeUnit unit,
+                             int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.threadFactory = threadFactory;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Run the task periodically, the first execution is one period later
+     * @param task the task to run
+     * @param period the period between executions
+     * @param unit the unit of the period
+     * @return the handle to cancel the task
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        long periodNanos = unit.toNanos(period);
+        Timeout timeout = new Timeout(task, periodNanos, System.nanoTime() + periodNanos);
+        pendingTimeouts.add(timeout);
+        if (started.compareAndSet(false, true)) {
+            Thread thread = threadFactory.newThread(new Worker());
+            workerThread = thread;
+            thread.start();
+        } else {
+            Thread thread = workerThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Return the duration of one tick
+     * @return the tick duration in nanoseconds
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startTime) / tickNanos;
+    }
+
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            timeoutCount++;
+            addToWheel(timeout);
+        }
+    }
+
+    private void addToWheel(Timeout timeout) {
+        long deadlineTick = (timeout.deadline - startTime + tickNanos - 1) / tickNanos;
+        timeout.deadlineTick = Math.max(deadlineTick, tick + 1);
+        wheel[(int) (timeout.deadlineTick & mask)].add(timeout);
+    }
+
+    private void expireTimeouts(List<Timeout> rescheduled) {
+        List<Timeout> bucket = wheel[(int) (tick & mask)];
+        int i = 0;
+        while (i < bucket.size()) {
+            Timeout timeout = bucket.get(i);
+            if (!timeout.cancelled && timeout.deadlineTick > tick) {
+                i++;
+                continue;
+            }
+            // swap remove, the order in a bucket doesn't matter
+            int last = bucket.size() - 1;
+            bucket.set(i, bucket.get(last));
+            bucket.remove(last);
+            if (timeout.cancelled) {
+                timeoutCount--;
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (Throwable e) {
+                ThreadLogger.warn("Monitor task {} is failed when running: {}", timeout.task, e);
+            }
+            if (timeout.cancelled) {
+                timeoutCount--;
+            } else {
+                rescheduled.add(timeout);
+            }
+        }
+        if (!rescheduled.isEmpty()) {
+            long now = System.nanoTime();
+            for (Timeout timeout : rescheduled) {
+                long next = timeout.deadline + timeout.periodNanos;
+                if (next <= now) {
+                    // skip the missed executions but keep the phase
+                    next += ((now - next) / timeout.periodNanos + 1) * timeout.periodNanos;
+                }
+                timeout.deadline = next;
+                addToWheel(timeout);
+            }
+            rescheduled.clear();
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            List<Timeout> rescheduled = new ArrayList<>();
+            tick = currentTick();
+            for (;;) {
+                // clear the interrupt status, or park returns at once
+                Thread.interrupted();
+                transferPendingTimeouts();
+                if (timeoutCount == 0) {
+                    LockSupport.park(this);
+                    tick = currentTick();
+                    continue;
+                }
+                long sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                    continue;
+                }
+                tick++;
+                transferPendingTimeouts();
+                expireTimeouts(rescheduled);
+            }
+        }
+    }
+
+    /**
+     * The handle of a scheduled task
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+
+        private final long     periodNanos;
+
+        /** the next execution time, only accessed by the worker after scheduled */
+        private long           deadline;
+
+        /** the tick to run the next execution, only accessed by the worker */
+        private long           deadlineTick;
+
+        private volatile boolean cancelled;
+
+        Timeout(Runnable task, long periodNanos, long deadline) {
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task, an execution in progress is not interrupted
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Return whether the task is cancelled
+         * @return cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
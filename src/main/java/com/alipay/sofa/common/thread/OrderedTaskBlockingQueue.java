@@ -0,0 +1,440 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The base of the work queues ordering tasks by their {@link PrioritizedTask} attributes.
+ * <p>
+ * The capacity is a logical bound checked by a CAS on the element count like
+ * {@link VariableSegmentBlockingQueue}, subclasses only store and order the elements.
+ * Locks are only taken to park and signal threads waiting in {@link #take()},
+ * {@link #put(Runnable)} and the timed variants.
+ */
+abstract class OrderedTaskBlockingQueue extends AbstractQueue<Runnable> implements
+                                                                       BlockingQueue<Runnable> {
+
+    /** The capacity bound, or Integer.MAX_VALUE if none */
+    private volatile int        capacity;
+
+    /** Current number of elements, including the ones being added */
+    private final AtomicInteger count          = new AtomicInteger();
+
+    /** Number of threads waiting in take and timed poll */
+    private final AtomicInteger waitingTakers  = new AtomicInteger();
+
+    /** Lock held by waiting takes */
+    private final ReentrantLock takeLock       = new ReentrantLock();
+
+    /** Wait queue for waiting takes */
+    private final Condition     notEmpty       = takeLock.newCondition();
+
+    /** Number of threads waiting in put and timed offer */
+    private final AtomicInteger waitingPutters = new AtomicInteger();
+
+    /** Lock held by waiting puts */
+    private final ReentrantLock putLock        = new ReentrantLock();
+
+    /** Wait queue for waiting puts */
+    private final Condition     notFull        = putLock.newCondition();
+
+    OrderedTaskBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Store the element after the capacity is reserved
+     * @param e the element
+     */
+    abstract void doEnqueue(Runnable e);
+
+    /**
+     * Remove the first element in order, the capacity of it is released by the caller,
+     * elements dropped by the subclass must be released by {@link #release()}
+     * @return the element, or null if no element is stored
+     */
+    abstract Runnable doDequeue();
+
+    /**
+     * @return the first element in order, or null if no element is stored
+     */
+    abstract Runnable doPeek();
+
+    /**
+     * Remove the element, the capacity of it is released by the caller
+     * @param o the element
+     * @return whether the element is removed
+     */
+    abstract boolean doRemove(Object o);
+
+    /**
+     * @return a snapshot of the elements in order
+     */
+    abstract List<Runnable> snapshot();
+
+    /**
+     * Sets a new capacity for the queue. Increasing the capacity will
+     * cause any waiting {@link #put(Runnable)} invocations to succeed if the new
+     * capacity is larger than the queue.
+     * @param capacity the new capacity for the queue
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        if (waitingPutters.get() > 0) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                putLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the capacity of this queue
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - count.get();
+    }
+
+    @Override
+    public boolean offer(Runnable e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!tryAcquire()) {
+            return false;
+        }
+        enqueue(e);
+        return true;
+    }
+
+    @Override
+    public void put(Runnable e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!tryAcquire()) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lockInterruptibly();
+            try {
+                waitingPutters.incrementAndGet();
+                try {
+                    while (!tryAcquire()) {
+                        notFull.await();
+                    }
+                } catch (InterruptedException ie) {
+                    notFull.signal(); // propagate to a non-interrupted thread
+                    throw ie;
+                } finally {
+                    waitingPutters.decrementAndGet();
+                }
+            } finally {
+                putLock.unlock();
+            }
+        }
+        enqueue(e);
+    }
+
+    @Override
+    public boolean offer(Runnable e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!tryAcquire()) {
+            long nanos = unit.toNanos(timeout);
+            final ReentrantLock putLock = this.putLock;
+            putLock.lockInterruptibly();
+            try {
+                waitingPutters.incrementAndGet();
+                try {
+                    while (!tryAcquire()) {
+                        if (nanos <= 0) {
+                            return false;
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException ie) {
+                    notFull.signal(); // propagate to a non-interrupted thread
+                    throw ie;
+                } finally {
+                    waitingPutters.decrementAndGet();
+                }
+            } finally {
+                putLock.unlock();
+            }
+        }
+        enqueue(e);
+        return true;
+    }
+
+    @Override
+    public Runnable poll() {
+        Runnable e = doDequeue();
+        if (e != null) {
+            release();
+        }
+        return e;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        Runnable e = poll();
+        if (e != null) {
+            return e;
+        }
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            waitingTakers.incrementAndGet();
+            try {
+                while ((e = poll()) == null) {
+                    notEmpty.await();
+                }
+            } catch (InterruptedException ie) {
+                notEmpty.signal(); // propagate to a non-interrupted thread
+                throw ie;
+            } finally {
+                waitingTakers.decrementAndGet();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return e;
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Runnable e = poll();
+        if (e != null) {
+            return e;
+        }
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            waitingTakers.incrementAndGet();
+            try {
+                while ((e = poll()) == null) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } catch (InterruptedException ie) {
+                notEmpty.signal(); // propagate to a non-interrupted thread
+                throw ie;
+            } finally {
+                waitingTakers.decrementAndGet();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return e;
+    }
+
+    @Override
+    public Runnable peek() {
+        return doPeek();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null || !doRemove(o)) {
+            return false;
+        }
+        release();
+        return true;
+    }
+
+    @Override
+    public Object[] toArray() {
+        return snapshot().toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        return snapshot().toArray(a);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            // drop all elements
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        Runnable e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over a snapshot of the elements in order,
+     * {@link Iterator#remove()} removes the element from the queue.
+     * @return an iterator over the elements in this queue
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final Iterator<Runnable> it = snapshot().iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                OrderedTaskBlockingQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * Reserve one element of the capacity
+     * @return false if the queue is full
+     */
+    private boolean tryAcquire() {
+        final AtomicInteger count = this.count;
+        for (;;) {
+            int c = count.get();
+            if (c >= capacity) {
+                return false;
+            }
+            if (count.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void enqueue(Runnable e) {
+        doEnqueue(e);
+        if (waitingTakers.get() > 0) {
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                takeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Release one element of the capacity after an element is taken, removed or dropped
+     */
+    final void release() {
+        count.getAndDecrement();
+        if (waitingPutters.get() > 0) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                putLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Return the scheduling attributes of the element
+     * @param e the element, it's usually the {@link ExecutingRunnable} of the task
+     * @return the attributes, or null if the task has the default ones
+     */
+    static PrioritizedTask attributesOf(Runnable e) {
+        return unwrap(e, PrioritizedTask.class);
+    }
+
+    /**
+     * Walk the {@link TaskWrapper} chain of the element, such as the {@link ExecutingRunnable},
+     * the context propagating and the decorated tasks, to find the task of the type
+     * @param e the element
+     * @param type the type to find
+     * @return the outermost task of the type, or null if there is none
+     */
+    static <T> T unwrap(Object e, Class<T> type) {
+        Object task = e;
+        for (int i = 0; i < TaskTypeBreakdown.MAX_UNWRAP_DEPTH && task != null; i++) {
+            if (type.isInstance(task)) {
+                return type.cast(task);
+            }
+            if (!(task instanceof TaskWrapper)) {
+                return null;
+            }
+            task = ((TaskWrapper) task).getWrappedTask();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The {@link FutureTask} of a submitted task, it keeps the scheduling attributes of the task
+ * so the work queue can read them, and the submitted task so it can be counted by it's type
+ *
+ * @param <V> the result type
+ */
+class PrioritizedFutureTask<V> extends FutureTask<V> implements PrioritizedTask, TaskWrapper {
+
+    /**
+     * the attributes of tasks which are not a {@link PrioritizedTask}
+     */
+    static final PrioritizedTask NO_ATTRIBUTES = new PrioritizedTask() {
+                                               };
+
+    private final Object         task;
+
+    private final int            priority;
+
+    private final long           deadline;
+
+    PrioritizedFutureTask(Callable<V> callable, PrioritizedTask attributes) {
+        super(callable);
+        this.task = callable;
+        this.priority = attributes.getPriority();
+        this.deadline = attributes.getDeadline();
+    }
+
+    PrioritizedFutureTask(Runnable runnable, V result, PrioritizedTask attributes) {
+        super(runnable, result);
+        this.task = runnable;
+        this.priority = attributes.getPriority();
+        this.deadline = attributes.getDeadline();
+    }
+
+    @Override
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public long getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    public Object getWrappedTask() {
+        return task;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+/**
+ * The scheduling attributes of a task, they are used by {@link PriorityBucketBlockingQueue}
+ * and {@link DeadlineBlockingQueue}. Tasks passed to {@link SofaThreadPoolExecutor#execute(Runnable)}
+ * or submitted to it can implement this interface, tasks not implementing it have the default
+ * priority and no deadline.
+ */
+public interface PrioritizedTask {
+
+    /**
+     * The deadline of tasks which never expire
+     */
+    long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * The priority of the task, a task with higher priority is executed first
+     * @return the priority
+     */
+    default int getPriority() {
+        return 0;
+    }
+
+    /**
+     * The absolute deadline of the task from {@link System#nanoTime()}, the task is dropped
+     * if it's not dequeued before the deadline
+     * @return the deadline, or {@link #NO_DEADLINE}
+     */
+    default long getDeadline() {
+        return NO_DEADLINE;
+    }
+}
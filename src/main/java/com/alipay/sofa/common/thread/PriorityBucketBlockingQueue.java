@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link java.util.concurrent.BlockingQueue} ordering tasks by {@link PrioritizedTask#getPriority()},
+ * it can be used as the work queue of {@link SofaThreadPoolExecutor}.
+ * <p>
+ * Priorities are clamped into a small number of levels, each level is a lock free FIFO
+ * bucket instead of one heap behind a global lock, so both enqueue and dequeue are cheap.
+ * Consumers take from the highest non-empty level. Tasks not implementing
+ * {@link PrioritizedTask} have priority 0, which is the lowest level.
+ */
+public class PriorityBucketBlockingQueue extends OrderedTaskBlockingQueue {
+
+    /**
+     * The default count of priority levels
+     */
+    public static final int                         DEFAULT_LEVELS = 8;
+
+    /** the buckets indexed by level, a higher level is taken first */
+    private final ConcurrentLinkedQueue<Runnable>[] buckets;
+
+    /**
+     * Creates a queue with {@link #DEFAULT_LEVELS} levels and a capacity of
+     * {@link Integer#MAX_VALUE}
+     */
+    public PriorityBucketBlockingQueue() {
+        this(DEFAULT_LEVELS, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a queue with {@link #DEFAULT_LEVELS} levels
+     * @param capacity the capacity of this queue
+     */
+    public PriorityBucketBlockingQueue(int capacity) {
+        this(DEFAULT_LEVELS, capacity);
+    }
+
+    /**
+     * Creates a queue, priorities are clamped into [0, levels - 1]
+     * @param levels the count of priority levels
+     * @param capacity the capacity of this queue
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityBucketBlockingQueue(int levels, int capacity) {
+        super(capacity);
+        if (levels <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.buckets = new ConcurrentLinkedQueue[levels];
+        for (int i = 0; i < levels; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Returns the count of priority levels
+     * @return the levels
+     */
+    public int getLevels() {
+        return buckets.length;
+    }
+
+    @Override
+    void doEnqueue(Runnable e) {
+        buckets[levelOf(e)].offer(e);
+    }
+
+    @Override
+    Runnable doDequeue() {
+        for (int i = buckets.length - 1; i >= 0; i--) {
+            Runnable e = buckets[i].poll();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    Runnable doPeek() {
+        for (int i = buckets.length - 1; i >= 0; i--) {
+            Runnable e = buckets[i].peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    boolean doRemove(Object o) {
+        for (int i = buckets.length - 1; i >= 0; i--) {
+            if (buckets[i].remove(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    List<Runnable> snapshot() {
+        List<Runnable> list = new ArrayList<>();
+        for (int i = buckets.length - 1; i >= 0; i--) {
+            list.addAll(buckets[i]);
+        }
+        return list;
+    }
+
+    private int levelOf(Runnable e) {
+        PrioritizedTask attributes = attributesOf(e);
+        if (attributes == null) {
+            return 0;
+        }
+        return Math.max(0, Math.min(buckets.length - 1, attributes.getPriority()));
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+import com.alipay.sofa.common.utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sofa work stealing pool, it's registered to the {@link ThreadPoolGovernor} and monitored
+ * like {@link SofaThreadPoolExecutor}.
+ * <p>
+ * Tasks submitted from outside are counted as the root tasks, their stay in queue time,
+ * running time and decay are recorded. Subtasks forked by a root task are pushed to the
+ * deque of the worker and stolen by other workers as usual, they are not counted on their
+ * own, the running time of a root task includes the subtasks it joins. A root task run by
+ * a worker while joining another root task is counted but not tracked for decay.
+ * <p>
+ * {@link ForkJoinPool} has no termination hook, the pool is unregistered from the governor
+ * when it's shut down.
+ */
+public class SofaForkJoinPool extends ForkJoinPool {
+    private static final String        SIMPLE_CLASS_NAME  = SofaForkJoinPool.class.getSimpleName();
+    private static final AtomicInteger POOL_COUNTER       = new AtomicInteger(0);
+    private final ThreadPoolConfig     config;
+    private final ThreadPoolStatistics statistics;
+    private final AtomicBoolean        unregistered       = new AtomicBoolean();
+    private boolean                    sofaTracerTransmit = false;
+
+    /**
+     * Basic constructor
+     * @param threadPoolName name of this pool
+     * @param spaceName spaceName of this pool
+     * @param parallelism the parallelism level
+     * @param factory the factory for creating new worker threads, null to name them by the identity
+     * @param handler the handler for internal worker threads that terminate due to unrecoverable errors
+     * @param asyncMode true to use local FIFO scheduling for forked tasks that are never joined
+     * @param taskTimeout task execution timeout
+     * @param period task checking and logging period
+     * @param timeUnit unit of taskTimeout and period
+     */
+    public SofaForkJoinPool(String threadPoolName, String spaceName, int parallelism,
+                            ForkJoinWorkerThreadFactory factory,
+                            Thread.UncaughtExceptionHandler handler, boolean asyncMode,
+                            long taskTimeout, long period, TimeUnit timeUnit) {
+        this(ThreadPoolConfig.newBuilder()
+            .threadPoolName(StringUtil.isEmpty(threadPoolName) ? createName() : threadPoolName)
+            .spaceName(spaceName).taskTimeout(taskTimeout).period(period).timeUnit(timeUnit)
+            .build(), parallelism, factory, handler, asyncMode);
+    }
+
+    public SofaForkJoinPool(String threadPoolName, String spaceName, int parallelism) {
+        this(threadPoolName, spaceName, parallelism, null, null, false, 0, 0, null);
+    }
+
+    public SofaForkJoinPool(String threadPoolName, int parallelism) {
+        this(threadPoolName, null, parallelism);
+    }
+
+    private SofaForkJoinPool(ThreadPoolConfig config, int parallelism,
+                             ForkJoinWorkerThreadFactory factory,
+                             Thread.UncaughtExceptionHandler handler, boolean asyncMode) {
+        super(parallelism, factory != null ? factory : new NamedWorkerThreadFactory(
+            config.getIdentity()), handler, asyncMode);
+        this.config = config;
+        this.statistics = new ForkJoinStatistics(parallelism);
+        ThreadPoolGovernor.getInstance().registerExecutorService(this, config, statistics);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (task instanceof ForkJoinTask) {
+            execute((ForkJoinTask<?>) task);
+            return;
+        }
+        submitRoot(task);
+    }
+
+    @Override
+    public void execute(ForkJoinTask<?> task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        submitRoot(new InvokeTask(task));
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(ForkJoinTask<T> task) {
+        execute(task);
+        return task;
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(Callable<T> task) {
+        return submit(ForkJoinTask.adapt(task));
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(Runnable task, T result) {
+        return submit(ForkJoinTask.adapt(task, result));
+    }
+
+    @Override
+    public ForkJoinTask<?> submit(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        ForkJoinTask<?> job = task instanceof ForkJoinTask ? (ForkJoinTask<?>) task : ForkJoinTask
+            .adapt(task);
+        execute(job);
+        return job;
+    }
+
+    @Override
+    public <T> T invoke(ForkJoinTask<T> task) {
+        execute(task);
+        return task.join();
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                ForkJoinTask<T> future = ForkJoinTask.adapt(task);
+                futures.add(future);
+                execute(future);
+            }
+            for (Future<T> future : futures) {
+                ((ForkJoinTask<?>) future).quietlyJoin();
+            }
+            return futures;
+        } catch (Throwable t) {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+            throw t;
+        }
+    }
+
+    private void submitRoot(Runnable task) {
+        ExecutingRunnable runner = sofaTracerTransmit ? SofaTracerCommandFactory
+            .ofExecutingRunnable(task) : new ExecutingRunnable(task);
+        runner.captureContext();
+        runner.setEnqueueTimeNanos(System.nanoTime());
+        super.execute((Runnable) () -> runTask(runner));
+    }
+
+    private void runTask(ExecutingRunnable runner) {
+        long now = System.nanoTime();
+        runner.setDequeueTimeNanos(now);
+        runner.setThread(Thread.currentThread());
+        // the worker helps with another root task while joining, keep tracking the outer one
+        boolean tracked = !statistics.isExecuting();
+        if (tracked) {
+            statistics.startTask(runner, now);
+        }
+        try {
+            runner.run();
+        } finally {
+            now = System.nanoTime();
+            runner.setFinishTimeNanos(now);
+            if (tracked) {
+                statistics.finishTask(now);
+            }
+            statistics.addTotalRunningTimeNanos(runner.getRunningTimeNanos());
+            statistics.addTotalStayInQueueTimeNanos(runner.getStayInQueueTimeNanos());
+            statistics.addTotalTaskCount();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        unregister();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        unregister();
+        return tasks;
+    }
+
+    private void unregister() {
+        if (unregistered.compareAndSet(false, true)) {
+            ThreadPoolGovernor.getInstance().unregisterThreadPoolExecutor(config);
+        }
+    }
+
+    public synchronized void startSchedule() {
+        ThreadPoolGovernor.getInstance().startMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void stopSchedule() {
+        ThreadPoolGovernor.getInstance().stopMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void reschedule() {
+        ThreadPoolGovernor.getInstance().restartMonitorThreadPool(config.getIdentity());
+    }
+
+    public void updatePeriod(long period) {
+        this.config.setPeriod(period);
+        reschedule();
+    }
+
+    public void updateTaskTimeout(long taskTimeout) {
+        this.config.setTaskTimeout(taskTimeout);
+        this.config.setTaskTimeoutMilli(this.config.getTimeUnit().toMillis(taskTimeout));
+        ThreadLogger.info("Updated '{}' taskTimeout to {} {}", this.config.getIdentity(),
+            taskTimeout, this.config.getTimeUnit());
+    }
+
+    public ThreadPoolConfig getConfig() {
+        return config;
+    }
+
+    public ThreadPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    private static String createName() {
+        return SIMPLE_CLASS_NAME + String.format("%08x", POOL_COUNTER.getAndIncrement());
+    }
+
+    public void setSofaTracerTransmit(boolean sofaTracerTransmit) {
+        this.sofaTracerTransmit = sofaTracerTransmit;
+    }
+
+    public boolean isSofaTracerTransmit() {
+        return sofaTracerTransmit;
+    }
+
+    /**
+     * The statistics reporting the queued submissions and the tasks in worker deques as queued
+     */
+    private class ForkJoinStatistics extends ThreadPoolStatistics {
+
+        ForkJoinStatistics(int expectedConcurrency) {
+            super(expectedConcurrency);
+        }
+
+        @Override
+        public long getQueueSize() {
+            return getQueuedSubmissionCount() + getQueuedTaskCount();
+        }
+
+        @Override
+        public long getPoolSize() {
+            return SofaForkJoinPool.this.getPoolSize();
+        }
+    }
+
+    /**
+     * Run a submitted {@link ForkJoinTask} as a root task, the outcome is kept by the task itself
+     */
+    private static class InvokeTask implements Runnable {
+
+        private final ForkJoinTask<?> task;
+
+        InvokeTask(ForkJoinTask<?> task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.quietlyInvoke();
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    /**
+     * Name the worker threads by the identity of the pool
+     */
+    private static class NamedWorkerThreadFactory implements ForkJoinWorkerThreadFactory {
+
+        private final String     prefix;
+
+        private final AtomicLong counter = new AtomicLong();
+
+        NamedWorkerThreadFactory(String prefix) {
+            this.prefix = prefix + "-worker-";
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(prefix + counter.getAndIncrement());
+            return thread;
+        }
+    }
+}
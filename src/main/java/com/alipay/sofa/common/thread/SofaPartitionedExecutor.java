@@ -0,0 +1,500 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+import com.alipay.sofa.common.utils.StringUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sofa executor which runs the tasks of the same key in order and tasks of different keys
+ * in parallel, it's registered to the {@link ThreadPoolGovernor} as one thread pool.
+ * <p>
+ * A key is hashed to one of a fixed count of serial lanes, the lanes share a fixed set of
+ * worker threads. A lane is scheduled to the workers only when it has queued tasks and
+ * runs on at most one worker at a time, so a slow task only blocks the tasks behind it
+ * in the same lane. A lane gives up it's worker after a batch of tasks and is scheduled
+ * again behind the other ready lanes, so a busy lane can't starve the others.
+ * <p>
+ * Tasks submitted without a key are spread over the lanes in turn, they are not ordered.
+ */
+public class SofaPartitionedExecutor extends AbstractExecutorService {
+    private static final String        SIMPLE_CLASS_NAME  = SofaPartitionedExecutor.class
+                                                              .getSimpleName();
+    private static final AtomicInteger POOL_COUNTER       = new AtomicInteger(0);
+    /** the max count of tasks a lane runs before giving up it's worker */
+    private static final int           LANE_BATCH_SIZE    = 16;
+    private final ThreadPoolConfig     config;
+    private final ThreadPoolStatistics statistics;
+    private final ThreadPoolExecutor   workers;
+    private final Lane[]               lanes;
+    /** the next lane of the tasks without a key */
+    private final AtomicInteger        nextLane           = new AtomicInteger();
+    /** tasks accepted and not finished, including the queued ones */
+    private final AtomicInteger        inFlightCount      = new AtomicInteger();
+    private final AtomicBoolean        terminated         = new AtomicBoolean();
+    private final ReentrantLock        terminationLock    = new ReentrantLock();
+    private final Condition            termination        = terminationLock.newCondition();
+    private volatile boolean           shutdown           = false;
+    private volatile boolean           stopped            = false;
+    private boolean                    sofaTracerTransmit = false;
+
+    /**
+     * Basic constructor
+     * @param threadPoolName name of this executor
+     * @param spaceName spaceName of this executor
+     * @param laneCount the count of serial lanes
+     * @param workerCount the count of worker threads shared by the lanes
+     * @param threadFactory the factory to create the worker threads, null to name them by the identity
+     * @param taskTimeout task execution timeout
+     * @param period task checking and logging period
+     * @param timeUnit unit of taskTimeout and period
+     */
+    public SofaPartitionedExecutor(String threadPoolName, String spaceName, int laneCount,
+                                   int workerCount, ThreadFactory threadFactory, long taskTimeout,
+                                   long period, TimeUnit timeUnit) {
+        if (laneCount <= 0 || workerCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.config = ThreadPoolConfig.newBuilder()
+            .threadPoolName(StringUtil.isEmpty(threadPoolName) ? createName() : threadPoolName)
+            .spaceName(spaceName).taskTimeout(taskTimeout).period(period).timeUnit(timeUnit)
+            .build();
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane();
+        }
+        // the work queue holds at most one entry per lane
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), threadFactory != null ? threadFactory
+                : new NamedThreadFactory(config.getIdentity()));
+        this.statistics = new PartitionedStatistics(workerCount);
+        ThreadPoolGovernor.getInstance().registerExecutorService(this, config, statistics);
+    }
+
+    public SofaPartitionedExecutor(String threadPoolName, String spaceName, int laneCount,
+                                   int workerCount) {
+        this(threadPoolName, spaceName, laneCount, workerCount, null, 0, 0, null);
+    }
+
+    public SofaPartitionedExecutor(String threadPoolName, int laneCount, int workerCount) {
+        this(threadPoolName, null, laneCount, workerCount);
+    }
+
+    /**
+     * Execute the task after the tasks of the same key submitted before it
+     * @param key the ordering key, null to spread the task like {@link #execute(Runnable)}
+     * @param command the task
+     */
+    public void execute(Object key, Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        // count in flight before checking shutdown, so termination never misses this task
+        inFlightCount.incrementAndGet();
+        if (shutdown) {
+            taskDone();
+            throw new RejectedExecutionException("Task " + command + " rejected from "
+                                                 + config.getIdentity() + " as it's shut down");
+        }
+        ExecutingRunnable runner = sofaTracerTransmit ? SofaTracerCommandFactory
+            .ofExecutingRunnable(command) : new ExecutingRunnable(command);
+        runner.captureContext();
+        runner.setEnqueueTimeNanos(System.nanoTime());
+        Lane lane = lanes[key == null ? Math.floorMod(nextLane.getAndIncrement(), lanes.length)
+            : laneOf(key)];
+        if (lane.offer(runner)) {
+            workers.execute(lane);
+        }
+    }
+
+    /**
+     * Submit the task after the tasks of the same key submitted before it
+     * @param key the ordering key
+     * @param task the task
+     * @param <T> the result type
+     * @return the future of the task
+     */
+    public <T> Future<T> submit(Object key, Callable<T> task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        RunnableFuture<T> future = newTaskFor(task);
+        execute(key, future);
+        return future;
+    }
+
+    /**
+     * Submit the task after the tasks of the same key submitted before it
+     * @param key the ordering key
+     * @param task the task
+     * @return the future of the task
+     */
+    public Future<?> submit(Object key, Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        RunnableFuture<Void> future = newTaskFor(task, null);
+        execute(key, future);
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(null, command);
+    }
+
+    /**
+     * Return the lane of the key
+     * @param key the ordering key
+     * @return the index of the lane
+     */
+    public int laneOf(Object key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    private void runTask(ExecutingRunnable runner) {
+        long now = System.nanoTime();
+        runner.setDequeueTimeNanos(now);
+        runner.setThread(Thread.currentThread());
+        statistics.startTask(runner, now);
+        try {
+            runner.run();
+        } catch (RuntimeException e) {
+            // a failed task doesn't stop the lane
+            ThreadLogger.warn("Task {} in thread pool {} is failed when running: {}", runner,
+                config.getIdentity(), e);
+        } catch (Error e) {
+            // the error is propagated to the worker as ThreadPoolExecutor does
+            ThreadLogger.error("Task {} in thread pool {} is failed when running: {}", runner,
+                config.getIdentity(), e);
+            throw e;
+        } finally {
+            now = System.nanoTime();
+            runner.setFinishTimeNanos(now);
+            statistics.finishTask(now);
+            statistics.addTotalRunningTimeNanos(runner.getRunningTimeNanos());
+            statistics.addTotalStayInQueueTimeNanos(runner.getStayInQueueTimeNanos());
+            statistics.addTotalTaskCount();
+        }
+    }
+
+    private void taskDone() {
+        if (inFlightCount.decrementAndGet() == 0 && shutdown) {
+            tryTerminate();
+        }
+    }
+
+    private void tryTerminate() {
+        if (inFlightCount.get() != 0 || !terminated.compareAndSet(false, true)) {
+            return;
+        }
+        workers.shutdown();
+        ThreadPoolGovernor.getInstance().unregisterThreadPoolExecutor(config);
+        terminationLock.lock();
+        try {
+            termination.signalAll();
+        } finally {
+            terminationLock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        tryTerminate();
+    }
+
+    /**
+     * Interrupt the executing tasks and remove the queued tasks
+     * @return the queued tasks never started
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        stopped = true;
+        shutdown = true;
+        List<Runnable> dropped = new ArrayList<>();
+        for (Lane lane : lanes) {
+            lane.drainTo(dropped);
+        }
+        for (ExecutingTaskSlot slot : statistics.getExecutingTaskSlots()) {
+            if (slot == null) {
+                continue;
+            }
+            Thread thread = slot.getThread();
+            if (thread != null && slot.getTask() != null) {
+                thread.interrupt();
+            }
+        }
+        for (int i = 0; i < dropped.size(); i++) {
+            dropped.set(i, ((ExecutingRunnable) dropped.get(i)).originRunnable);
+            taskDone();
+        }
+        tryTerminate();
+        return dropped;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.get();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        terminationLock.lock();
+        try {
+            while (!terminated.get()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = termination.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            terminationLock.unlock();
+        }
+    }
+
+    public synchronized void startSchedule() {
+        ThreadPoolGovernor.getInstance().startMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void stopSchedule() {
+        ThreadPoolGovernor.getInstance().stopMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void reschedule() {
+        ThreadPoolGovernor.getInstance().restartMonitorThreadPool(config.getIdentity());
+    }
+
+    public void updatePeriod(long period) {
+        this.config.setPeriod(period);
+        reschedule();
+    }
+
+    public void updateTaskTimeout(long taskTimeout) {
+        this.config.setTaskTimeout(taskTimeout);
+        this.config.setTaskTimeoutMilli(this.config.getTimeUnit().toMillis(taskTimeout));
+        ThreadLogger.info("Updated '{}' taskTimeout to {} {}", this.config.getIdentity(),
+            taskTimeout, this.config.getTimeUnit());
+    }
+
+    /**
+     * Return the count of serial lanes
+     * @return the lane count
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Return the count of worker threads shared by the lanes
+     * @return the worker count
+     */
+    public int getWorkerCount() {
+        return workers.getCorePoolSize();
+    }
+
+    /**
+     * Return the count of queued tasks of the lane, the executing task is not included
+     * @param lane the index of the lane
+     * @return the backlog of the lane
+     */
+    public int getLaneBacklog(int lane) {
+        return lanes[lane].backlog;
+    }
+
+    /**
+     * Return the count of queued tasks of each lane, the executing tasks are not included
+     * @return the backlogs indexed by lane
+     */
+    public int[] getLaneBacklogs() {
+        int[] backlogs = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            backlogs[i] = lanes[i].backlog;
+        }
+        return backlogs;
+    }
+
+    /**
+     * Return the count of tasks accepted and not finished, including the queued ones
+     * @return the in flight count
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    public ThreadPoolConfig getConfig() {
+        return config;
+    }
+
+    public ThreadPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    private String createName() {
+        return SIMPLE_CLASS_NAME + String.format("%08x", POOL_COUNTER.getAndIncrement());
+    }
+
+    public void setSofaTracerTransmit(boolean sofaTracerTransmit) {
+        this.sofaTracerTransmit = sofaTracerTransmit;
+    }
+
+    public boolean isSofaTracerTransmit() {
+        return sofaTracerTransmit;
+    }
+
+    /**
+     * A serial lane, it's executed by the workers as a task which runs a batch of the
+     * queued tasks
+     */
+    private class Lane implements Runnable {
+
+        /** the queued tasks, guarded by this */
+        private final ArrayDeque<ExecutingRunnable> tasks = new ArrayDeque<>();
+
+        /** whether the lane is queued in or running on the workers, guarded by this */
+        private boolean                             scheduled;
+
+        private volatile int                        backlog;
+
+        /**
+         * Queue the task
+         * @param task the task
+         * @return whether the lane should be scheduled to the workers
+         */
+        synchronized boolean offer(ExecutingRunnable task) {
+            tasks.add(task);
+            backlog = tasks.size();
+            if (scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * Take the next task
+         * @return the next task, null if the lane is empty and it's unscheduled
+         */
+        private synchronized ExecutingRunnable poll() {
+            ExecutingRunnable task = tasks.poll();
+            backlog = tasks.size();
+            if (task == null) {
+                scheduled = false;
+            }
+            return task;
+        }
+
+        synchronized void drainTo(List<Runnable> list) {
+            list.addAll(tasks);
+            tasks.clear();
+            backlog = 0;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < LANE_BATCH_SIZE; i++) {
+                    ExecutingRunnable task = poll();
+                    if (task == null) {
+                        return;
+                    }
+                    try {
+                        // clear the interrupt left by the previous task as ThreadPoolExecutor does
+                        Thread.interrupted();
+                        if (!stopped) {
+                            runTask(task);
+                        }
+                    } finally {
+                        taskDone();
+                    }
+                }
+            } catch (Error e) {
+                // the error kills this worker, the other tasks of the lane run on another one
+                reschedule();
+                throw e;
+            }
+            reschedule();
+        }
+
+        private void reschedule() {
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            try {
+                // yield the worker to the other ready lanes
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the queued tasks are removed by shutdownNow concurrently
+                synchronized (this) {
+                    scheduled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * The statistics reporting the lane backlogs as queued
+     */
+    private class PartitionedStatistics extends ThreadPoolStatistics {
+
+        PartitionedStatistics(int expectedConcurrency) {
+            super(expectedConcurrency);
+        }
+
+        @Override
+        public long getQueueSize() {
+            long queueSize = 0;
+            for (Lane lane : lanes) {
+                queueSize += lane.backlog;
+            }
+            return queueSize;
+        }
+
+        @Override
+        public long getPoolSize() {
+            return workers.getPoolSize();
+        }
+    }
+}
@@ -16,12 +16,14 @@
  */
 package com.alipay.sofa.common.thread;
 
+import com.alipay.sofa.common.thread.context.ContextPropagation;
 import com.alipay.sofa.common.thread.log.ThreadLogger;
 import com.alipay.sofa.common.thread.space.SpaceNamedThreadFactory;
 import com.alipay.sofa.common.utils.StringUtil;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
@@ -131,20 +133,42 @@ public class SofaScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
         super.beforeExecute(t, r);
-        ExecutingRunnable runner = new ExecutingRunnable(r);
-        runner.setThread(t);
-        this.statistics.getExecutingTasks().put(runner, System.currentTimeMillis());
+        this.statistics.startTask(r, System.nanoTime());
+        if (r instanceof RunnableScheduledFuture) {
+            // the trigger time of a periodic task is advanced after the execution, so the
+            // negative delay is the schedule lag, it's reported as the stay in queue time
+            RunnableScheduledFuture<?> task = (RunnableScheduledFuture<?>) r;
+            long lag = Math.max(0, -task.getDelay(TimeUnit.NANOSECONDS));
+            this.statistics.addTotalStayInQueueTimeNanos(lag);
+            if (task.isPeriodic()) {
+                this.statistics.recordPeriodicDrift(task, lag);
+            }
+        }
     }
 
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
         super.afterExecute(r, t);
-        ExecutingRunnable runner = new ExecutingRunnable(r);
-        runner.setThread(Thread.currentThread());
-        this.statistics.addTotalRunningTime(System.currentTimeMillis()
-                                            - statistics.getExecutingTasks().get(runner));
-        this.statistics.addTotalTaskCount();
-        this.statistics.getExecutingTasks().remove(runner);
+        if (r instanceof RunnableScheduledFuture && ((RunnableScheduledFuture<?>) r).isPeriodic()
+            && ((RunnableScheduledFuture<?>) r).isDone()) {
+            this.statistics.removePeriodicDrift((RunnableScheduledFuture<?>) r);
+        }
+        long runningTime = this.statistics.finishTask(System.nanoTime());
+        if (runningTime >= 0) {
+            this.statistics.addTotalRunningTimeNanos(runningTime);
+            this.statistics.addTotalTaskCount();
+        }
+    }
+
+    /**
+     * The growth beyond the thread budget of the space is refused, see
+     * {@link ThreadPoolGovernor#setSpaceThreadBudget(String, int)}
+     * @param corePoolSize the new core size
+     */
+    @Override
+    public void setCorePoolSize(int corePoolSize) {
+        ThreadPoolGovernor.getInstance().resizeWithinSpaceBudget(config, this::getCorePoolSize,
+            corePoolSize, super::setCorePoolSize);
     }
 
     @Override
@@ -201,6 +225,7 @@ public class SofaScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor
         if (sofaTracerTransmit) {
             command = SofaTracerCommandFactory.ofRunnable(command);
         }
+        command = ContextPropagation.wrap(command);
         return super.schedule(command, delay, unit);
     }
 
@@ -208,6 +233,7 @@ public class SofaScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor
         if (sofaTracerTransmit) {
             callable = SofaTracerCommandFactory.ofCallable(callable);
         }
+        callable = ContextPropagation.wrap(callable);
         return super.schedule(callable, delay, unit);
     }
 
@@ -216,6 +242,7 @@ public class SofaScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor
         if (sofaTracerTransmit) {
             command = SofaTracerCommandFactory.ofRunnable(command);
         }
+        command = ContextPropagation.wrap(command);
         return super.scheduleAtFixedRate(command, initialDelay, period, unit);
     }
 
@@ -224,6 +251,7 @@ public class SofaScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor
         if (sofaTracerTransmit) {
             command = SofaTracerCommandFactory.ofRunnable(command);
         }
+        command = ContextPropagation.wrap(command);
         return super.scheduleWithFixedDelay(command, initialDelay, delay, unit);
     }
 
@@ -25,12 +25,54 @@ public class SofaThreadPoolConstants {
 
     public static final String  SOFA_THREAD_POOL_LOGGING_CAPABILITY  = "sofa_thread_pool_logging_capability";
 
+    public static final String  SOFA_THREAD_POOL_LAZY_MONITOR        = "sofa_thread_pool_lazy_monitor";
+
     public static final long    DEFAULT_TASK_TIMEOUT                 = 30000;
 
     public static final long    DEFAULT_PERIOD                       = 5000;
 
     public static final long    DEFAULT_GOVERNOR_INTERVAL            = 30;
 
+    public static final long    DEFAULT_ADAPTIVE_SIZING_INTERVAL     = 5;
+
+    public static final long    DEFAULT_MONITOR_TICK                 = 100;
+
+    public static final int     DEFAULT_MONITOR_WHEEL_SIZE           = 512;
+
+    public static final int     DEFAULT_STACK_TRACE_MAX_DEPTH        = 128;
+
+    public static final int     DEFAULT_STACK_TRACE_MAX_FRAMES       = 8192;
+
+    public static final int     DEFAULT_STACK_TRACE_RATE             = 100;
+
+    public static final long    DEFAULT_STACK_TRACE_DEDUPE_WINDOW    = 60;
+
+    public static final long    DEFAULT_CODEL_TARGET                 = 5;
+
+    public static final long    DEFAULT_CODEL_INTERVAL               = 100;
+
+    public static final int     DEFAULT_TASK_TYPE_LIMIT              = 32;
+
+    public static final int     DEFAULT_TASK_TYPE_TOP_N              = 5;
+
+    public static final long    DEFAULT_WATCHDOG_PERIOD              = 5;
+
+    public static final int     DEFAULT_WATCHDOG_RING_SIZE           = 1024;
+
+    public static final int     DEFAULT_WATCHDOG_MIN_POOLS           = 2;
+
+    public static final long    DEFAULT_DRAIN_REPORT_INTERVAL        = 1000;
+
+    public static final long    DEFAULT_TIMING_WHEEL_TICK            = 1;
+
+    public static final int     DEFAULT_TIMING_WHEEL_SIZE            = 512;
+
+    public static final int     DEFAULT_TIMING_WHEEL_LEVELS          = 4;
+
+    public static final int     DEFAULT_WARM_UP_CONCURRENCY          = 4;
+
+    public static final long    DEFAULT_SNAPSHOT_MAX_AGE             = 1000;
+
     public static final boolean DEFAULT_GOVERNOR_LOGGER_ENABLE       = false;
 
     public static final boolean DEFAULT_GLOBAL_MONITOR_LOGGER_ENABLE = true;
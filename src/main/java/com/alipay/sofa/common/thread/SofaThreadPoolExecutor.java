@@ -16,25 +16,46 @@
  */
 package com.alipay.sofa.common.thread;
 
+import com.alipay.sofa.common.thread.context.ContextPropagation;
 import com.alipay.sofa.common.thread.log.ThreadLogger;
 import com.alipay.sofa.common.thread.space.SpaceNamedThreadFactory;
 import com.alipay.sofa.common.utils.StringUtil;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.SOFA_THREAD_POOL_LAZY_MONITOR;
+
 /**
  * Sofa thread pool based on {@link ThreadPoolExecutor}
+ * <p>
+ * A thread pool created with lazy monitor, or by default when the system property
+ * {@link SofaThreadPoolConstants#SOFA_THREAD_POOL_LAZY_MONITOR} is true, is not registered to
+ * the {@link ThreadPoolGovernor} until the monitor is enabled by {@link #enableMonitor()} or
+ * {@link #startSchedule()}. Until then the tasks are executed without the wrapper, timestamps
+ * and statistics, unless the wrapper is required by the sofa tracer transmit or a
+ * {@link CoDelRejectedExecutionHandler}, and the {@link ThreadPoolStatistics} is not created
+ * until it's required or accessed.
  * @author <a href="mailto:guaner.zzx@alipay.com">Alaneuler</a>
  * Created on 2020/3/16
  */
 public class SofaThreadPoolExecutor extends ThreadPoolExecutor {
-    private static final String        SIMPLE_CLASS_NAME  = SofaThreadPoolExecutor.class
-                                                              .getSimpleName();
-    private static final AtomicInteger POOL_COUNTER       = new AtomicInteger(0);
-    private final ThreadPoolConfig     config;
-    private final ThreadPoolStatistics statistics;
-    private boolean                    sofaTracerTransmit = false;
+    private static final String           SIMPLE_CLASS_NAME  = SofaThreadPoolExecutor.class
+                                                                 .getSimpleName();
+    private static final AtomicInteger    POOL_COUNTER       = new AtomicInteger(0);
+    private static final boolean          LAZY_MONITOR       = Boolean.TRUE
+                                                                 .toString()
+                                                                 .equals(
+                                                                     System
+                                                                         .getProperty(SOFA_THREAD_POOL_LAZY_MONITOR));
+    private final ThreadPoolConfig        config;
+    private volatile ThreadPoolStatistics statistics;
+    private boolean                       sofaTracerTransmit = false;
+    private final AtomicBoolean           monitored          = new AtomicBoolean();
 
     /**
      * Basic constructor
@@ -50,19 +71,31 @@ public class SofaThreadPoolExecutor extends ThreadPoolExecutor {
      * @param taskTimeout task execution timeout
      * @param period task checking and logging period
      * @param timeUnit unit of taskTimeout and period
+     * @param lazyMonitor whether to defer the registration until the monitor is enabled
      */
     public SofaThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
                                   TimeUnit unit, BlockingQueue<Runnable> workQueue,
                                   ThreadFactory threadFactory, RejectedExecutionHandler handler,
                                   String threadPoolName, String spaceName, long taskTimeout,
-                                  long period, TimeUnit timeUnit) {
+                                  long period, TimeUnit timeUnit, boolean lazyMonitor) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
         this.config = ThreadPoolConfig.newBuilder()
             .threadPoolName(StringUtil.isEmpty(threadPoolName) ? createName() : threadPoolName)
             .spaceName(spaceName).taskTimeout(taskTimeout).period(period).timeUnit(timeUnit)
             .build();
-        this.statistics = new ThreadPoolStatistics(this);
-        ThreadPoolGovernor.getInstance().registerThreadPoolExecutor(this, config, statistics);
+        bindWorkQueue(workQueue);
+        if (!lazyMonitor) {
+            enableMonitor();
+        }
+    }
+
+    public SofaThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                  TimeUnit unit, BlockingQueue<Runnable> workQueue,
+                                  ThreadFactory threadFactory, RejectedExecutionHandler handler,
+                                  String threadPoolName, String spaceName, long taskTimeout,
+                                  long period, TimeUnit timeUnit) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler,
+            threadPoolName, spaceName, taskTimeout, period, timeUnit, LAZY_MONITOR);
     }
 
     public SofaThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
@@ -97,8 +130,10 @@ public class SofaThreadPoolExecutor extends ThreadPoolExecutor {
         this.config = ThreadPoolConfig.newBuilder()
             .threadPoolName(StringUtil.isEmpty(threadPoolName) ? createName() : threadPoolName)
             .spaceName(spaceName).build();
-        this.statistics = new ThreadPoolStatistics(this);
-        ThreadPoolGovernor.getInstance().registerThreadPoolExecutor(this, config, statistics);
+        bindWorkQueue(workQueue);
+        if (!LAZY_MONITOR) {
+            enableMonitor();
+        }
         if (StringUtil.isNotEmpty(threadPoolName)) {
             if (StringUtil.isNotEmpty(spaceName)) {
                 this.setThreadFactory(new SpaceNamedThreadFactory(threadPoolName, spaceName));
@@ -141,62 +176,313 @@ public class SofaThreadPoolExecutor extends ThreadPoolExecutor {
         this.setRejectedExecutionHandler(handler);
     }
 
+    /**
+     * Count the tasks dropped by a {@link DeadlineBlockingQueue}
+     * @param workQueue the work queue
+     */
+    private void bindWorkQueue(BlockingQueue<Runnable> workQueue) {
+        if (workQueue instanceof DeadlineBlockingQueue) {
+            ((DeadlineBlockingQueue) workQueue)
+                .setExpiredTaskHandler(task -> getStatistics().addExpiredTaskCount());
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        if (runnable instanceof PrioritizedTask) {
+            return new PrioritizedFutureTask<>(runnable, value, (PrioritizedTask) runnable);
+        }
+        if (getTaskTypeBreakdown() != null) {
+            // keep the submitted task to count it by it's type
+            return new PrioritizedFutureTask<>(runnable, value,
+                PrioritizedFutureTask.NO_ATTRIBUTES);
+        }
+        return super.newTaskFor(runnable, value);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof PrioritizedTask) {
+            return new PrioritizedFutureTask<>(callable, (PrioritizedTask) callable);
+        }
+        if (getTaskTypeBreakdown() != null) {
+            return new PrioritizedFutureTask<>(callable, PrioritizedFutureTask.NO_ATTRIBUTES);
+        }
+        return super.newTaskFor(callable);
+    }
+
     @Override
     public void execute(Runnable command) {
+        if (!requiresWrapper()) {
+            if (command == null) {
+                throw new NullPointerException();
+            }
+            super.execute(ContextPropagation.wrap(command));
+            return;
+        }
         ExecutingRunnable runner = sofaTracerTransmit ? SofaTracerCommandFactory
             .ofExecutingRunnable(command) : new ExecutingRunnable(command);
-        runner.setEnqueueTime(System.currentTimeMillis());
+        runner.captureContext();
+        long now = System.nanoTime();
+        runner.setEnqueueTimeNanos(now);
+        RejectedExecutionHandler handler = getRejectedExecutionHandler();
+        if (handler instanceof CoDelRejectedExecutionHandler
+            && ((CoDelRejectedExecutionHandler) handler).shouldShed(now)) {
+            getStatistics().addShedTaskCount();
+            ((CoDelRejectedExecutionHandler) handler).shed(runner, this);
+            return;
+        }
         super.execute(runner);
     }
 
+    /**
+     * Execute the tasks as a batch, the tasks are wrapped and timestamped together, then queued
+     * by one {@link VariableLinkedBlockingQueue#offerAll(Collection)} when it's the work queue.
+     * Tasks started as core threads or not queued are executed one by one like
+     * {@link #execute(Runnable)}, so they may start new threads or be rejected.
+     * @param commands the tasks to execute
+     */
+    public void executeAll(Collection<? extends Runnable> commands) {
+        List<Runnable> runners = new ArrayList<>(commands.size());
+        boolean wrapped = requiresWrapper();
+        long now = wrapped ? System.nanoTime() : 0;
+        for (Runnable command : commands) {
+            if (command == null) {
+                throw new NullPointerException();
+            }
+            if (!wrapped) {
+                runners.add(ContextPropagation.wrap(command));
+                continue;
+            }
+            ExecutingRunnable runner = sofaTracerTransmit ? SofaTracerCommandFactory
+                .ofExecutingRunnable(command) : new ExecutingRunnable(command);
+            runner.captureContext();
+            runner.setEnqueueTimeNanos(now);
+            runners.add(runner);
+        }
+        RejectedExecutionHandler handler = getRejectedExecutionHandler();
+        if (handler instanceof CoDelRejectedExecutionHandler
+            && ((CoDelRejectedExecutionHandler) handler).shouldShed(now)) {
+            for (Runnable runner : runners) {
+                getStatistics().addShedTaskCount();
+                ((CoDelRejectedExecutionHandler) handler).shed(runner, this);
+            }
+            return;
+        }
+        int size = runners.size();
+        int i = 0;
+        // let execute start the core threads, or the first thread of a pool without core threads,
+        // the pool size is read once since it takes the main lock
+        int poolSize = getPoolSize();
+        int corePoolSize = getCorePoolSize();
+        while (i < size && (poolSize < corePoolSize || poolSize == 0)) {
+            super.execute(runners.get(i++));
+            poolSize++;
+        }
+        BlockingQueue<Runnable> queue = getQueue();
+        if (i < size && !isShutdown() && queue instanceof VariableLinkedBlockingQueue) {
+            int queued = ((VariableLinkedBlockingQueue<Runnable>) queue).offerAll(runners
+                .subList(i, size));
+            if (isShutdown()) {
+                // recheck like execute, the queued tasks may never run
+                for (int j = i; j < i + queued; j++) {
+                    if (remove(runners.get(j))) {
+                        handler.rejectedExecution(runners.get(j), this);
+                    }
+                }
+            } else if (queued > 0 && getPoolSize() == 0) {
+                // recheck like execute, the workers may have timed out before the tasks are queued
+                startWorker(runners.get(i));
+            }
+            i += queued;
+        }
+        while (i < size) {
+            super.execute(runners.get(i++));
+        }
+    }
+
+    /**
+     * Start a worker for the queued tasks when the pool has no worker, a core thread is started
+     * if possible, otherwise the queued task is executed again so execute starts a thread
+     * @param queuedTask a task queued by {@link #executeAll(Collection)}
+     */
+    private void startWorker(Runnable queuedTask) {
+        if (!prestartCoreThread() && remove(queuedTask)) {
+            super.execute(queuedTask);
+        }
+    }
+
+    /**
+     * Execute the tasks by {@link #executeAll(Collection)} and wait for all of them
+     * like {@link #invokeAll(Collection)}
+     * @param tasks the tasks to execute
+     * @param <T> the result type
+     * @return the futures of the tasks in the same order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public <T> List<Future<T>> invokeAllBatched(Collection<? extends Callable<T>> tasks)
+                                                                                        throws InterruptedException {
+        List<RunnableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(newTaskFor(task));
+        }
+        try {
+            executeAll(futures);
+            for (Future<T> future : futures) {
+                if (!future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (CancellationException | ExecutionException ignore) {
+                        // the outcome is kept by the future
+                    }
+                }
+            }
+            return new ArrayList<>(futures);
+        } catch (Throwable t) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            throw t;
+        }
+    }
+
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
         super.beforeExecute(t, r);
+        if (!(r instanceof ExecutingRunnable)) {
+            // executed without the monitor
+            return;
+        }
         ExecutingRunnable executingRunnable = (ExecutingRunnable) r;
-        executingRunnable.setDequeueTime(System.currentTimeMillis());
+        long now = System.nanoTime();
+        executingRunnable.setDequeueTimeNanos(now);
         executingRunnable.setThread(t);
-        this.statistics.getExecutingTasks().put(executingRunnable, 0L);
+        getStatistics().startTask(executingRunnable, now);
+        RejectedExecutionHandler handler = getRejectedExecutionHandler();
+        if (handler instanceof CoDelRejectedExecutionHandler) {
+            ((CoDelRejectedExecutionHandler) handler).onDequeue(
+                executingRunnable.getStayInQueueTimeNanos(), now);
+        }
     }
 
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
         super.afterExecute(r, t);
+        if (!(r instanceof ExecutingRunnable)) {
+            return;
+        }
         ExecutingRunnable executingRunnable = (ExecutingRunnable) r;
-        executingRunnable.setFinishTime(System.currentTimeMillis());
-        this.statistics.addTotalTaskCount();
-        this.statistics.addTotalRunningTime(executingRunnable.getRunningTime());
-        this.statistics.addTotalStayInQueueTime(executingRunnable.getStayInQueueTime());
-        this.statistics.getExecutingTasks().remove(executingRunnable);
+        long now = System.nanoTime();
+        executingRunnable.setFinishTimeNanos(now);
+        ThreadPoolStatistics statistics = getStatistics();
+        statistics.finishTask(now);
+        statistics.addTotalRunningTimeNanos(executingRunnable.getRunningTimeNanos());
+        statistics.addTotalStayInQueueTimeNanos(executingRunnable.getStayInQueueTimeNanos());
+        statistics.addTotalTaskCount();
+    }
+
+    /**
+     * The growth beyond the thread budget of the space is refused, see
+     * {@link ThreadPoolGovernor#setSpaceThreadBudget(String, int)}
+     * @param maximumPoolSize the new maximum
+     */
+    @Override
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        if (!isMonitored()) {
+            super.setMaximumPoolSize(maximumPoolSize);
+            return;
+        }
+        ThreadPoolGovernor.getInstance().resizeWithinSpaceBudget(config,
+            this::getMaximumPoolSize, maximumPoolSize, super::setMaximumPoolSize);
     }
 
     @Override
     protected void terminated() {
         super.terminated();
+        disableMonitor();
+    }
+
+    /**
+     * Register this thread pool to the {@link ThreadPoolGovernor} and start to monitor it if
+     * it's not monitored yet, the tasks executed after this are wrapped and counted
+     */
+    public void enableMonitor() {
+        if (isTerminated() || !monitored.compareAndSet(false, true)) {
+            return;
+        }
+        ThreadPoolGovernor.getInstance().registerThreadPoolExecutor(this, config, getStatistics());
+        if (isTerminated()) {
+            // terminated while registering
+            disableMonitor();
+        }
+    }
+
+    /**
+     * Unregister this thread pool from the {@link ThreadPoolGovernor}, the tasks executed
+     * after this are not wrapped or counted
+     */
+    public void disableMonitor() {
+        if (!monitored.compareAndSet(true, false)) {
+            return;
+        }
         ThreadPoolGovernor.getInstance().unregisterThreadPoolExecutor(this.getConfig());
     }
 
+    /**
+     * Whether this thread pool is registered to the {@link ThreadPoolGovernor}
+     * @return monitored
+     */
+    public boolean isMonitored() {
+        return monitored.get();
+    }
+
+    /**
+     * Whether the tasks must be wrapped by {@link ExecutingRunnable}
+     * @return true if monitored, or required by the tracer or the rejected execution handler
+     */
+    private boolean requiresWrapper() {
+        return monitored.get() || sofaTracerTransmit
+               || getRejectedExecutionHandler() instanceof CoDelRejectedExecutionHandler;
+    }
+
     public synchronized void startSchedule() {
+        if (!monitored.get()) {
+            enableMonitor();
+            return;
+        }
         ThreadPoolGovernor.getInstance().startMonitorThreadPool(config.getIdentity());
     }
 
     public synchronized void stopSchedule() {
-        ThreadPoolGovernor.getInstance().stopMonitorThreadPool(config.getIdentity());
+        if (monitored.get()) {
+            ThreadPoolGovernor.getInstance().stopMonitorThreadPool(config.getIdentity());
+        }
     }
 
     public synchronized void reschedule() {
-        ThreadPoolGovernor.getInstance().restartMonitorThreadPool(config.getIdentity());
+        if (monitored.get()) {
+            ThreadPoolGovernor.getInstance().restartMonitorThreadPool(config.getIdentity());
+        }
     }
 
     public void updateThreadPoolName(String threadPoolName) {
+        if (!monitored.get()) {
+            this.config.setThreadPoolName(threadPoolName);
+            return;
+        }
         ThreadPoolGovernor.getInstance().unregisterThreadPoolExecutor(this.getConfig());
         this.config.setThreadPoolName(threadPoolName);
-        ThreadPoolGovernor.getInstance().registerThreadPoolExecutor(this, config, statistics);
+        ThreadPoolGovernor.getInstance().registerThreadPoolExecutor(this, config, getStatistics());
     }
 
     public void updateSpaceName(String spaceName) {
+        if (!monitored.get()) {
+            this.config.setSpaceName(spaceName);
+            return;
+        }
         ThreadPoolGovernor.getInstance().unregisterThreadPoolExecutor(this.getConfig());
         this.config.setSpaceName(spaceName);
-        ThreadPoolGovernor.getInstance().registerThreadPoolExecutor(this, config, statistics);
+        ThreadPoolGovernor.getInstance().registerThreadPoolExecutor(this, config, getStatistics());
     }
 
     public void updatePeriod(long period) {
@@ -211,14 +497,53 @@ public class SofaThreadPoolExecutor extends ThreadPoolExecutor {
             taskTimeout, this.config.getTimeUnit());
     }
 
+    /**
+     * Let the governor resize this thread pool by the policy, null to stop resizing
+     * @param adaptiveSizingPolicy the {@link AdaptiveSizingPolicy}
+     */
+    public void setAdaptiveSizingPolicy(AdaptiveSizingPolicy adaptiveSizingPolicy) {
+        this.config.setAdaptiveSizingPolicy(adaptiveSizingPolicy);
+        if (adaptiveSizingPolicy != null) {
+            // the governor resizes registered thread pools only
+            enableMonitor();
+            ThreadPoolGovernor.getInstance().startAdaptiveSizingSchedule();
+        }
+        ThreadLogger.info("Updated '{}' adaptiveSizingPolicy to {}", this.config.getIdentity(),
+            adaptiveSizingPolicy);
+    }
+
     public ThreadPoolConfig getConfig() {
         return config;
     }
 
+    /**
+     * The statistics of this thread pool, it's created on the first access so a thread pool
+     * with lazy monitor doesn't allocate it until the monitor is enabled
+     * @return the {@link ThreadPoolStatistics}
+     */
     public ThreadPoolStatistics getStatistics() {
+        ThreadPoolStatistics statistics = this.statistics;
+        if (statistics == null) {
+            synchronized (this) {
+                statistics = this.statistics;
+                if (statistics == null) {
+                    statistics = new ThreadPoolStatistics(this);
+                    this.statistics = statistics;
+                }
+            }
+        }
         return statistics;
     }
 
+    /**
+     * The task type breakdown without creating the statistics
+     * @return the {@link TaskTypeBreakdown}, null if it's not enabled
+     */
+    TaskTypeBreakdown getTaskTypeBreakdown() {
+        ThreadPoolStatistics statistics = this.statistics;
+        return statistics == null ? null : statistics.getTaskTypeBreakdown();
+    }
+
     private String createName() {
         return SIMPLE_CLASS_NAME + String.format("%08x", POOL_COUNTER.getAndIncrement());
     }
@@ -66,7 +66,12 @@ public class SofaThreadPoolTaskExecutor extends ThreadPoolTaskExecutor {
                 TimeUnit.MILLISECONDS) {
                 @Override
                 public void execute(Runnable command) {
-                    super.execute(taskDecorator.decorate(command));
+                    Runnable decorated = taskDecorator.decorate(command);
+                    if (decorated != command && getTaskTypeBreakdown() != null) {
+                        // keep the undecorated task to count it by it's type
+                        decorated = new DecoratedRunnable(decorated, command);
+                    }
+                    super.execute(decorated);
                 }
             };
         } else {
@@ -155,4 +160,34 @@ public class SofaThreadPoolTaskExecutor extends ThreadPoolTaskExecutor {
     public void setSofaTracerTransmit(boolean sofaTracerTransmit) {
         this.sofaTracerTransmit = sofaTracerTransmit;
     }
+
+    /**
+     * The task decorated by the {@link TaskDecorator}, it keeps the undecorated task
+     */
+    static class DecoratedRunnable implements Runnable, TaskWrapper {
+
+        private final Runnable decorated;
+
+        private final Runnable origin;
+
+        DecoratedRunnable(Runnable decorated, Runnable origin) {
+            this.decorated = decorated;
+            this.origin = origin;
+        }
+
+        @Override
+        public void run() {
+            decorated.run();
+        }
+
+        @Override
+        public Object getWrappedTask() {
+            return origin;
+        }
+
+        @Override
+        public String toString() {
+            return decorated.toString();
+        }
+    }
 }
@@ -0,0 +1,740 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.context.ContextPropagation;
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+import com.alipay.sofa.common.utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_TIMING_WHEEL_LEVELS;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_TIMING_WHEEL_SIZE;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_TIMING_WHEEL_TICK;
+
+/**
+ * Sofa scheduled executor based on a hierarchical timing wheel instead of the binary heap of
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}, it's registered to the
+ * {@link ThreadPoolGovernor} as one thread pool.
+ * <p>
+ * Scheduling and cancelling only add the task to a lock free queue, both are O(1). One wheel
+ * thread moves the scheduled tasks into the wheel, unlinks the cancelled tasks from their
+ * buckets and hands the due tasks over to the worker threads once a tick. Each level of the
+ * wheel covers the whole range of the level below it, tasks are moved down a level when the
+ * bucket of the upper level is reached, so a task is moved at most once per level no matter
+ * how far it's deadline is. It fits a large count of short timeouts which are cancelled
+ * before they are due, such as the deadlines of RPC calls.
+ * <p>
+ * Tasks run with the resolution of one tick and never before their deadline, the lag from
+ * the deadline to the start is reported as the stay in queue time. Like
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}, periodic tasks are cancelled
+ * by {@link #shutdown()} and delayed tasks still run when they are due.
+ */
+public class SofaTimingWheelScheduledExecutor extends AbstractExecutorService implements
+                                                                              ScheduledExecutorService {
+    private static final String                SIMPLE_CLASS_NAME  = SofaTimingWheelScheduledExecutor.class
+                                                                      .getSimpleName();
+    private static final AtomicInteger         POOL_COUNTER       = new AtomicInteger(0);
+    private static final int                   LEVELS             = DEFAULT_TIMING_WHEEL_LEVELS;
+    private final ThreadPoolConfig             config;
+    private final ThreadPoolStatistics         statistics;
+    private final ThreadPoolExecutor           workers;
+    private final Thread                       wheelThread;
+    private final long                         tickNanos;
+    /** the bit count of the bucket index of each level */
+    private final int                          bits;
+    private final int                          mask;
+    private final Bucket[][]                   levels;
+    private final long                         startTime          = System.nanoTime();
+    /** tasks scheduled and not added to the wheel yet */
+    private final Queue<WheelTimeout<?>>       pendingTimeouts    = new ConcurrentLinkedQueue<>();
+    /** tasks cancelled and not removed from the wheel yet */
+    private final Queue<WheelTimeout<?>>       cancelledTimeouts  = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean                started            = new AtomicBoolean();
+    /** the tasks removed by shutdownNow, filled by the wheel thread before it exits */
+    private final List<Runnable>               unprocessed        = new ArrayList<>();
+    private volatile boolean                   shutdown           = false;
+    private volatile boolean                   stopped            = false;
+    /** whether the wheel thread parks without timeout */
+    private volatile boolean                   idle               = false;
+    /** the count of tasks in the wheel published by the wheel thread */
+    private volatile int                       scheduledCount;
+    /** the last processed tick, only accessed by the wheel thread */
+    private long                               tick;
+    /** the count of tasks in the wheel, only accessed by the wheel thread */
+    private int                                timeoutCount;
+    private boolean                            sofaTracerTransmit = false;
+
+    /**
+     * Basic constructor
+     * @param threadPoolName name of this executor
+     * @param spaceName spaceName of this executor
+     * @param workerCount the count of worker threads running the due tasks
+     * @param threadFactory the factory to create the worker threads, null to name them by the identity
+     * @param tickDuration the duration of one tick, it's the resolution of the deadlines
+     * @param tickUnit the unit of the tick duration
+     * @param wheelSize the bucket count of each level, it's rounded up to a power of two
+     * @param taskTimeout task execution timeout
+     * @param period task checking and logging period
+     * @param timeUnit unit of taskTimeout and period
+     */
+    public SofaTimingWheelScheduledExecutor(String threadPoolName, String spaceName,
+                                            int workerCount, ThreadFactory threadFactory,
+                                            long tickDuration, TimeUnit tickUnit, int wheelSize,
+                                            long taskTimeout, long period, TimeUnit timeUnit) {
+        if (workerCount <= 0 || tickDuration <= 0 || wheelSize <= 1 || wheelSize > 1 << 15) {
+            throw new IllegalArgumentException();
+        }
+        this.config = ThreadPoolConfig.newBuilder()
+            .threadPoolName(StringUtil.isEmpty(threadPoolName) ? createName() : threadPoolName)
+            .spaceName(spaceName).taskTimeout(taskTimeout).period(period).timeUnit(timeUnit)
+            .build();
+        this.tickNanos = tickUnit.toNanos(tickDuration);
+        this.bits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.mask = (1 << bits) - 1;
+        this.levels = new Bucket[LEVELS][1 << bits];
+        for (Bucket[] level : levels) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Bucket();
+            }
+        }
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), threadFactory != null ? threadFactory
+                : new NamedThreadFactory(config.getIdentity())) {
+            @Override
+            protected void terminated() {
+                super.terminated();
+                ThreadPoolGovernor.getInstance().unregisterThreadPoolExecutor(config);
+            }
+        };
+        this.wheelThread = new NamedThreadFactory(config.getIdentity() + "-wheel", true)
+            .newThread(new Worker());
+        this.statistics = new TimingWheelStatistics(workerCount);
+        ThreadPoolGovernor.getInstance().registerExecutorService(this, config, statistics);
+    }
+
+    public SofaTimingWheelScheduledExecutor(String threadPoolName, String spaceName,
+                                            int workerCount, long tickDuration,
+                                            TimeUnit tickUnit, int wheelSize) {
+        this(threadPoolName, spaceName, workerCount, null, tickDuration, tickUnit, wheelSize, 0,
+            0, null);
+    }
+
+    public SofaTimingWheelScheduledExecutor(String threadPoolName, String spaceName,
+                                            int workerCount) {
+        this(threadPoolName, spaceName, workerCount, DEFAULT_TIMING_WHEEL_TICK,
+            TimeUnit.MILLISECONDS, DEFAULT_TIMING_WHEEL_SIZE);
+    }
+
+    public SofaTimingWheelScheduledExecutor(String threadPoolName, int workerCount) {
+        this(threadPoolName, null, workerCount);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        if (sofaTracerTransmit) {
+            command = SofaTracerCommandFactory.ofRunnable(command);
+        }
+        command = ContextPropagation.wrap(command);
+        return enqueue(new WheelTimeout<Void>(command, null, deadlineOf(delay, unit), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        if (callable == null || unit == null) {
+            throw new NullPointerException();
+        }
+        if (sofaTracerTransmit) {
+            callable = SofaTracerCommandFactory.ofCallable(callable);
+        }
+        callable = ContextPropagation.wrap(callable);
+        return enqueue(new WheelTimeout<>(callable, deadlineOf(delay, unit)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+                                                  long period, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (sofaTracerTransmit) {
+            command = SofaTracerCommandFactory.ofRunnable(command);
+        }
+        command = ContextPropagation.wrap(command);
+        return enqueue(new WheelTimeout<Void>(command, null, deadlineOf(initialDelay, unit),
+            unit.toNanos(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+                                                     long delay, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (sofaTracerTransmit) {
+            command = SofaTracerCommandFactory.ofRunnable(command);
+        }
+        command = ContextPropagation.wrap(command);
+        return enqueue(new WheelTimeout<Void>(command, null, deadlineOf(initialDelay, unit),
+            -unit.toNanos(delay)));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.NANOSECONDS);
+    }
+
+    private long deadlineOf(long delay, TimeUnit unit) {
+        // avoid the overflow of deadline comparisons
+        return System.nanoTime() + Math.min(unit.toNanos(Math.max(delay, 0)), Long.MAX_VALUE >> 1);
+    }
+
+    private <V> WheelTimeout<V> enqueue(WheelTimeout<V> timeout) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Task " + timeout.task + " rejected from "
+                                                 + config.getIdentity() + " as it's shut down");
+        }
+        pendingTimeouts.add(timeout);
+        if (started.compareAndSet(false, true)) {
+            wheelThread.start();
+        } else if (idle) {
+            LockSupport.unpark(wheelThread);
+        }
+        // the wheel thread may exit before the task is added
+        if (shutdown && timeout.cancel(false)) {
+            throw new RejectedExecutionException("Task " + timeout.task + " rejected from "
+                                                 + config.getIdentity() + " as it's shut down");
+        }
+        return timeout;
+    }
+
+    /**
+     * Add the task to the bucket of it's deadline, or to the expired list if it's due
+     * @param timeout the task
+     * @param expired the list to add the due tasks
+     */
+    private void addToWheel(WheelTimeout<?> timeout, List<WheelTimeout<?>> expired) {
+        long deadlineTick = (timeout.deadline - startTime + tickNanos - 1) / tickNanos;
+        long delta = deadlineTick - tick;
+        if (delta <= 0) {
+            expired.add(timeout);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (bits * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (bits * LEVELS)) {
+            // beyond the top level, it's moved again when the farthest bucket is reached
+            deadlineTick = tick + (1L << (bits * LEVELS)) - 1;
+        }
+        levels[level][(int) ((deadlineTick >>> (bits * level)) & mask)].add(timeout);
+    }
+
+    /**
+     * Advance the wheel by one tick, move down the buckets of the upper levels reached by
+     * the tick, then expire the bucket of the lowest level
+     * @param expired the list to add the due tasks
+     * @param cascaded the empty list reused to move down the tasks
+     */
+    private void advance(List<WheelTimeout<?>> expired, List<WheelTimeout<?>> cascaded) {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = bits * level;
+            if ((tick & ((1L << shift) - 1)) != 0) {
+                break;
+            }
+            levels[level][(int) ((tick >>> shift) & mask)].removeAll(cascaded);
+        }
+        for (WheelTimeout<?> timeout : cascaded) {
+            addToWheel(timeout, expired);
+        }
+        cascaded.clear();
+        // all the tasks in the bucket are due in this tick
+        levels[0][(int) (tick & mask)].removeAll(expired);
+    }
+
+    private void transferPendingTimeouts(List<WheelTimeout<?>> expired) {
+        WheelTimeout<?> timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (shutdown && timeout.isPeriodic()) {
+                timeout.cancel(false);
+                continue;
+            }
+            addToWheel(timeout, expired);
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        WheelTimeout<?> timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void dispatch(List<WheelTimeout<?>> expired) {
+        for (WheelTimeout<?> timeout : expired) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            try {
+                workers.execute(timeout);
+            } catch (RejectedExecutionException e) {
+                // the workers are stopped by shutdownNow concurrently
+                timeout.cancel(false);
+            }
+        }
+        expired.clear();
+    }
+
+    private void cancelPeriodicTimeouts() {
+        List<WheelTimeout<?>> periodic = new ArrayList<>();
+        for (Bucket[] level : levels) {
+            for (Bucket bucket : level) {
+                for (WheelTimeout<?> timeout = bucket.head; timeout != null; timeout = timeout.next) {
+                    if (timeout.isPeriodic()) {
+                        periodic.add(timeout);
+                    }
+                }
+            }
+        }
+        for (WheelTimeout<?> timeout : periodic) {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Remove all the tasks from the wheel when the wheel thread exits
+     */
+    private void clearWheel() {
+        List<WheelTimeout<?>> remaining = new ArrayList<>();
+        for (Bucket[] level : levels) {
+            for (Bucket bucket : level) {
+                bucket.removeAll(remaining);
+            }
+        }
+        WheelTimeout<?> timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            remaining.add(timeout);
+        }
+        for (WheelTimeout<?> t : remaining) {
+            if (t.cancel(false) && stopped) {
+                unprocessed.add(t);
+            }
+        }
+        cancelledTimeouts.clear();
+        scheduledCount = 0;
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startTime) / tickNanos;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        if (started.compareAndSet(false, true)) {
+            // nothing is ever scheduled
+            workers.shutdown();
+        } else {
+            LockSupport.unpark(wheelThread);
+        }
+    }
+
+    /**
+     * Interrupt the executing tasks and remove the scheduled tasks
+     * @return the scheduled tasks never started, they are the {@link ScheduledFuture}s
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        stopped = true;
+        shutdown = true;
+        List<Runnable> dropped = new ArrayList<>();
+        if (!started.compareAndSet(false, true)) {
+            LockSupport.unpark(wheelThread);
+            boolean interrupted = false;
+            while (wheelThread.isAlive()) {
+                try {
+                    wheelThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            dropped.addAll(unprocessed);
+        }
+        for (Runnable runnable : workers.shutdownNow()) {
+            ((WheelTimeout<?>) runnable).cancel(false);
+            dropped.add(runnable);
+        }
+        return dropped;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return workers.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    public synchronized void startSchedule() {
+        ThreadPoolGovernor.getInstance().startMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void stopSchedule() {
+        ThreadPoolGovernor.getInstance().stopMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void reschedule() {
+        ThreadPoolGovernor.getInstance().restartMonitorThreadPool(config.getIdentity());
+    }
+
+    public void updatePeriod(long period) {
+        this.config.setPeriod(period);
+        reschedule();
+    }
+
+    public void updateTaskTimeout(long taskTimeout) {
+        this.config.setTaskTimeout(taskTimeout);
+        this.config.setTaskTimeoutMilli(this.config.getTimeUnit().toMillis(taskTimeout));
+        ThreadLogger.info("Updated '{}' taskTimeout to {} {}", this.config.getIdentity(),
+            taskTimeout, this.config.getTimeUnit());
+    }
+
+    /**
+     * Return the duration of one tick
+     * @return the tick duration in nanoseconds
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Return the bucket count of each level
+     * @return the wheel size
+     */
+    public int getWheelSize() {
+        return mask + 1;
+    }
+
+    /**
+     * Return the count of tasks waiting in the wheel, it's updated by the wheel thread once
+     * a tick, tasks scheduled or cancelled in the current tick are not counted yet
+     * @return the scheduled count
+     */
+    public int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     * Return the count of worker threads running the due tasks
+     * @return the worker count
+     */
+    public int getWorkerCount() {
+        return workers.getCorePoolSize();
+    }
+
+    public ThreadPoolConfig getConfig() {
+        return config;
+    }
+
+    public ThreadPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    private String createName() {
+        return SIMPLE_CLASS_NAME + String.format("%08x", POOL_COUNTER.getAndIncrement());
+    }
+
+    public void setSofaTracerTransmit(boolean sofaTracerTransmit) {
+        this.sofaTracerTransmit = sofaTracerTransmit;
+    }
+
+    public boolean isSofaTracerTransmit() {
+        return sofaTracerTransmit;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            List<WheelTimeout<?>> expired = new ArrayList<>();
+            List<WheelTimeout<?>> cascaded = new ArrayList<>();
+            boolean periodicCancelled = false;
+            tick = currentTick();
+            try {
+                for (;;) {
+                    // clear the interrupt status, or park returns at once
+                    Thread.interrupted();
+                    removeCancelledTimeouts();
+                    if (stopped) {
+                        break;
+                    }
+                    transferPendingTimeouts(expired);
+                    if (shutdown && !periodicCancelled) {
+                        cancelPeriodicTimeouts();
+                        periodicCancelled = true;
+                        removeCancelledTimeouts();
+                    }
+                    scheduledCount = timeoutCount;
+                    dispatch(expired);
+                    if (timeoutCount == 0) {
+                        if (shutdown) {
+                            break;
+                        }
+                        idle = true;
+                        if (pendingTimeouts.isEmpty()) {
+                            LockSupport.park(this);
+                        }
+                        idle = false;
+                        // the wheel is empty, skip the idle ticks
+                        tick = currentTick();
+                        continue;
+                    }
+                    long sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+                    if (sleepNanos > 0) {
+                        LockSupport.parkNanos(this, sleepNanos);
+                        continue;
+                    }
+                    tick++;
+                    advance(expired, cascaded);
+                }
+            } catch (Throwable e) {
+                ThreadLogger.error("Thread pool '{}' wheel thread is failed when running: {}",
+                    config.getIdentity(), e);
+            } finally {
+                clearWheel();
+                workers.shutdown();
+            }
+        }
+    }
+
+    /**
+     * A list of tasks linked in both directions, so a cancelled task is removed in O(1),
+     * it's only accessed by the wheel thread
+     */
+    private class Bucket {
+
+        private WheelTimeout<?> head;
+
+        private WheelTimeout<?> tail;
+
+        void add(WheelTimeout<?> timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+            timeoutCount++;
+        }
+
+        void remove(WheelTimeout<?> timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            timeoutCount--;
+        }
+
+        void removeAll(List<WheelTimeout<?>> list) {
+            while (head != null) {
+                WheelTimeout<?> timeout = head;
+                remove(timeout);
+                list.add(timeout);
+            }
+        }
+    }
+
+    /**
+     * A scheduled task in the wheel
+     */
+    private class WheelTimeout<V> extends FutureTask<V> implements ScheduledFuture<V>,
+                                                       TaskWrapper {
+
+        private final Object    task;
+
+        /** positive for fixed rate, negative for fixed delay and zero for one shot */
+        private final long      period;
+
+        /** the next execution time, it's published to the wheel thread by the pending queue */
+        private long            deadline;
+
+        /** the links in the bucket, only accessed by the wheel thread */
+        private WheelTimeout<?> prev;
+
+        private WheelTimeout<?> next;
+
+        private Bucket          bucket;
+
+        WheelTimeout(Runnable command, V result, long deadline, long period) {
+            super(command, result);
+            this.task = command;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        WheelTimeout(Callable<V> callable, long deadline) {
+            super(callable);
+            this.task = callable;
+            this.deadline = deadline;
+            this.period = 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+
+        boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                cancelledTimeouts.add(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            boolean again = false;
+            long now = System.nanoTime();
+            statistics.startTask(this, now);
+            long lag = Math.max(0, now - deadline);
+            statistics.addTotalStayInQueueTimeNanos(lag);
+            if (period != 0) {
+                statistics.recordPeriodicDrift(this, lag);
+            }
+            try {
+                if (period == 0) {
+                    super.run();
+                } else {
+                    again = runAndReset();
+                }
+            } finally {
+                long runningTime = statistics.finishTask(System.nanoTime());
+                if (runningTime >= 0) {
+                    statistics.addTotalRunningTimeNanos(runningTime);
+                    statistics.addTotalTaskCount();
+                }
+            }
+            if (!again && period != 0) {
+                statistics.removePeriodicDrift(this);
+            }
+            if (again) {
+                deadline = period > 0 ? deadline + period : System.nanoTime() - period;
+                if (shutdown) {
+                    cancel(false);
+                    return;
+                }
+                try {
+                    enqueue(this);
+                } catch (RejectedExecutionException e) {
+                    // cancelled by the shutdown
+                }
+            }
+        }
+
+        @Override
+        public Object getWrappedTask() {
+            return task;
+        }
+    }
+
+    /**
+     * The statistics reporting the tasks in the wheel as queued
+     */
+    private class TimingWheelStatistics extends ThreadPoolStatistics {
+
+        TimingWheelStatistics(int expectedConcurrency) {
+            super(expectedConcurrency);
+        }
+
+        @Override
+        public long getQueueSize() {
+            return scheduledCount;
+        }
+
+        @Override
+        public long getPoolSize() {
+            return workers.getPoolSize();
+        }
+    }
+}
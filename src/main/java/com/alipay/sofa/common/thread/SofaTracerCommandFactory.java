@@ -82,7 +82,7 @@ public class SofaTracerCommandFactory {
         }
 
         @Override
-        public void run() {
+        protected void runTask() {
             sofaTracerRunnable.run();
         }
     }
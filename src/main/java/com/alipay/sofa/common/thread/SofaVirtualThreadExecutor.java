@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+import com.alipay.sofa.common.thread.virtual.SofaVirtualThreadFactory;
+import com.alipay.sofa.common.utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sofa executor which starts a new virtual thread for each task, it's registered to
+ * the {@link ThreadPoolGovernor} and monitored like {@link SofaThreadPoolExecutor}.
+ * <p>
+ * The count of concurrent executing tasks is limited by a {@link Semaphore}, the thread
+ * of a task is started at once and waits for a permit, so {@link #execute(Runnable)}
+ * never blocks. Tasks waiting for a permit are reported as queued, their waiting time
+ * is reported as the stay in queue time. The slot of a task in the statistics is taken from
+ * a lock-free free list when the task gets a permit and kept by the task itself, so starting
+ * a task never scans the slots or binds a thread local.
+ * <p>
+ * Virtual threads require JDK 21, a custom {@link ThreadFactory} can be used on older JDKs.
+ */
+public class SofaVirtualThreadExecutor extends AbstractExecutorService {
+    private static final String        SIMPLE_CLASS_NAME  = SofaVirtualThreadExecutor.class
+                                                              .getSimpleName();
+    private static final AtomicInteger POOL_COUNTER       = new AtomicInteger(0);
+    private final ThreadPoolConfig     config;
+    private final VirtualThreadStatistics statistics;
+    private final ThreadFactory        threadFactory;
+    private final int                  maxConcurrency;
+    private final Semaphore            permits;
+    /** tasks accepted and not finished, including the waiting ones */
+    private final AtomicInteger        inFlightCount      = new AtomicInteger();
+    /** tasks holding a permit */
+    private final AtomicInteger        runningCount       = new AtomicInteger();
+    /** tasks blocked on a permit by their threads, they are drained by shutdownNow */
+    private final ConcurrentHashMap<Thread, ExecutingRunnable> waitingTasks =
+        new ConcurrentHashMap<>();
+    private final AtomicBoolean        terminated         = new AtomicBoolean();
+    private final ReentrantLock        terminationLock    = new ReentrantLock();
+    private final Condition            termination        = terminationLock.newCondition();
+    private volatile boolean           shutdown           = false;
+    private volatile boolean           stopped            = false;
+    private boolean                    sofaTracerTransmit = false;
+
+    /**
+     * Basic constructor
+     * @param threadPoolName name of this executor
+     * @param spaceName spaceName of this executor
+     * @param maxConcurrency the max count of concurrent executing tasks
+     * @param threadFactory the factory to create the thread of each task, null to use virtual threads
+     * @param taskTimeout task execution timeout
+     * @param period task checking and logging period
+     * @param timeUnit unit of taskTimeout and period
+     */
+    public SofaVirtualThreadExecutor(String threadPoolName, String spaceName, int maxConcurrency,
+                                     ThreadFactory threadFactory, long taskTimeout, long period,
+                                     TimeUnit timeUnit) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        this.config = ThreadPoolConfig.newBuilder()
+            .threadPoolName(StringUtil.isEmpty(threadPoolName) ? createName() : threadPoolName)
+            .spaceName(spaceName).taskTimeout(taskTimeout).period(period).timeUnit(timeUnit)
+            .build();
+        this.threadFactory = threadFactory != null ? threadFactory : new VirtualThreadFactory(
+            config.getIdentity());
+        this.statistics = new VirtualThreadStatistics(maxConcurrency);
+        ThreadPoolGovernor.getInstance().registerExecutorService(this, config, statistics);
+    }
+
+    public SofaVirtualThreadExecutor(String threadPoolName, String spaceName, int maxConcurrency) {
+        this(threadPoolName, spaceName, maxConcurrency, null, 0, 0, null);
+    }
+
+    public SofaVirtualThreadExecutor(String threadPoolName, int maxConcurrency) {
+        this(threadPoolName, null, maxConcurrency);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        // count in flight before checking shutdown, so termination never misses this task
+        inFlightCount.incrementAndGet();
+        if (shutdown) {
+            taskDone();
+            throw new RejectedExecutionException("Task " + command + " rejected from "
+                                                 + config.getIdentity() + " as it's shut down");
+        }
+        ExecutingRunnable runner = sofaTracerTransmit ? SofaTracerCommandFactory
+            .ofExecutingRunnable(command) : new ExecutingRunnable(command);
+        runner.captureContext();
+        runner.setEnqueueTimeNanos(System.nanoTime());
+        Thread thread;
+        try {
+            thread = threadFactory.newThread(() -> runTask(runner));
+            if (thread == null) {
+                throw new RejectedExecutionException("Thread factory of " + config.getIdentity()
+                                                     + " returns null");
+            }
+            thread.start();
+        } catch (RuntimeException | Error e) {
+            taskDone();
+            throw e;
+        }
+    }
+
+    private void runTask(ExecutingRunnable runner) {
+        Thread current = Thread.currentThread();
+        if (!permits.tryAcquire()) {
+            waitingTasks.put(current, runner);
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                waitingTasks.remove(current);
+                taskDone();
+                return;
+            }
+            if (waitingTasks.remove(current) == null) {
+                // drained by shutdownNow
+                permits.release();
+                taskDone();
+                return;
+            }
+        }
+        runningCount.incrementAndGet();
+        try {
+            if (!stopped) {
+                long now = System.nanoTime();
+                runner.setDequeueTimeNanos(now);
+                runner.setThread(current);
+                ExecutingTaskSlot slot = statistics.acquireSlot(current);
+                statistics.startTask(slot, runner, now);
+                try {
+                    runner.run();
+                } finally {
+                    now = System.nanoTime();
+                    runner.setFinishTimeNanos(now);
+                    statistics.finishTask(slot, now);
+                    statistics.releaseSlot(slot);
+                    statistics.addTotalRunningTimeNanos(runner.getRunningTimeNanos());
+                    statistics.addTotalStayInQueueTimeNanos(runner.getStayInQueueTimeNanos());
+                    statistics.addTotalTaskCount();
+                }
+            }
+        } finally {
+            runningCount.decrementAndGet();
+            permits.release();
+            taskDone();
+        }
+    }
+
+    private void taskDone() {
+        if (inFlightCount.decrementAndGet() == 0 && shutdown) {
+            tryTerminate();
+        }
+    }
+
+    private void tryTerminate() {
+        if (inFlightCount.get() != 0 || !terminated.compareAndSet(false, true)) {
+            return;
+        }
+        ThreadPoolGovernor.getInstance().unregisterThreadPoolExecutor(config);
+        terminationLock.lock();
+        try {
+            termination.signalAll();
+        } finally {
+            terminationLock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        tryTerminate();
+    }
+
+    /**
+     * Interrupt the executing tasks and drain the tasks waiting for a permit, a task whose thread
+     * has not started to wait yet is dropped when it gets a permit.
+     * @return the tasks waiting for a permit, wrapped as {@link ExecutingRunnable}
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        stopped = true;
+        shutdown = true;
+        List<Runnable> drained = new ArrayList<>();
+        for (Thread thread : waitingTasks.keySet()) {
+            ExecutingRunnable runner = waitingTasks.remove(thread);
+            if (runner != null) {
+                drained.add(runner);
+                thread.interrupt();
+            }
+        }
+        for (ExecutingTaskSlot slot : statistics.getExecutingTaskSlots()) {
+            if (slot == null) {
+                continue;
+            }
+            Thread thread = slot.getThread();
+            if (thread != null && slot.getTask() != null) {
+                thread.interrupt();
+            }
+        }
+        tryTerminate();
+        return drained;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.get();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        terminationLock.lock();
+        try {
+            while (!terminated.get()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = termination.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            terminationLock.unlock();
+        }
+    }
+
+    public synchronized void startSchedule() {
+        ThreadPoolGovernor.getInstance().startMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void stopSchedule() {
+        ThreadPoolGovernor.getInstance().stopMonitorThreadPool(config.getIdentity());
+    }
+
+    public synchronized void reschedule() {
+        ThreadPoolGovernor.getInstance().restartMonitorThreadPool(config.getIdentity());
+    }
+
+    public void updatePeriod(long period) {
+        this.config.setPeriod(period);
+        reschedule();
+    }
+
+    public void updateTaskTimeout(long taskTimeout) {
+        this.config.setTaskTimeout(taskTimeout);
+        this.config.setTaskTimeoutMilli(this.config.getTimeUnit().toMillis(taskTimeout));
+        ThreadLogger.info("Updated '{}' taskTimeout to {} {}", this.config.getIdentity(),
+            taskTimeout, this.config.getTimeUnit());
+    }
+
+    /**
+     * Return the max count of concurrent executing tasks
+     * @return the max concurrency
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Return the count of tasks accepted and not finished, including the waiting ones
+     * @return the in flight count
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    public ThreadPoolConfig getConfig() {
+        return config;
+    }
+
+    public ThreadPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    private String createName() {
+        return SIMPLE_CLASS_NAME + String.format("%08x", POOL_COUNTER.getAndIncrement());
+    }
+
+    public void setSofaTracerTransmit(boolean sofaTracerTransmit) {
+        this.sofaTracerTransmit = sofaTracerTransmit;
+    }
+
+    public boolean isSofaTracerTransmit() {
+        return sofaTracerTransmit;
+    }
+
+    /**
+     * The statistics reporting tasks waiting for a permit as queued
+     */
+    private class VirtualThreadStatistics extends ThreadPoolStatistics {
+
+        /** the released slots, there are at most max concurrency slots in use */
+        private final ConcurrentLinkedQueue<ExecutingTaskSlot> freeSlots =
+            new ConcurrentLinkedQueue<>();
+
+        VirtualThreadStatistics(int expectedConcurrency) {
+            super(expectedConcurrency);
+        }
+
+        /**
+         * Take a free slot for the thread of a task, a new slot is added only when all the
+         * slots are in use
+         * @param thread the thread of the task
+         * @return the slot
+         */
+        ExecutingTaskSlot acquireSlot(Thread thread) {
+            ExecutingTaskSlot slot = freeSlots.poll();
+            if (slot == null) {
+                return newSlot(thread);
+            }
+            slot.takeOver(thread);
+            return slot;
+        }
+
+        /**
+         * Return the slot of a finished task to the free list
+         * @param slot the slot
+         */
+        void releaseSlot(ExecutingTaskSlot slot) {
+            slot.release();
+            freeSlots.offer(slot);
+        }
+
+        @Override
+        public long getQueueSize() {
+            return Math.max(0, inFlightCount.get() - runningCount.get());
+        }
+
+        @Override
+        public long getPoolSize() {
+            return runningCount.get();
+        }
+    }
+
+    /**
+     * Create named virtual threads by {@link SofaVirtualThreadFactory}
+     */
+    private static class VirtualThreadFactory implements ThreadFactory {
+
+        private final String     prefix;
+
+        private final AtomicLong counter = new AtomicLong();
+
+        VirtualThreadFactory(String prefix) {
+            this.prefix = prefix + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return SofaVirtualThreadFactory.ofThread(prefix + counter.getAndIncrement(), r);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_STACK_TRACE_DEDUPE_WINDOW;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_STACK_TRACE_MAX_DEPTH;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_STACK_TRACE_MAX_FRAMES;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_STACK_TRACE_RATE;
+
+/**
+ * The bounded stack trace capture of worker threads, it's shared by all thread pools.
+ * <p>
+ * The stacks of a batch of threads are captured by one {@link ThreadMXBean#getThreadInfo(long[], int)}
+ * call with a depth limit instead of one {@link Thread#getStackTrace()} per thread, the depth of
+ * each thread is also limited so a batch never captures more than the max frame count. Captures
+ * are rate limited by a global token bucket, threads over the limit are not captured, and the
+ * permits are granted from a rotated start index so the threads at the end of a batch are not
+ * starved. Formatted stacks are identified by their 64-bit hash, a stack printed within the
+ * dedupe window is printed as a reference to the hash.
+ * <p>
+ * {@link StackWalker} can't be used here since it only walks the stack of current thread.
+ */
+public class StackTraceSampler {
+
+    private static final StackTraceSampler         INSTANCE          = new StackTraceSampler();
+
+    /** the max count of remembered printed stacks */
+    private static final int                       MAX_PRINTED       = 1024;
+
+    private final ThreadMXBean                     threadMXBean      = ManagementFactory
+                                                                         .getThreadMXBean();
+
+    /** the last printed time of stack hashes */
+    private final ConcurrentHashMap<Long, Long>    printedStacks     = new ConcurrentHashMap<>();
+
+    private volatile int                           maxDepth          = DEFAULT_STACK_TRACE_MAX_DEPTH;
+
+    private volatile int                           maxFrames         = DEFAULT_STACK_TRACE_MAX_FRAMES;
+
+    private volatile int                           capturesPerSecond = DEFAULT_STACK_TRACE_RATE;
+
+    private volatile long                          dedupeWindowNanos = TimeUnit.SECONDS
+                                                                         .toNanos(DEFAULT_STACK_TRACE_DEDUPE_WINDOW);
+
+    /** the token bucket, guarded by this */
+    private double                                 tokens            = DEFAULT_STACK_TRACE_RATE;
+
+    private long                                   lastRefillTime    = System.nanoTime();
+
+    /** the index of the first thread granted in the next capture, guarded by this */
+    private int                                    nextIndex;
+
+    StackTraceSampler() {
+    }
+
+    public static StackTraceSampler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Capture the stacks of the threads in one operation
+     * @param threads the threads to capture
+     * @return the stacks in the order of the threads, an element is null when the thread
+     * is not captured by the rate limit
+     */
+    public StackTraceElement[][] capture(Thread... threads) {
+        StackTraceElement[][] stacks = new StackTraceElement[threads.length][];
+        int permitted;
+        int start;
+        synchronized (this) {
+            permitted = acquire(threads.length);
+            if (permitted == 0) {
+                return stacks;
+            }
+            start = permitted < threads.length ? nextIndex % threads.length : 0;
+            nextIndex = (start + permitted) % threads.length;
+        }
+        int depth = Math.max(1, Math.min(maxDepth, maxFrames / permitted));
+        long[] ids = new long[permitted];
+        for (int i = 0; i < permitted; i++) {
+            ids[i] = threads[(start + i) % threads.length].getId();
+        }
+        ThreadInfo[] infos = threadMXBean.getThreadInfo(ids, depth);
+        for (int i = 0; i < permitted; i++) {
+            int index = (start + i) % threads.length;
+            if (infos[i] != null) {
+                stacks[index] = infos[i].getStackTrace();
+            } else {
+                // virtual threads are not supported by the ThreadMXBean
+                StackTraceElement[] stack = threads[index].getStackTrace();
+                stacks[index] = stack.length > depth ? Arrays.copyOf(stack, depth) : stack;
+            }
+        }
+        return stacks;
+    }
+
+    /**
+     * Format a captured stack, each frame in a line with 4 spaces indent
+     * @param stack the captured stack, null if it's not captured
+     * @return the formatted stack, or a reference if the same stack is printed within the dedupe window
+     */
+    public String format(StackTraceElement[] stack) {
+        if (stack == null) {
+            return "    <stack trace is not captured by rate limit>";
+        }
+        StringBuilder frames = new StringBuilder();
+        for (StackTraceElement e : stack) {
+            frames.append("    ").append(e).append("\n");
+        }
+        long hash = hash(frames);
+        String id = String.format("%016x", hash);
+        long now = System.nanoTime();
+        Long printed = printedStacks.get(hash);
+        if (printed != null && now - printed < dedupeWindowNanos) {
+            return "    <same as stack trace " + id + ">";
+        }
+        if (printedStacks.size() >= MAX_PRINTED) {
+            evictExpired(now);
+        }
+        printedStacks.put(hash, now);
+        return "    stack trace " + id + ":\n" + frames;
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of the formatted frames, an int hash collides too often to dedupe on
+     * @param frames the formatted frames
+     * @return the hash
+     */
+    private static long hash(CharSequence frames) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < frames.length(); i++) {
+            hash = (hash ^ frames.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Long> it = printedStacks.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next() >= dedupeWindowNanos) {
+                it.remove();
+            }
+        }
+        if (printedStacks.size() >= MAX_PRINTED) {
+            printedStacks.clear();
+        }
+    }
+
+    /**
+     * Take tokens from the bucket
+     * @param requested the requested count
+     * @return the permitted count
+     */
+    private synchronized int acquire(int requested) {
+        long now = System.nanoTime();
+        int rate = capturesPerSecond;
+        tokens = Math.min(rate, tokens + (now - lastRefillTime) * rate / 1e9);
+        lastRefillTime = now;
+        int permitted = (int) Math.min(requested, Math.floor(tokens));
+        tokens -= permitted;
+        return permitted;
+    }
+
+    /**
+     * The max depth of a captured stack
+     * @return the max depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * The max frame count of one capture
+     * @return the max frame count
+     */
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public void setMaxFrames(int maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * The max count of captured threads per second, it's also the burst size
+     * @return the captures per second
+     */
+    public int getCapturesPerSecond() {
+        return capturesPerSecond;
+    }
+
+    public void setCapturesPerSecond(int capturesPerSecond) {
+        this.capturesPerSecond = capturesPerSecond;
+    }
+
+    /**
+     * The window in which the same stack is printed only once
+     * @return the window in seconds
+     */
+    public long getDedupeWindow() {
+        return TimeUnit.NANOSECONDS.toSeconds(dedupeWindowNanos);
+    }
+
+    public void setDedupeWindow(long dedupeWindow) {
+        this.dedupeWindowNanos = TimeUnit.SECONDS.toNanos(dedupeWindow);
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.log.Constants;
+import com.alipay.sofa.common.thread.context.ContextPropagation;
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_STACK_TRACE_DEDUPE_WINDOW;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_WATCHDOG_MIN_POOLS;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_WATCHDOG_PERIOD;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_WATCHDOG_RING_SIZE;
+
+/**
+ * The watchdog of the tasks executing longer than the task timeout in all registered
+ * thread pools, it's stopped by default.
+ * <p>
+ * In each period the stacks of the stuck tasks are captured by a {@link StackTraceSampler} of
+ * the watchdog's own, so it doesn't spend the rate limit of the monitors, and saved to a
+ * bounded ring buffer, so the stacks of a task are sampled again and again while it's stuck. When stuck tasks of several thread pools are blocked at the same frame,
+ * such as a common lock or a downstream client, the frame is logged as the suspected cause.
+ * The samples in the ring buffer are written as collapsed stacks, one line per distinct stack
+ * with the count of samples, to a file in the log directory of sofa-thread which can be
+ * rendered as a flame graph. The file is written by a writer thread of the watchdog instead
+ * of the monitor timer wheel, a write not started yet covers the later samples too.
+ * <p>
+ * Frames of the JDK, the tracer and the executors are skipped when searching the common
+ * frame, they are shared by all the worker threads.
+ */
+public class StuckThreadWatchdog implements Runnable {
+
+    private static final StuckThreadWatchdog INSTANCE            = new StuckThreadWatchdog(
+                                                                     DEFAULT_WATCHDOG_RING_SIZE);
+
+    private static final String              FILE_NAME           = "stuck-threads.collapsed";
+
+    private static final String[]            SKIPPED_PREFIXES    = { "java.", "javax.", "jdk.",
+            "sun.", "com.sun.", "com.alipay.common.tracer."     };
+
+    private static final Set<String>         SKIPPED_CLASSES     = new HashSet<>();
+
+    static {
+        SKIPPED_CLASSES.add(ExecutingRunnable.class.getName());
+        SKIPPED_CLASSES.add(SofaTracerCommandFactory.class.getName());
+        SKIPPED_CLASSES.add(SofaThreadPoolExecutor.class.getName());
+        SKIPPED_CLASSES.add(SofaScheduledThreadPoolExecutor.class.getName());
+        SKIPPED_CLASSES.add(SofaVirtualThreadExecutor.class.getName());
+        SKIPPED_CLASSES.add(SofaForkJoinPool.class.getName());
+        SKIPPED_CLASSES.add(SofaPartitionedExecutor.class.getName());
+        SKIPPED_CLASSES.add(SofaTimingWheelScheduledExecutor.class.getName());
+        SKIPPED_CLASSES.add(ContextPropagation.class.getName());
+    }
+
+    /** the samples, guarded by this */
+    private final StackSample[]              ring;
+
+    /** the count of samples ever added, guarded by this */
+    private long                             sampleCount;
+
+    /** the last logged time of common frames */
+    private final Map<String, Long>          loggedFrames        = new ConcurrentHashMap<>();
+
+    private volatile int                     minPools            = DEFAULT_WATCHDOG_MIN_POOLS;
+
+    private volatile File                    outputFile;
+
+    private final StackTraceSampler          sampler             = new StackTraceSampler();
+
+    /** the writer of the collapsed stacks, its only thread is started on demand */
+    private final ThreadPoolExecutor         writer              = new ThreadPoolExecutor(0, 1,
+                                                                     60, TimeUnit.SECONDS,
+                                                                     new LinkedBlockingQueue<>(),
+                                                                     new NamedThreadFactory(
+                                                                         "SOFA-Stuck-Thread-Writer",
+                                                                         true));
+
+    /** whether a write is queued and not started yet */
+    private final AtomicBoolean              writePending        = new AtomicBoolean();
+
+    /** the scheduled watchdog, guarded by this */
+    private MonitorTimerWheel.Timeout        timeout;
+
+    StuckThreadWatchdog(int ringSize) {
+        if (ringSize <= 0) {
+            throw new IllegalArgumentException("ringSize must be positive: " + ringSize);
+        }
+        this.ring = new StackSample[ringSize];
+    }
+
+    public static StuckThreadWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start the watchdog with the default period
+     */
+    public void start() {
+        start(DEFAULT_WATCHDOG_PERIOD, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start the watchdog on the monitor timer wheel of the {@link ThreadPoolGovernor}
+     * @param period the sampling period
+     * @param unit the unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (timeout != null) {
+            ThreadLogger.warn("Stuck thread watchdog is already started");
+            return;
+        }
+        timeout = ThreadPoolGovernor.getInstance().getMonitorTimerWheel()
+            .scheduleAtFixedRate(this, period, unit);
+        ThreadLogger.info("Stuck thread watchdog started with period: {} {}", period, unit);
+    }
+
+    /**
+     * Stop the watchdog, the samples are kept
+     */
+    public synchronized void stop() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+            ThreadLogger.info("Stuck thread watchdog stopped");
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            sample();
+        } catch (Throwable e) {
+            ThreadLogger.warn("Stuck thread watchdog is failed when running: {}", e);
+        }
+    }
+
+    /**
+     * Sample the stacks of the stuck tasks in all the registered thread pools once
+     * @return the common frames of the stuck tasks in this sampling
+     */
+    List<String> sample() {
+        List<Thread> threads = new ArrayList<>();
+        List<String> pools = new ArrayList<>();
+        long now = System.nanoTime();
+        for (ThreadPoolMonitorWrapper wrapper : ThreadPoolGovernor.getInstance()
+            .getAllThreadPoolWrappers()) {
+            ThreadPoolConfig config = wrapper.getThreadPoolConfig();
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getTaskTimeoutMilli());
+            for (ExecutingTaskSlot slot : wrapper.getThreadPoolStatistics()
+                .getExecutingTaskSlots()) {
+                if (slot == null || slot.getTask() == null
+                    || now - slot.getStartTime() < timeoutNanos) {
+                    continue;
+                }
+                Thread thread = slot.getThread();
+                if (thread != null) {
+                    threads.add(thread);
+                    pools.add(config.getIdentity());
+                }
+            }
+        }
+        if (threads.isEmpty()) {
+            return new ArrayList<>();
+        }
+        StackTraceElement[][] stacks = sampler.capture(threads.toArray(new Thread[0]));
+        long time = System.currentTimeMillis();
+        synchronized (this) {
+            for (int i = 0; i < stacks.length; i++) {
+                if (stacks[i] != null) {
+                    ring[(int) (sampleCount++ % ring.length)] = new StackSample(time, pools.get(i),
+                        threads.get(i).getName(), stacks[i]);
+                }
+            }
+        }
+        List<String> commonFrames = findCommonFrames(pools, stacks);
+        scheduleWrite();
+        return commonFrames;
+    }
+
+    /**
+     * Write the collapsed stacks on the writer thread, a pending write reads the samples
+     * when it starts so no other write is queued
+     */
+    private void scheduleWrite() {
+        if (writePending.compareAndSet(false, true)) {
+            writer.execute(() -> {
+                // the samples added after this are written by the next write
+                writePending.set(false);
+                writeCollapsedStacks();
+            });
+        }
+    }
+
+    /**
+     * Find the top frame of each stack which is shared by the stacks of enough thread pools
+     * @param pools the thread pool of each stack
+     * @param stacks the stacks
+     * @return the common frames
+     */
+    private List<String> findCommonFrames(List<String> pools, StackTraceElement[][] stacks) {
+        Map<String, Set<String>> framePools = new HashMap<>();
+        for (int i = 0; i < stacks.length; i++) {
+            if (stacks[i] == null) {
+                continue;
+            }
+            for (StackTraceElement element : stacks[i]) {
+                if (!isSkipped(element)) {
+                    framePools.computeIfAbsent(frameOf(element), k -> new HashSet<>()).add(
+                        pools.get(i));
+                }
+            }
+        }
+        Map<String, Set<String>> commonFrames = new LinkedHashMap<>();
+        for (StackTraceElement[] stack : stacks) {
+            if (stack == null) {
+                continue;
+            }
+            for (StackTraceElement element : stack) {
+                if (isSkipped(element)) {
+                    continue;
+                }
+                String frame = frameOf(element);
+                Set<String> sharedPools = framePools.get(frame);
+                if (sharedPools.size() >= minPools) {
+                    commonFrames.put(frame, sharedPools);
+                    break;
+                }
+            }
+        }
+        long now = System.nanoTime();
+        long dedupeWindowNanos = TimeUnit.SECONDS.toNanos(DEFAULT_STACK_TRACE_DEDUPE_WINDOW);
+        for (Iterator<Long> it = loggedFrames.values().iterator(); it.hasNext();) {
+            if (now - it.next() >= dedupeWindowNanos) {
+                it.remove();
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : commonFrames.entrySet()) {
+            if (loggedFrames.putIfAbsent(entry.getKey(), now) == null) {
+                ThreadLogger.warn(
+                    "Stuck tasks in {} thread pools {} are blocked at the same frame {}", entry
+                        .getValue().size(), entry.getValue(), entry.getKey());
+            }
+        }
+        return new ArrayList<>(commonFrames.keySet());
+    }
+
+    /**
+     * Write the samples in the ring buffer as collapsed stacks, the root frame is the thread pool
+     */
+    private void writeCollapsedStacks() {
+        Map<String, Integer> collapsedStacks = new LinkedHashMap<>();
+        for (StackSample sample : getSamples()) {
+            StringBuilder sb = new StringBuilder(sample.getThreadPool());
+            StackTraceElement[] stack = sample.getStack();
+            for (int i = stack.length - 1; i >= 0; i--) {
+                sb.append(';').append(frameOf(stack[i]));
+            }
+            collapsedStacks.merge(sb.toString(), 1, Integer::sum);
+        }
+        File file = getOutputFile();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Failed to create directory " + dir);
+            }
+            try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(),
+                StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Integer> entry : collapsedStacks.entrySet()) {
+                    writer.write(entry.getKey());
+                    writer.write(' ');
+                    writer.write(String.valueOf(entry.getValue()));
+                    writer.write('\n');
+                }
+            }
+            try {
+                // a plain replacing move deletes the file first, readers could miss it
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            ThreadLogger.warn("Stuck thread watchdog is failed to write {}: {}", file, e);
+        }
+    }
+
+    private static boolean isSkipped(StackTraceElement element) {
+        String className = element.getClassName();
+        for (String prefix : SKIPPED_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        int index = className.indexOf('$');
+        return SKIPPED_CLASSES.contains(index < 0 ? className : className.substring(0, index));
+    }
+
+    private static String frameOf(StackTraceElement element) {
+        return element.getClassName() + "." + element.getMethodName();
+    }
+
+    /**
+     * Return the samples in the ring buffer from the oldest
+     * @return the samples
+     */
+    public synchronized List<StackSample> getSamples() {
+        int count = (int) Math.min(sampleCount, ring.length);
+        List<StackSample> samples = new ArrayList<>(count);
+        for (long i = sampleCount - count; i < sampleCount; i++) {
+            samples.add(ring[(int) (i % ring.length)]);
+        }
+        return samples;
+    }
+
+    /**
+     * The min count of thread pools sharing a frame to log it as a common frame
+     * @return the min pool count
+     */
+    public int getMinPools() {
+        return minPools;
+    }
+
+    public void setMinPools(int minPools) {
+        this.minPools = minPools;
+    }
+
+    /**
+     * The file of the collapsed stacks, it's in the log directory of sofa-thread by default
+     * @return the output file
+     */
+    public File getOutputFile() {
+        File file = outputFile;
+        if (file != null) {
+            return file;
+        }
+        String loggingPath = System.getProperty(Constants.LOG_PATH_PREFIX + "sofa-thread",
+            System.getProperty(Constants.LOG_PATH, Constants.LOGGING_PATH_DEFAULT));
+        return new File(loggingPath + File.separator + "sofa-thread", FILE_NAME);
+    }
+
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * The sampler capturing the stacks of the stuck tasks, it's rate limited apart from the
+     * sampler of the monitors
+     * @return the stack trace sampler
+     */
+    public StackTraceSampler getStackTraceSampler() {
+        return sampler;
+    }
+
+    /**
+     * A stack sample of a stuck task
+     */
+    public static class StackSample {
+
+        private final long                time;
+
+        private final String              threadPool;
+
+        private final String              threadName;
+
+        private final StackTraceElement[] stack;
+
+        StackSample(long time, String threadPool, String threadName, StackTraceElement[] stack) {
+            this.time = time;
+            this.threadPool = threadPool;
+            this.threadName = threadName;
+            this.stack = stack;
+        }
+
+        /**
+         * @return the sampling time in milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return the identity of the thread pool
+         */
+        public String getThreadPool() {
+            return threadPool;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public StackTraceElement[] getStack() {
+            return stack;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.utils.ClassUtil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_TASK_TYPE_TOP_N;
+
+/**
+ * The statistics of the tasks of a thread pool grouped by the task type, the type is the
+ * class of the submitted task after unwrapping the {@link TaskWrapper}s and SofaTracerRunnables.
+ * <p>
+ * The count of types is bounded, tasks of new types are counted as {@link #OTHER_TYPE} when
+ * the limit is reached. Each type keeps it's task count, total times and a histogram of the
+ * running time with power of two buckets, recording a task never allocates.
+ */
+public class TaskTypeBreakdown {
+
+    /**
+     * the type name of the tasks not counted by their own type
+     */
+    public static final String                                 OTHER_TYPE                      = "<other>";
+
+    private static final String                                SOFA_TRACER_RUNNABLE_CLASS_NAME = "com.alipay.common.tracer.core.async.SofaTracerRunnable";
+
+    /**
+     * the class of SofaTracerRunnable, null if it's absent
+     */
+    private static final Class<?>                              TRACER_RUNNABLE_CLASS           = findTracerRunnableClass();
+
+    /**
+     * the getter of the wrapped runnable in SofaTracerRunnable typed (Object)Object, it's
+     * looked up once, null if the class is absent or the field is not found
+     */
+    private static final MethodHandle                          TRACER_WRAPPED_RUNNABLE         = findTracerWrappedRunnable(TRACER_RUNNABLE_CLASS);
+
+    /**
+     * the max count of wrappers to unwrap, it stops a wrapper which wraps itself
+     */
+    static final int                                           MAX_UNWRAP_DEPTH                = 8;
+
+    private final int                                          maxTaskTypes;
+
+    private final ConcurrentHashMap<Class<?>, TaskTypeCounter> counters                        = new ConcurrentHashMap<>();
+
+    private final TaskTypeCounter                              other                           = new TaskTypeCounter(OTHER_TYPE);
+
+    private volatile int                                       topN                            = DEFAULT_TASK_TYPE_TOP_N;
+
+    /**
+     * Constructor
+     * @param maxTaskTypes the max count of task types, it may be exceeded by a few types
+     *                     when tasks of new types finish concurrently
+     */
+    public TaskTypeBreakdown(int maxTaskTypes) {
+        if (maxTaskTypes <= 0) {
+            throw new IllegalArgumentException("maxTaskTypes must be positive: " + maxTaskTypes);
+        }
+        this.maxTaskTypes = maxTaskTypes;
+    }
+
+    /**
+     * Count a finished task
+     * @param task the finished task
+     * @param runningTime the running time in nanoseconds
+     * @param stayInQueueTime the stay in queue time in nanoseconds
+     * @param cpuTime the CPU time in nanoseconds, -1 if not measured
+     * @param allocatedBytes the allocated bytes, -1 if not measured
+     */
+    public void record(Runnable task, long runningTime, long stayInQueueTime, long cpuTime,
+                       long allocatedBytes) {
+        counterOf(taskTypeOf(task)).record(runningTime, stayInQueueTime, cpuTime,
+            allocatedBytes);
+    }
+
+    private TaskTypeCounter counterOf(Class<?> type) {
+        TaskTypeCounter counter = counters.get(type);
+        if (counter != null) {
+            return counter;
+        }
+        if (counters.size() >= maxTaskTypes) {
+            return other;
+        }
+        return counters.computeIfAbsent(type, t -> new TaskTypeCounter(t.getName()));
+    }
+
+    /**
+     * Return the type of the task, wrappers are unwrapped
+     * @param task the task
+     * @return the type of the wrapped task
+     */
+    public static Class<?> taskTypeOf(Object task) {
+        for (int i = 0; i < MAX_UNWRAP_DEPTH; i++) {
+            Object wrapped;
+            if (task instanceof TaskWrapper) {
+                wrapped = ((TaskWrapper) task).getWrappedTask();
+            } else if (TRACER_WRAPPED_RUNNABLE != null && TRACER_RUNNABLE_CLASS.isInstance(task)) {
+                wrapped = readTracerWrappedRunnable(task);
+            } else {
+                break;
+            }
+            if (wrapped == null) {
+                break;
+            }
+            task = wrapped;
+        }
+        return task.getClass();
+    }
+
+    /**
+     * Take the statistics of each task type since last call and start a new interval
+     * @return the types having tasks finished in the interval, ordered by the total
+     * running time from the largest
+     */
+    public synchronized List<TaskTypeSnapshot> snapshotAndReset() {
+        List<TaskTypeSnapshot> snapshots = new ArrayList<>();
+        for (TaskTypeCounter counter : counters.values()) {
+            TaskTypeSnapshot snapshot = counter.snapshotAndReset();
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        TaskTypeSnapshot snapshot = other.snapshotAndReset();
+        if (snapshot != null) {
+            snapshots.add(snapshot);
+        }
+        snapshots.sort((a, b) -> Long.compare(b.getTotalRunningTime(), a.getTotalRunningTime()));
+        return snapshots;
+    }
+
+    /**
+     * Return the count of the counted task types, {@link #OTHER_TYPE} is not included
+     * @return the task type count
+     */
+    public int getTaskTypeCount() {
+        return counters.size();
+    }
+
+    public int getMaxTaskTypes() {
+        return maxTaskTypes;
+    }
+
+    /**
+     * The count of task types printed in each period of the monitor
+     * @return the printed task type count
+     */
+    public int getTopN() {
+        return topN;
+    }
+
+    public void setTopN(int topN) {
+        this.topN = topN;
+    }
+
+    private static Class<?> findTracerRunnableClass() {
+        ClassLoader classLoader = TaskTypeBreakdown.class.getClassLoader();
+        if (!ClassUtil.isPresent(SOFA_TRACER_RUNNABLE_CLASS_NAME, classLoader)) {
+            return null;
+        }
+        try {
+            return Class.forName(SOFA_TRACER_RUNNABLE_CLASS_NAME, false, classLoader);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle findTracerWrappedRunnable(Class<?> tracerRunnableClass) {
+        if (tracerRunnableClass == null) {
+            return null;
+        }
+        try {
+            Field field = tracerRunnableClass.getDeclaredField("wrappedRunnable");
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field)
+                .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static Object readTracerWrappedRunnable(Object task) {
+        try {
+            return (Object) TRACER_WRAPPED_RUNNABLE.invokeExact(task);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * The counters of one task type
+     */
+    private static class TaskTypeCounter {
+
+        /** the bucket i counts the running times in [2^(i-1), 2^i) nanoseconds */
+        private static final int      BUCKET_COUNT    = 64;
+
+        private final String          taskType;
+
+        private final LongAdder       taskCount       = new LongAdder();
+
+        private final LongAdder       runningTime     = new LongAdder();
+
+        private final LongAdder       stayInQueueTime = new LongAdder();
+
+        private final LongAdder       cpuTime         = new LongAdder();
+
+        private final LongAdder       allocatedBytes  = new LongAdder();
+
+        private final AtomicLongArray buckets         = new AtomicLongArray(BUCKET_COUNT);
+
+        /** the accumulated values at the last snapshot, guarded by the breakdown */
+        private long                  lastTaskCount;
+
+        private long                  lastRunningTime;
+
+        private long                  lastStayInQueueTime;
+
+        private long                  lastCpuTime;
+
+        private long                  lastAllocatedBytes;
+
+        private final long[]          lastBuckets     = new long[BUCKET_COUNT];
+
+        TaskTypeCounter(String taskType) {
+            this.taskType = taskType;
+        }
+
+        void record(long runningTime, long stayInQueueTime, long cpuTime, long allocatedBytes) {
+            runningTime = Math.max(0, runningTime);
+            this.runningTime.add(runningTime);
+            this.stayInQueueTime.add(Math.max(0, stayInQueueTime));
+            if (cpuTime > 0) {
+                this.cpuTime.add(cpuTime);
+            }
+            if (allocatedBytes > 0) {
+                this.allocatedBytes.add(allocatedBytes);
+            }
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(runningTime));
+            // count last, the times of a counted task are always added before
+            this.taskCount.increment();
+        }
+
+        TaskTypeSnapshot snapshotAndReset() {
+            long count = taskCount.sum();
+            long intervalCount = count - lastTaskCount;
+            if (intervalCount == 0) {
+                return null;
+            }
+            lastTaskCount = count;
+            long running = runningTime.sum();
+            long stayInQueue = stayInQueueTime.sum();
+            long cpu = cpuTime.sum();
+            long allocated = allocatedBytes.sum();
+            long rank = Math.max(1, (long) Math.ceil(0.99 * intervalCount));
+            long seen = 0;
+            long p99 = -1;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long bucket = buckets.get(i);
+                seen += bucket - lastBuckets[i];
+                lastBuckets[i] = bucket;
+                if (p99 < 0 && seen >= rank) {
+                    p99 = i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            TaskTypeSnapshot snapshot = new TaskTypeSnapshot(taskType, intervalCount,
+                running - lastRunningTime, stayInQueue - lastStayInQueueTime, cpu - lastCpuTime,
+                allocated - lastAllocatedBytes, Math.max(0, p99));
+            lastRunningTime = running;
+            lastStayInQueueTime = stayInQueue;
+            lastCpuTime = cpu;
+            lastAllocatedBytes = allocated;
+            return snapshot;
+        }
+    }
+
+    /**
+     * The statistics of one task type in one interval
+     */
+    public static class TaskTypeSnapshot {
+
+        private final String taskType;
+
+        private final long   taskCount;
+
+        private final long   totalRunningTime;
+
+        private final long   totalStayInQueueTime;
+
+        private final long   totalCpuTime;
+
+        private final long   totalAllocatedBytes;
+
+        private final long   p99RunningTime;
+
+        TaskTypeSnapshot(String taskType, long taskCount, long totalRunningTime,
+                         long totalStayInQueueTime, long totalCpuTime, long totalAllocatedBytes,
+                         long p99RunningTime) {
+            this.taskType = taskType;
+            this.taskCount = taskCount;
+            this.totalRunningTime = totalRunningTime;
+            this.totalStayInQueueTime = totalStayInQueueTime;
+            this.totalCpuTime = totalCpuTime;
+            this.totalAllocatedBytes = totalAllocatedBytes;
+            this.p99RunningTime = p99RunningTime;
+        }
+
+        /**
+         * @return the class name of the task type, or {@link #OTHER_TYPE}
+         */
+        public String getTaskType() {
+            return taskType;
+        }
+
+        /**
+         * @return the count of finished tasks
+         */
+        public long getTaskCount() {
+            return taskCount;
+        }
+
+        /**
+         * @return the total running time in nanoseconds
+         */
+        public long getTotalRunningTime() {
+            return totalRunningTime;
+        }
+
+        /**
+         * @return the total stay in queue time in nanoseconds
+         */
+        public long getTotalStayInQueueTime() {
+            return totalStayInQueueTime;
+        }
+
+        /**
+         * @return the total CPU time in nanoseconds, 0 if not measured
+         */
+        public long getTotalCpuTime() {
+            return totalCpuTime;
+        }
+
+        /**
+         * @return the total allocated bytes, 0 if not measured
+         */
+        public long getTotalAllocatedBytes() {
+            return totalAllocatedBytes;
+        }
+
+        /**
+         * @return the average running time in nanoseconds
+         */
+        public long getAverageRunningTime() {
+            return totalRunningTime / taskCount;
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the 99th percentile running time in
+         * nanoseconds, it's at most twice the real value
+         */
+        public long getP99RunningTime() {
+            return p99RunningTime;
+        }
+    }
+}
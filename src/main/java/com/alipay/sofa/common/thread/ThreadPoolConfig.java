@@ -31,19 +31,21 @@ import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_TASK
  */
 public class ThreadPoolConfig {
 
-    private String   threadPoolName;
+    private String                        threadPoolName;
 
-    private String   spaceName;
+    private String                        spaceName;
 
-    private long     taskTimeout;
+    private long                          taskTimeout;
 
-    private long     period;
+    private long                          period;
 
-    private TimeUnit timeUnit;
+    private TimeUnit                      timeUnit;
 
-    private long     taskTimeoutMilli;
+    private long                          taskTimeoutMilli;
 
-    private String   identity;
+    private String                        identity;
+
+    private volatile AdaptiveSizingPolicy adaptiveSizingPolicy;
 
     public static SofaThreadConfigBuilder newBuilder() {
         return new SofaThreadConfigBuilder();
@@ -57,6 +59,7 @@ public class ThreadPoolConfig {
         this.timeUnit = builder.timeUnit == null ? TimeUnit.MILLISECONDS : builder.timeUnit;
         this.taskTimeoutMilli = this.timeUnit.toMillis(this.taskTimeout);
         this.identity = buildIdentity(this.threadPoolName, this.spaceName);
+        this.adaptiveSizingPolicy = builder.adaptiveSizingPolicy;
     }
 
     /**
@@ -115,6 +118,14 @@ public class ThreadPoolConfig {
         return taskTimeoutMilli;
     }
 
+    /**
+     * The adaptive sizing policy, null if the thread pool is not resized by the governor
+     * @return the {@link AdaptiveSizingPolicy}
+     */
+    public AdaptiveSizingPolicy getAdaptiveSizingPolicy() {
+        return adaptiveSizingPolicy;
+    }
+
     public void setThreadPoolName(String threadPoolName) {
         this.threadPoolName = threadPoolName;
         this.identity = buildIdentity(this.threadPoolName, this.spaceName);
@@ -141,6 +152,10 @@ public class ThreadPoolConfig {
         this.taskTimeoutMilli = taskTimeoutMilli;
     }
 
+    public void setAdaptiveSizingPolicy(AdaptiveSizingPolicy adaptiveSizingPolicy) {
+        this.adaptiveSizingPolicy = adaptiveSizingPolicy;
+    }
+
     /**
      * The generate method of the identity
      * @return the generated identity
@@ -162,16 +177,18 @@ public class ThreadPoolConfig {
         sb.append(", timeUnit=").append(timeUnit);
         sb.append(", taskTimeoutMilli=").append(taskTimeoutMilli);
         sb.append(", identity='").append(identity).append('\'');
+        sb.append(", adaptiveSizingPolicy=").append(adaptiveSizingPolicy);
         sb.append('}');
         return sb.toString();
     }
 
     public static final class SofaThreadConfigBuilder {
-        private String   threadPoolName;
-        private String   spaceName;
-        private long     taskTimeout;
-        private long     period;
-        private TimeUnit timeUnit;
+        private String               threadPoolName;
+        private String               spaceName;
+        private long                 taskTimeout;
+        private long                 period;
+        private TimeUnit             timeUnit;
+        private AdaptiveSizingPolicy adaptiveSizingPolicy;
 
         private SofaThreadConfigBuilder() {
         }
@@ -201,6 +218,11 @@ public class ThreadPoolConfig {
             return this;
         }
 
+        public SofaThreadConfigBuilder adaptiveSizingPolicy(AdaptiveSizingPolicy adaptiveSizingPolicy) {
+            this.adaptiveSizingPolicy = adaptiveSizingPolicy;
+            return this;
+        }
+
         public ThreadPoolConfig build() {
             return new ThreadPoolConfig(this);
         }
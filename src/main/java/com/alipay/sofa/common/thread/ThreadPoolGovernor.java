@@ -17,17 +17,30 @@
 package com.alipay.sofa.common.thread;
 
 import com.alipay.sofa.common.thread.log.ThreadLogger;
+import com.alipay.sofa.common.thread.metrics.MetricsExporterManager;
 import com.alipay.sofa.common.thread.space.ThreadPoolSpace;
 import com.alipay.sofa.common.utils.StringUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
 
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_ADAPTIVE_SIZING_INTERVAL;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_DRAIN_REPORT_INTERVAL;
 import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_GOVERNOR_INTERVAL;
 import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_GOVERNOR_LOGGER_ENABLE;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_MONITOR_TICK;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_MONITOR_WHEEL_SIZE;
 import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_GLOBAL_MONITOR_LOGGER_ENABLE;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_SNAPSHOT_MAX_AGE;
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_WARM_UP_CONCURRENCY;
 
 /**
  * The governor to manager the {@link ThreadPoolExecutor}s
@@ -45,13 +58,27 @@ public class ThreadPoolGovernor {
     private final ScheduledExecutorService                governorScheduler =  Executors.newScheduledThreadPool(1,
                                                                                             new NamedThreadFactory("SOFA-Thread-Pool-Governor"));
 
-    private final ScheduledExecutorService                monitorScheduler =   Executors.newScheduledThreadPool(
-                              Runtime.getRuntime().availableProcessors() + 1, new NamedThreadFactory("SOFA-Thread-Pool-Monitor"));
+    /** created on demand, the monitor tasks run on the monitorTimerWheel */
+    private volatile ScheduledExecutorService             monitorScheduler;
+
+    private final MonitorTimerWheel                       monitorTimerWheel = new MonitorTimerWheel(
+                              new NamedThreadFactory("SOFA-Thread-Pool-Monitor-Wheel", true), DEFAULT_MONITOR_TICK,
+                              TimeUnit.MILLISECONDS, DEFAULT_MONITOR_WHEEL_SIZE);
 
     private final Object                                   monitor            = new Object();
 
+    private final Object                                   snapshotLock       = new Object();
+
+    /** the double buffer of the shared snapshot, the one not published is filled next */
+    private final ThreadPoolSnapshot[]                     sharedSnapshots    = {
+            new ThreadPoolSnapshot(), new ThreadPoolSnapshot() };
+
+    private volatile ThreadPoolSnapshot                    sharedSnapshot;
+
     private final GovernorInfoDumper                       governorInfoDumper = new GovernorInfoDumper();
 
+    private final AdaptiveSizingTask                       adaptiveSizingTask = new AdaptiveSizingTask();
+
     private final ConcurrentHashMap<String, ThreadPoolMonitorWrapper>   registry           = new ConcurrentHashMap<>();
 
     private final ConcurrentHashMap<String, ThreadPoolSpace>        spaceNameMap       = new ConcurrentHashMap<>();
@@ -62,8 +89,12 @@ public class ThreadPoolGovernor {
 
     private volatile boolean                                                     globalMonitorLoggable = DEFAULT_GLOBAL_MONITOR_LOGGER_ENABLE;
 
+    private volatile long                                                        adaptiveSizingPeriod = DEFAULT_ADAPTIVE_SIZING_INTERVAL;
+
     private ScheduledFuture<?> governorScheduledFuture;
 
+    private ScheduledFuture<?> adaptiveSizingScheduledFuture;
+
     public static ThreadPoolGovernor getInstance() {
         return INSTANCE;
     }
@@ -118,7 +149,7 @@ public class ThreadPoolGovernor {
                 if (governorLoggable) {
                     for (Map.Entry<String, ThreadPoolMonitorWrapper> entry : registry.entrySet()) {
                         ThreadLogger.info("Thread pool '{}' exists with instance: {}",
-                                entry.getKey(), entry.getValue().getThreadPoolExecutor());
+                                entry.getKey(), entry.getValue().getExecutorService());
                     }
                 }
             } catch (Throwable e) {
@@ -127,6 +158,70 @@ public class ThreadPoolGovernor {
         }
     }
 
+    /**
+     * The task to resize the {@link ThreadPoolExecutor}s with an {@link AdaptiveSizingPolicy}
+     */
+    class AdaptiveSizingTask implements Runnable {
+        @Override
+        public void run() {
+            for (ThreadPoolMonitorWrapper wrapper : registry.values()) {
+                try {
+                    wrapper.adjustPoolSize();
+                } catch (Throwable e) {
+                    ThreadLogger.warn("Thread pool '{}' is failed to adjust pool size: {}",
+                            wrapper.getThreadPoolConfig().getIdentity(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the adaptive sizing task if it's not started, it's started automatically
+     * when a thread pool with an {@link AdaptiveSizingPolicy} is registered
+     */
+    public synchronized void startAdaptiveSizingSchedule() {
+        if (adaptiveSizingScheduledFuture == null) {
+            adaptiveSizingScheduledFuture = governorScheduler.scheduleWithFixedDelay(adaptiveSizingTask,
+                    adaptiveSizingPeriod, adaptiveSizingPeriod, TimeUnit.SECONDS);
+            ThreadLogger.info("Started adaptive sizing of {} with period: {} SECONDS", CLASS_NAME,
+                    adaptiveSizingPeriod);
+        }
+    }
+
+    /**
+     * Stop the adaptive sizing task
+     */
+    public synchronized void stopAdaptiveSizingSchedule() {
+        if (adaptiveSizingScheduledFuture != null) {
+            adaptiveSizingScheduledFuture.cancel(false);
+            adaptiveSizingScheduledFuture = null;
+            ThreadLogger.info("Stopped adaptive sizing of {}.", CLASS_NAME);
+        } else {
+            ThreadLogger.warn("Adaptive sizing of {} is not scheduling!", CLASS_NAME);
+        }
+    }
+
+    /**
+     * The period of the adaptive sizing task
+     * @return the period in seconds
+     */
+    public long getAdaptiveSizingPeriod() {
+        return adaptiveSizingPeriod;
+    }
+
+    /**
+     * Update the period of the adaptive sizing task, then restart the task if it's started
+     * @param adaptiveSizingPeriod the period in seconds
+     */
+    public synchronized void setAdaptiveSizingPeriod(long adaptiveSizingPeriod) {
+        this.adaptiveSizingPeriod = adaptiveSizingPeriod;
+        if (adaptiveSizingScheduledFuture != null) {
+            adaptiveSizingScheduledFuture.cancel(false);
+            adaptiveSizingScheduledFuture = null;
+            startAdaptiveSizingSchedule();
+        }
+    }
+
     /**
      * The period of the dump task
      * @return the period
@@ -186,25 +281,45 @@ public class ThreadPoolGovernor {
     public void registerThreadPoolExecutor(ThreadPoolExecutor threadPoolExecutor,
                                            ThreadPoolConfig threadPoolConfig,
                                            ThreadPoolStatistics threadPoolStatistics) {
+        registerExecutorService(threadPoolExecutor, threadPoolConfig, threadPoolStatistics);
+    }
+
+    /**
+     * Register an {@link ExecutorService} which is not a {@link ThreadPoolExecutor} with
+     * {@link ThreadPoolConfig} and {@link ThreadPoolStatistics} to the governor
+     * @param executorService the base executor
+     * @param threadPoolConfig the description of the executor
+     * @param threadPoolStatistics the running statistics of the executor
+     */
+    public void registerExecutorService(ExecutorService executorService,
+                                        ThreadPoolConfig threadPoolConfig,
+                                        ThreadPoolStatistics threadPoolStatistics) {
         final String identity = threadPoolConfig.getIdentity();
         if (StringUtil.isEmpty(identity)) {
             ThreadLogger.error("Rejected registering request of instance {} with empty name: {}.",
-                    threadPoolExecutor, identity);
+                    executorService, identity);
             return;
         }
 
-        ThreadPoolMonitorWrapper threadPoolMonitorWrapper = new ThreadPoolMonitorWrapper(threadPoolExecutor
+        ThreadPoolMonitorWrapper threadPoolMonitorWrapper = new ThreadPoolMonitorWrapper(executorService
                 , threadPoolConfig, threadPoolStatistics);
         if (registry.putIfAbsent(identity, threadPoolMonitorWrapper) != null) {
             ThreadLogger.error(
                     "Rejected registering request of instance {} with duplicate name: {}",
-                    threadPoolExecutor, identity);
+                    executorService, identity);
         } else {
-            registry.get(identity).startMonitor();
+            threadPoolMonitorWrapper.startMonitor();
             ThreadLogger.info("Thread pool with name '{}' registered", identity);
+            MetricsExporterManager.onRegister(threadPoolMonitorWrapper);
             final String spaceName = threadPoolConfig.getSpaceName();
             if (StringUtil.isNotEmpty(spaceName)) {
-                spaceNameMap.computeIfAbsent(spaceName, k -> new ThreadPoolSpace()).addThreadPool(identity);
+                ThreadPoolSpace threadPoolSpace = spaceNameMap.computeIfAbsent(spaceName, k -> new ThreadPoolSpace());
+                threadPoolSpace.addThreadPool(identity);
+                threadPoolSpace.getStatistics().join(threadPoolMonitorWrapper);
+                applySpaceThreadBudget(threadPoolMonitorWrapper, threadPoolSpace);
+            }
+            if (threadPoolConfig.getAdaptiveSizingPolicy() != null) {
+                startAdaptiveSizingSchedule();
             }
         }
     }
@@ -223,17 +338,23 @@ public class ThreadPoolGovernor {
         if (threadPoolMonitorWrapper != null) {
             threadPoolMonitorWrapper.stopMonitor();
             ThreadLogger.info("Thread pool with name '{}' unregistered", identity);
+            MetricsExporterManager.onUnregister(threadPoolMonitorWrapper);
         }
         final String spaceName = threadPoolConfig.getSpaceName();
-        if (StringUtil.isNotEmpty(spaceName) && spaceNameMap.get(spaceName) != null) {
-            spaceNameMap.get(spaceName).removeThreadPool(identity);
+        ThreadPoolSpace threadPoolSpace = StringUtil.isEmpty(spaceName) ? null : spaceNameMap
+            .get(spaceName);
+        if (threadPoolSpace != null) {
+            threadPoolSpace.removeThreadPool(identity);
+            if (threadPoolMonitorWrapper != null) {
+                threadPoolSpace.getStatistics().leave(threadPoolMonitorWrapper);
+            }
         }
     }
 
     /**
      * Get the {@link ThreadPoolExecutor} by it's identity
      * @param identity the unique identity
-     * @return the {@link ThreadPoolExecutor}
+     * @return the {@link ThreadPoolExecutor}, null if the registered executor is not a {@link ThreadPoolExecutor}
      */
      public ThreadPoolExecutor getThreadPoolExecutor(String identity) {
         ThreadPoolMonitorWrapper wrapper = registry.get(identity);
@@ -300,11 +421,30 @@ public class ThreadPoolGovernor {
     /**
      * The thread pool to executor the monitor tasks
      * @return the {@link ScheduledExecutorService}
+     * @deprecated the monitor tasks run on {@link #getMonitorTimerWheel()}, this scheduler
+     * is only created when it's asked for
      */
+    @Deprecated
     public ScheduledExecutorService getMonitorScheduler() {
+        if (monitorScheduler == null) {
+            synchronized (this) {
+                if (monitorScheduler == null) {
+                    monitorScheduler = Executors.newScheduledThreadPool(Runtime.getRuntime()
+                        .availableProcessors() + 1, new NamedThreadFactory("SOFA-Thread-Pool-Monitor"));
+                }
+            }
+        }
         return monitorScheduler;
     }
 
+    /**
+     * The timer wheel to run all the monitor tasks on one thread
+     * @return the {@link MonitorTimerWheel}
+     */
+    public MonitorTimerWheel getMonitorTimerWheel() {
+        return monitorTimerWheel;
+    }
+
     /**
      * return the spaceName thread pool number，it will increase after witch get
      * return 0 when the spaceName has not registered
@@ -368,7 +508,598 @@ public class ThreadPoolGovernor {
         });
         ThreadLogger.info("Thread pool with spaceName '{}' rescheduled with period '{}'", spaceName, period);
     }
+
+    /**
+     * Take the aggregated statistics of all thread pool in the spaceName, the interval values
+     * are since the spaceName is created, see {@link ThreadPoolSpaceStatistics}
+     * @param spaceName the spaceName
+     * @return the aggregates, null if the spaceName is not registered
+     */
+    public ThreadPoolSpaceStatistics.SpaceSnapshot snapshotSpace(String spaceName) {
+        return snapshotSpace(spaceName, null);
+    }
+
+    /**
+     * Take the aggregated statistics of all thread pool in the spaceName, the interval values
+     * are since the previous snapshot of the caller, so each consumer keeps it's own interval
+     * @param spaceName the spaceName
+     * @param previous the previous snapshot taken by the caller, nullable
+     * @return the aggregates, null if the spaceName is not registered
+     */
+    public ThreadPoolSpaceStatistics.SpaceSnapshot snapshotSpace(String spaceName,
+                                                                 ThreadPoolSpaceStatistics.SpaceSnapshot previous) {
+        ThreadPoolSpace threadPoolSpace = spaceNameMap.get(spaceName);
+        if (threadPoolSpace == null) {
+            ThreadLogger.error("Thread pool with spaceName '{}' is not registered yet", spaceName);
+            return null;
+        }
+        return snapshotSpace(spaceName, threadPoolSpace, previous);
+    }
+
+    /**
+     * Take the aggregated statistics of all the spaceNames, the interval values are since the
+     * spaceNames are created
+     * @return the aggregates by spaceName
+     */
+    public Map<String, ThreadPoolSpaceStatistics.SpaceSnapshot> snapshotAllSpaces() {
+        return snapshotAllSpaces(null);
+    }
+
+    /**
+     * Take the aggregated statistics of all the spaceNames, see {@link #snapshotSpace(String, ThreadPoolSpaceStatistics.SpaceSnapshot)}
+     * @param previous the previous snapshots taken by the caller by spaceName, nullable
+     * @return the aggregates by spaceName
+     */
+    public Map<String, ThreadPoolSpaceStatistics.SpaceSnapshot> snapshotAllSpaces(Map<String, ThreadPoolSpaceStatistics.SpaceSnapshot> previous) {
+        Map<String, ThreadPoolSpaceStatistics.SpaceSnapshot> snapshots = new LinkedHashMap<>();
+        spaceNameMap.forEach((spaceName, threadPoolSpace) ->
+                snapshots.put(spaceName, snapshotSpace(spaceName, threadPoolSpace,
+                        previous == null ? null : previous.get(spaceName))));
+        return snapshots;
+    }
+
+    private ThreadPoolSpaceStatistics.SpaceSnapshot snapshotSpace(String spaceName,
+                                                                  ThreadPoolSpace threadPoolSpace,
+                                                                  ThreadPoolSpaceStatistics.SpaceSnapshot previous) {
+        List<ThreadPoolMonitorWrapper> wrappers = new ArrayList<>();
+        for (String identity : threadPoolSpace.getThreadPoolIdentitiesSnapshot()) {
+            ThreadPoolMonitorWrapper wrapper = registry.get(identity);
+            if (wrapper != null) {
+                wrappers.add(wrapper);
+            }
+        }
+        return threadPoolSpace.getStatistics().snapshot(spaceName,
+                threadPoolSpace.getMaxThreads(), wrappers, previous);
+    }
+
+    /**
+     * Set the max total threads of the thread pools in the spaceName, the thread pools are
+     * refused to grow beyond it. The limit of a {@link ThreadPoolExecutor} is it's maximum
+     * pool size, or the core pool size for a {@link ScheduledThreadPoolExecutor}. The limit
+     * of the other executors, and of the unbounded thread pools which were already in the
+     * space when the budget is set, is their current pool size. A thread pool registered over
+     * the budget is shrunk to the remaining threads, the thread pools already over the budget
+     * are not shrunk by this method.
+     * @param spaceName the spaceName
+     * @param maxThreads the thread budget, 0 for unlimited
+     */
+    public void setSpaceThreadBudget(String spaceName, int maxThreads) {
+        if (StringUtil.isEmpty(spaceName) || maxThreads < 0) {
+            throw new IllegalArgumentException("Invalid thread budget " + maxThreads
+                                               + " of spaceName " + spaceName);
+        }
+        ThreadPoolSpace threadPoolSpace = spaceNameMap.computeIfAbsent(spaceName,
+                k -> new ThreadPoolSpace());
+        long usedThreads;
+        synchronized (threadPoolSpace) {
+            threadPoolSpace.setMaxThreads(maxThreads);
+            usedThreads = getSpaceThreadLimit(threadPoolSpace, null);
+        }
+        if (maxThreads > 0 && usedThreads > maxThreads) {
+            ThreadLogger.warn("Thread pool with spaceName '{}' uses {} threads over the thread budget {}",
+                    spaceName, usedThreads, maxThreads);
+        } else {
+            ThreadLogger.info("Thread pool with spaceName '{}' set thread budget to {}", spaceName,
+                    maxThreads);
+        }
+    }
+
+    /**
+     * Return the thread budget of the spaceName
+     * @param spaceName the spaceName
+     * @return the thread budget, 0 if it's unlimited
+     */
+    public int getSpaceThreadBudget(String spaceName) {
+        ThreadPoolSpace threadPoolSpace = spaceNameMap.get(spaceName);
+        return threadPoolSpace == null ? 0 : threadPoolSpace.getMaxThreads();
+    }
+
+    /**
+     * Resize a registered thread pool within the thread budget of it's space, the growth is
+     * capped to the remaining threads. The budget check and the resize are serialized per
+     * space, so thread pools growing at the same time can't exceed the budget together.
+     * @param threadPoolConfig the description of the thread pool
+     * @param currentLimit the supplier of the current thread limit
+     * @param requestedLimit the requested thread limit
+     * @param resizer the action to apply the permitted thread limit
+     */
+    void resizeWithinSpaceBudget(ThreadPoolConfig threadPoolConfig, IntSupplier currentLimit,
+                                 int requestedLimit, IntConsumer resizer) {
+        String spaceName = threadPoolConfig.getSpaceName();
+        ThreadPoolSpace threadPoolSpace = StringUtil.isEmpty(spaceName) ? null : spaceNameMap
+            .get(spaceName);
+        if (threadPoolSpace == null) {
+            resizer.accept(requestedLimit);
+            return;
+        }
+        synchronized (threadPoolSpace) {
+            resizer.accept(permitSpaceThreads(threadPoolConfig, threadPoolSpace,
+                currentLimit.getAsInt(), requestedLimit));
+        }
+    }
+
+    private int permitSpaceThreads(ThreadPoolConfig threadPoolConfig,
+                                   ThreadPoolSpace threadPoolSpace, int currentLimit,
+                                   int requestedLimit) {
+        int maxThreads = threadPoolSpace.getMaxThreads();
+        if (requestedLimit <= currentLimit || maxThreads <= 0) {
+            return requestedLimit;
+        }
+        long available = maxThreads
+                         - getSpaceThreadLimit(threadPoolSpace, threadPoolConfig.getIdentity());
+        if (requestedLimit <= available) {
+            return requestedLimit;
+        }
+        int permitted = (int) Math.max(currentLimit, available);
+        ThreadLogger.warn(
+                "Thread pool '{}' is refused to grow to {} threads by the thread budget {} of spaceName '{}', capped to {}",
+                threadPoolConfig.getIdentity(), requestedLimit, maxThreads,
+                threadPoolConfig.getSpaceName(), permitted);
+        return permitted;
+    }
+
+    /**
+     * Shrink a thread pool registered to a space over the thread budget, an unbounded thread
+     * pool is shrunk too
+     */
+    private void applySpaceThreadBudget(ThreadPoolMonitorWrapper wrapper,
+                                        ThreadPoolSpace threadPoolSpace) {
+        ThreadPoolExecutor executor = wrapper.getThreadPoolExecutor();
+        if (threadPoolSpace.getMaxThreads() <= 0 || executor == null) {
+            return;
+        }
+        String identity = wrapper.getThreadPoolConfig().getIdentity();
+        int maxThreads;
+        int permitted;
+        synchronized (threadPoolSpace) {
+            maxThreads = threadPoolSpace.getMaxThreads();
+            long available = maxThreads - getSpaceThreadLimit(threadPoolSpace, identity);
+            if (maxThreads <= 0 || getConfiguredThreadLimit(executor) <= available) {
+                return;
+            }
+            permitted = (int) Math.max(1, available);
+            if (executor.getCorePoolSize() > permitted) {
+                executor.setCorePoolSize(permitted);
+            }
+            if (!(executor instanceof ScheduledThreadPoolExecutor)) {
+                executor.setMaximumPoolSize(permitted);
+            }
+        }
+        ThreadLogger.warn("Thread pool '{}' is shrunk to {} threads by the thread budget {} of spaceName '{}'",
+                identity, permitted, maxThreads, wrapper.getThreadPoolConfig().getSpaceName());
+    }
+
+    /**
+     * Sum the thread limits of the thread pools in the space, the sum saturates at
+     * {@link Integer#MAX_VALUE}
+     * @param threadPoolSpace the space
+     * @param excludedIdentity the thread pool not counted, nullable
+     * @return the total thread limit
+     */
+    private long getSpaceThreadLimit(ThreadPoolSpace threadPoolSpace, String excludedIdentity) {
+        long total = 0;
+        for (String identity : threadPoolSpace.getThreadPoolIdentitiesSnapshot()) {
+            ThreadPoolMonitorWrapper wrapper = registry.get(identity);
+            if (wrapper != null && !identity.equals(excludedIdentity)) {
+                total = Math.min(Integer.MAX_VALUE, total + getThreadLimit(wrapper));
+            }
+        }
+        return total;
+    }
+
+    private static long getThreadLimit(ThreadPoolMonitorWrapper wrapper) {
+        ThreadPoolExecutor executor = wrapper.getThreadPoolExecutor();
+        if (executor == null) {
+            return wrapper.getThreadPoolStatistics().getPoolSize();
+        }
+        int limit = getConfiguredThreadLimit(executor);
+        // an unbounded thread pool would exhaust any budget, count it's live threads
+        return limit == Integer.MAX_VALUE ? executor.getPoolSize() : limit;
+    }
+
+    private static int getConfiguredThreadLimit(ThreadPoolExecutor executor) {
+        // the maximum pool size of a ScheduledThreadPoolExecutor is never used
+        return executor instanceof ScheduledThreadPoolExecutor ? executor.getCorePoolSize()
+            : executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Drain all thread pool in the spaceName at once, see {@link #drainThreadPools(String, List, long, TimeUnit)},
+     * use {@link #drainThreadPoolsInOrder(List, long, TimeUnit)} if the thread pools forward tasks to each other
+     * @param spaceName the spaceName
+     * @param timeout the max time to wait for all the thread pools
+     * @param unit the unit of the timeout
+     * @return the abandoned tasks of the forced thread pools by identity, empty if all are drained
+     */
+    public Map<String, List<Runnable>> drainThreadPoolBySpaceName(String spaceName, long timeout,
+                                                                  TimeUnit unit) {
+        ThreadPoolSpace threadPoolSpace = spaceNameMap.get(spaceName);
+        if (threadPoolSpace == null || threadPoolSpace.getThreadPoolIdentities().isEmpty()) {
+            ThreadLogger.error("Thread pool with spaceName '{}' is not registered yet", spaceName);
+            return new LinkedHashMap<>();
+        }
+        List<ThreadPoolMonitorWrapper> wrappers = new ArrayList<>();
+        for (String identity : threadPoolSpace.getThreadPoolIdentitiesSnapshot()) {
+            ThreadPoolMonitorWrapper wrapper = registry.get(identity);
+            if (wrapper != null) {
+                wrappers.add(wrapper);
+            }
+        }
+        return drainThreadPools("spaceName '" + spaceName + "'",
+            Collections.singletonList(wrappers), timeout, unit);
+    }
+
+    /**
+     * Drain all the registered thread pools at once, see {@link #drainThreadPools(String, List, long, TimeUnit)},
+     * use {@link #drainThreadPoolsInOrder(List, long, TimeUnit)} if the thread pools forward tasks to each other
+     * @param timeout the max time to wait for all the thread pools
+     * @param unit the unit of the timeout
+     * @return the abandoned tasks of the forced thread pools by identity, empty if all are drained
+     */
+    public Map<String, List<Runnable>> drainAllThreadPools(long timeout, TimeUnit unit) {
+        return drainThreadPools("all spaces",
+            Collections.singletonList(new ArrayList<>(registry.values())), timeout, unit);
+    }
+
+    /**
+     * Drain the thread pools in the dependency order, a thread pool is shut down only after
+     * all the thread pools before it are terminated, so the tasks forwarded by an upstream
+     * thread pool are still accepted by the downstream ones,
+     * see {@link #drainThreadPools(String, List, long, TimeUnit)}
+     * @param identities the identities of the thread pools, the upstream ones first
+     * @param timeout the max time to wait for all the thread pools
+     * @param unit the unit of the timeout
+     * @return the abandoned tasks of the forced thread pools by identity, empty if all are drained
+     */
+    public Map<String, List<Runnable>> drainThreadPoolsInOrder(List<String> identities,
+                                                               long timeout, TimeUnit unit) {
+        List<List<ThreadPoolMonitorWrapper>> stages = new ArrayList<>();
+        for (String identity : identities) {
+            ThreadPoolMonitorWrapper wrapper = registry.get(identity);
+            if (wrapper == null) {
+                ThreadLogger.error("Thread pool with identity '{}' is not registered yet", identity);
+            } else {
+                stages.add(Collections.singletonList(wrapper));
+            }
+        }
+        return drainThreadPools("identities " + identities, stages, timeout, unit);
+    }
+
+    /**
+     * Stop the intake of the thread pools stage by stage with one global deadline, the thread
+     * pools of a stage are shut down together once all the thread pools of the previous stages
+     * are terminated, so the tasks forwarded to a later stage are not rejected. The remaining
+     * queue size and executing count are logged periodically. Thread pools not terminated
+     * before the deadline are shut down now, their queued tasks are abandoned.
+     * @param scope the description of the thread pools in the log
+     * @param stages the thread pools to drain, the upstream stages first
+     * @param timeout the max time to wait for all the thread pools
+     * @param unit the unit of the timeout
+     * @return the abandoned tasks of the forced thread pools by identity, empty if all are drained
+     */
+    private Map<String, List<Runnable>> drainThreadPools(String scope,
+                                                         List<? extends Collection<ThreadPoolMonitorWrapper>> stages,
+                                                         long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        // the wrappers are copied since terminated thread pools are unregistered
+        List<ThreadPoolMonitorWrapper> remaining = new ArrayList<>();
+        for (Collection<ThreadPoolMonitorWrapper> stage : stages) {
+            remaining.addAll(stage);
+        }
+        ThreadLogger.info("Draining {} thread pools of {}", remaining.size(), scope);
+
+        // the thread pools of the stages before the index are shut down
+        int nextStage = 0;
+        long reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DRAIN_REPORT_INTERVAL);
+        long nextReport = System.nanoTime() + reportIntervalNanos;
+        try {
+            for (;;) {
+                remaining.removeIf(wrapper -> wrapper.getExecutorService().isTerminated());
+                while (nextStage < stages.size() && !isShutdown(remaining)) {
+                    for (ThreadPoolMonitorWrapper wrapper : stages.get(nextStage++)) {
+                        wrapper.getExecutorService().shutdown();
+                    }
+                }
+                long now = System.nanoTime();
+                if (remaining.isEmpty() || now - deadline >= 0) {
+                    break;
+                }
+                if (now - nextReport >= 0) {
+                    logDrainProgress(scope, remaining);
+                    nextReport = now + reportIntervalNanos;
+                }
+                // the other thread pools of the stage keep draining while waiting for the first one
+                long waitNanos = Math.min(deadline - now, nextReport - now);
+                remaining.get(0).getExecutorService()
+                    .awaitTermination(waitNanos, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ThreadLogger.warn("Draining thread pools of {} is interrupted", scope);
+        }
+
+        Map<String, List<Runnable>> abandoned = new LinkedHashMap<>();
+        for (ThreadPoolMonitorWrapper wrapper : remaining) {
+            String identity = wrapper.getThreadPoolConfig().getIdentity();
+            int executing = wrapper.getThreadPoolStatistics().getExecutingTaskCount();
+            List<Runnable> tasks = wrapper.getExecutorService().shutdownNow();
+            abandoned.put(identity, tasks);
+            ThreadLogger.warn(
+                "Thread pool '{}' is not drained in time, {} queued tasks are abandoned and {} executing tasks are interrupted",
+                identity, tasks.size(), executing);
+        }
+        ThreadLogger.info("Drained thread pools of {}, {} thread pools are forced to terminate",
+            scope, abandoned.size());
+        return abandoned;
+    }
+
+    private static boolean isShutdown(List<ThreadPoolMonitorWrapper> remaining) {
+        // the remaining thread pools are in the stage order
+        return !remaining.isEmpty() && remaining.get(0).getExecutorService().isShutdown();
+    }
+
+    private void logDrainProgress(String scope, List<ThreadPoolMonitorWrapper> remaining) {
+        long queueSize = 0;
+        long executing = 0;
+        for (ThreadPoolMonitorWrapper wrapper : remaining) {
+            queueSize += wrapper.getThreadPoolStatistics().getQueueSize();
+            executing += wrapper.getThreadPoolStatistics().getExecutingTaskCount();
+        }
+        ThreadLogger.info(
+            "Draining thread pools of {}, {} thread pools remaining with {} queued tasks and {} executing tasks",
+            scope, remaining.size(), queueSize, executing);
+    }
+
+    /**
+     * Warm up the thread pools with the default creation budget, see
+     * {@link #warmUpThreadPools(Collection, int, Runnable, long, TimeUnit)}
+     * @param identities the identities of the thread pools
+     * @param warmUpTask the task to run once on each core thread, nullable
+     * @param timeout the max time to wait for all the thread pools
+     * @param unit the unit of the timeout
+     * @return the warm-up results by identity
+     */
+    public Map<String, ThreadPoolWarmUpResult> warmUpThreadPools(Collection<String> identities,
+                                                                 Runnable warmUpTask,
+                                                                 long timeout, TimeUnit unit) {
+        return warmUpThreadPools(identities, DEFAULT_WARM_UP_CONCURRENCY, warmUpTask, timeout,
+            unit);
+    }
+
+    /**
+     * Warm up all thread pool in the spaceName with the default creation budget, see
+     * {@link #warmUpThreadPools(Collection, int, Runnable, long, TimeUnit)}
+     * @param spaceName the spaceName
+     * @param warmUpTask the task to run once on each core thread, nullable
+     * @param timeout the max time to wait for all the thread pools
+     * @param unit the unit of the timeout
+     * @return the warm-up results by identity
+     */
+    public Map<String, ThreadPoolWarmUpResult> warmUpThreadPoolBySpaceName(String spaceName,
+                                                                           Runnable warmUpTask,
+                                                                           long timeout,
+                                                                           TimeUnit unit) {
+        ThreadPoolSpace threadPoolSpace = spaceNameMap.get(spaceName);
+        if (threadPoolSpace == null || threadPoolSpace.getThreadPoolIdentities().isEmpty()) {
+            ThreadLogger.error("Thread pool with spaceName '{}' is not registered yet", spaceName);
+            return new LinkedHashMap<>();
+        }
+        return warmUpThreadPools(threadPoolSpace.getThreadPoolIdentitiesSnapshot(),
+            DEFAULT_WARM_UP_CONCURRENCY, warmUpTask, timeout, unit);
+    }
+
+    /**
+     * Prestart the core threads of the thread pools before the first burst of traffic. The
+     * thread pools are warmed up by at most maxConcurrentCreations temporary threads, so no
+     * more than maxConcurrentCreations threads are created at the same time during boot.
+     * A thread pool is warmed up once all its core threads are started. If a warm-up task is
+     * given, one copy per core thread is put into the work queue after the threads are started,
+     * e.g. to load classes and trigger JIT compilation. The copies never block the core threads
+     * nor run on the caller, an idle thread may run more than one of them, and they are dropped
+     * if the work queue is full. Only thread pools based on {@link ThreadPoolExecutor} are warmed
+     * up, the others are skipped.
+     * @param identities the identities of the thread pools
+     * @param maxConcurrentCreations the max count of thread pools warmed up at the same time
+     * @param warmUpTask the task to run once on each core thread, nullable
+     * @param timeout the max time to wait for all the thread pools
+     * @param unit the unit of the timeout
+     * @return the warm-up results by identity, thread pools not warmed up before the deadline
+     * are not included
+     */
+    public Map<String, ThreadPoolWarmUpResult> warmUpThreadPools(Collection<String> identities,
+                                                                 int maxConcurrentCreations,
+                                                                 Runnable warmUpTask,
+                                                                 long timeout, TimeUnit unit) {
+        if (maxConcurrentCreations <= 0) {
+            throw new IllegalArgumentException("maxConcurrentCreations must be positive");
+        }
+        List<ThreadPoolMonitorWrapper> wrappers = new ArrayList<>();
+        for (String identity : identities) {
+            ThreadPoolMonitorWrapper wrapper = getThreadPoolMonitorWrapper(identity);
+            if (wrapper == null) {
+                continue;
+            }
+            if (wrapper.getThreadPoolExecutor() == null) {
+                ThreadLogger.warn("Thread pool '{}' is not a ThreadPoolExecutor, skip warming up",
+                    identity);
+                continue;
+            }
+            wrappers.add(wrapper);
+        }
+        Map<String, ThreadPoolWarmUpResult> results = new LinkedHashMap<>();
+        if (wrappers.isEmpty()) {
+            return results;
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        ExecutorService warmUpExecutor = Executors.newFixedThreadPool(
+            Math.min(maxConcurrentCreations, wrappers.size()), new NamedThreadFactory(
+                "SOFA-Thread-Pool-Warm-Up", true));
+        try {
+            List<Future<ThreadPoolWarmUpResult>> futures = new ArrayList<>();
+            for (ThreadPoolMonitorWrapper wrapper : wrappers) {
+                futures.add(warmUpExecutor.submit(() -> warmUpThreadPool(wrapper, warmUpTask,
+                    deadline)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                String identity = wrappers.get(i).getThreadPoolConfig().getIdentity();
+                try {
+                    ThreadPoolWarmUpResult result = futures.get(i).get(
+                        Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    results.put(identity, result);
+                } catch (TimeoutException e) {
+                    ThreadLogger.warn("Thread pool '{}' is not warmed up in time", identity);
+                } catch (ExecutionException e) {
+                    ThreadLogger.warn("Thread pool '{}' is failed when warming up: {}", identity,
+                        e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ThreadLogger.warn("Warming up thread pools is interrupted");
+        } finally {
+            warmUpExecutor.shutdownNow();
+        }
+        ThreadLogger.info("Warmed up {} of {} thread pools in {} ms", results.size(),
+            wrappers.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return results;
+    }
+
+    private ThreadPoolWarmUpResult warmUpThreadPool(ThreadPoolMonitorWrapper wrapper,
+                                                    Runnable warmUpTask, long deadline)
+                                                                                       throws InterruptedException {
+        String identity = wrapper.getThreadPoolConfig().getIdentity();
+        ThreadPoolExecutor executor = wrapper.getThreadPoolExecutor();
+        long start = System.nanoTime();
+        int startedThreads = 0;
+        while (executor.prestartCoreThread()) {
+            startedThreads++;
+        }
+        long threadCreationTime = System.nanoTime() - start;
+
+        // the thread factory may fail to create a thread, or the thread pool is shut down
+        boolean completed = executor.getPoolSize() >= executor.getCorePoolSize();
+
+        int warmedUpThreads = 0;
+        long warmUpTaskTime = -1;
+        if (warmUpTask != null && !executor.isShutdown()) {
+            int workers = executor.getCorePoolSize();
+            CountDownLatch finished = new CountDownLatch(workers);
+            AtomicInteger succeeded = new AtomicInteger();
+            long warmUpStart = System.nanoTime();
+            Runnable task = () -> {
+                try {
+                    warmUpTask.run();
+                    succeeded.incrementAndGet();
+                } catch (Throwable e) {
+                    ThreadLogger.warn("Warm-up task of thread pool '{}' is failed: {}", identity,
+                        e);
+                } finally {
+                    finished.countDown();
+                }
+            };
+            // put into the work queue directly, so neither a new thread is created nor the
+            // rejection handler runs it on the current thread
+            int submitted = 0;
+            while (submitted < workers && executor.getQueue().offer(task)) {
+                submitted++;
+            }
+            if (submitted < workers) {
+                ThreadLogger.warn("Warm-up tasks of thread pool '{}' are refused after {} offered",
+                    identity, submitted);
+                for (int i = submitted; i < workers; i++) {
+                    finished.countDown();
+                }
+            }
+            // only the current thread waits, the warm-up tasks don't hold the core threads
+            finished.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            warmUpTaskTime = System.nanoTime() - warmUpStart;
+            warmedUpThreads = succeeded.get();
+        }
+        ThreadLogger.info(
+            "Thread pool '{}' is warmed up, {} threads started in {} ms, {} threads ran the warm-up task in {} ms",
+            identity, startedThreads, TimeUnit.NANOSECONDS.toMillis(threadCreationTime),
+            warmedUpThreads, TimeUnit.NANOSECONDS.toMillis(Math.max(0, warmUpTaskTime)));
+        return new ThreadPoolWarmUpResult(identity, startedThreads, threadCreationTime,
+            warmedUpThreads, warmUpTaskTime, completed);
+    }
+
     public Collection<ThreadPoolMonitorWrapper> getAllThreadPoolWrappers() {
         return new ArrayList<>(registry.values());
     }
+
+    /**
+     * Sample all the registered thread pools into a new snapshot
+     * @return the snapshot
+     */
+    public ThreadPoolSnapshot snapshot() {
+        return snapshot(new ThreadPoolSnapshot());
+    }
+
+    /**
+     * Sample all the registered thread pools into the snapshot, it's arrays are reused
+     * @param reuse the snapshot to fill
+     * @return the filled snapshot
+     */
+    public ThreadPoolSnapshot snapshot(ThreadPoolSnapshot reuse) {
+        return reuse.fill(registry.values());
+    }
+
+    /**
+     * Return the snapshot shared by all the callers with the default max age, see
+     * {@link #getSharedSnapshot(long, TimeUnit)}
+     * @return the shared snapshot
+     */
+    public ThreadPoolSnapshot getSharedSnapshot() {
+        return getSharedSnapshot(DEFAULT_SNAPSHOT_MAX_AGE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return the snapshot shared by all the callers, the thread pools are sampled again only
+     * when it's older than the max age, the returned snapshot must not be filled by callers.
+     * Two snapshots are filled in turn, so a returned snapshot keeps it's values until the
+     * second sampling after it, it must not be read after that
+     * @param maxAge the max age of the snapshot
+     * @param unit the unit of the max age
+     * @return the shared snapshot
+     */
+    public ThreadPoolSnapshot getSharedSnapshot(long maxAge, TimeUnit unit) {
+        long maxAgeNanos = unit.toNanos(maxAge);
+        ThreadPoolSnapshot current = sharedSnapshot;
+        if (current != null && System.nanoTime() - current.getTimestamp() <= maxAgeNanos) {
+            return current;
+        }
+        synchronized (snapshotLock) {
+            current = sharedSnapshot;
+            if (current == null || System.nanoTime() - current.getTimestamp() > maxAgeNanos) {
+                // fill the other buffer, callers may still read the published one
+                current = current == sharedSnapshots[0] ? sharedSnapshots[1]
+                    : sharedSnapshots[0];
+                snapshot(current);
+                sharedSnapshot = current;
+            }
+            return current;
+        }
+    }
 }
@@ -22,7 +22,13 @@ import com.alipay.sofa.common.tracer.TracerIdAdapter;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The runner to monitor the thread pool
@@ -46,25 +52,74 @@ public class ThreadPoolMonitorRunner implements Runnable {
     public void run() {
         try {
             if (ThreadPoolGovernor.getInstance().isGlobalMonitorLoggable()) {
+                int executingTaskCount = 0;
                 int decayedTaskCount = 0;
-                for (Map.Entry<ExecutingRunnable, Long> entry : statistics.getExecutingTasks()
-                    .entrySet()) {
-                    decayedTaskCount = calculateDecayedTaskCounts(decayedTaskCount, entry);
+                long now = System.nanoTime();
+                long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getTaskTimeoutMilli());
+                List<DecayedTask> unprinted = null;
+                for (ExecutingTaskSlot slot : statistics.getExecutingTaskSlots()) {
+                    if (slot == null) {
+                        continue;
+                    }
+                    Runnable task = slot.getTask();
+                    if (task == null) {
+                        continue;
+                    }
+                    ++executingTaskCount;
+                    long startTime = slot.getStartTime();
+                    if (!ThreadPoolStatistics.isDecayed(startTime, timeoutNanos, now)) {
+                        continue;
+                    }
+                    ++decayedTaskCount;
+                    long executionTime = TimeUnit.NANOSECONDS.toMillis(now - startTime);
+                    Thread executingThread = slot.getThread();
+                    // the slot is released concurrently
+                    if (executingThread != null && !slot.isPrinted(startTime)) {
+                        if (unprinted == null) {
+                            unprinted = new ArrayList<>();
+                        }
+                        unprinted.add(new DecayedTask(slot, startTime, task, executingThread,
+                            executionTime));
+                    }
+                }
+                if (unprinted != null) {
+                    printStackTraces(unprinted);
                 }
 
+                long poolSize = statistics.getPoolSize();
                 // threadPoolName, #queue, #executing, #idle, #pool, #decayed
                 ThreadLogger.info("Thread pool '{}' info: [{},{},{},{},{}]", config.getIdentity(),
-                    statistics.getQueueSize(), statistics.getExecutingTasks().size(),
-                    statistics.getPoolSize() - statistics.getExecutingTasks().size(),
-                    statistics.getPoolSize(), decayedTaskCount);
+                    statistics.getQueueSize(), executingTaskCount, poolSize - executingTaskCount,
+                    poolSize, decayedTaskCount);
                 if (statistics.getTotalTaskCount() != 0) {
+                    ThreadPoolStatistics.IntervalSnapshot interval = statistics
+                        .snapshotAndReset();
+                    LatencyHistogram.Percentiles queue = interval.getStayInQueueTimePercentiles();
+                    LatencyHistogram.Percentiles running = interval.getRunningTimePercentiles();
                     // just log for thread pool which has task executed
-                    // SofaScheduledThreadPoolExecutor don't count the in queue time, it's always 0
-                    // threadPoolName, #averageStayInQueueTime, #averageRunningTime
-                    ThreadLogger.info("Thread pool '{}' average static info: [{},{}]",
-                        config.getIdentity(), statistics.getAverageStayInQueueTime(),
-                        statistics.getAverageRunningTime());
-                    statistics.resetAverageStatics();
+                    // the stay in queue time of SofaScheduledThreadPoolExecutor is the schedule lag
+                    // threadPoolName, #averageStayInQueueTime, #averageRunningTime, the first
+                    // bracket is kept as is for the existing parsers, the percentiles follow it
+                    // #stayInQueueTime p50, p90, p99, p999, max, #runningTime p50, p90, p99, p999, max
+                    // percentiles are in milliseconds with microsecond precision
+                    ThreadLogger.info(
+                        "Thread pool '{}' average static info: [{},{}], percentiles: [{},{},{},{},{},{},{},{},{},{}]",
+                        config.getIdentity(), interval.getAverageStayInQueueTime(),
+                        interval.getAverageRunningTime(), toMillis(queue.getP50()),
+                        toMillis(queue.getP90()), toMillis(queue.getP99()),
+                        toMillis(queue.getP999()), toMillis(queue.getMax()),
+                        toMillis(running.getP50()), toMillis(running.getP90()),
+                        toMillis(running.getP99()), toMillis(running.getP999()),
+                        toMillis(running.getMax()));
+                    Map<Future<?>, ThreadPoolStatistics.PeriodicTaskDrift> drifts = statistics
+                        .getPeriodicDrifts();
+                    if (!drifts.isEmpty()) {
+                        printPeriodicDrifts(drifts.values());
+                    }
+                    TaskTypeBreakdown breakdown = statistics.getTaskTypeBreakdown();
+                    if (breakdown != null) {
+                        printTaskTypes(breakdown, interval.getTotalRunningTime());
+                    }
                 }
             }
         } catch (Throwable e) {
@@ -74,50 +129,125 @@ public class ThreadPoolMonitorRunner implements Runnable {
     }
 
     /**
-     * Calculate the count of decayed tasks
-     * @param decayedTaskCount the count to update
-     * @param entry the executing tasks
-     * @return the updated count
+     * Format nanoseconds to milliseconds with microsecond precision
+     * @param nanos the nanoseconds
+     * @return the formatted milliseconds
      */
-    private int calculateDecayedTaskCounts(int decayedTaskCount,
-                                           Map.Entry<ExecutingRunnable, Long> entry) {
-        ExecutingRunnable task = entry.getKey();
-        // SofaThreadPoolExecutor use task.getDequeueTime(), SofaScheduledThreadPoolExecutor use entry.getValue()
-        long executionTime = System.currentTimeMillis()
-                             - (task.getDequeueTime() == 0 ? entry.getValue() : task
-                                 .getDequeueTime());
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
 
-        if (executionTime >= config.getTaskTimeoutMilli()) {
-            ++decayedTaskCount;
-            printStackTrace(task, entry.getKey().getThread());
+    /**
+     * Print the schedule drift of the periodic tasks, it's only recorded by the scheduled
+     * thread pools and accumulated since each task is scheduled
+     * @param drifts the drift of the periodic tasks which are not done
+     */
+    private void printPeriodicDrifts(Collection<ThreadPoolStatistics.PeriodicTaskDrift> drifts) {
+        long executionCount = 0;
+        long totalDrift = 0;
+        long maxDrift = 0;
+        for (ThreadPoolStatistics.PeriodicTaskDrift drift : drifts) {
+            executionCount += drift.getExecutionCount();
+            totalDrift += drift.getTotalDrift();
+            maxDrift = Math.max(maxDrift, drift.getMaxDrift());
+        }
+        // threadPoolName, #periodicTasks, #averageDrift, #maxDrift
+        // drifts are in milliseconds with microsecond precision
+        ThreadLogger.info("Thread pool '{}' periodic drift info: [{},{},{}]", config.getIdentity(),
+            drifts.size(), toMillis(executionCount == 0 ? 0 : totalDrift / executionCount),
+            toMillis(maxDrift));
+    }
+
+    /**
+     * Print the task types with the largest running time in the interval
+     * @param breakdown the task type breakdown of the thread pool
+     * @param totalRunningTime the total running time of all tasks in the interval
+     */
+    private void printTaskTypes(TaskTypeBreakdown breakdown, long totalRunningTime) {
+        List<TaskTypeBreakdown.TaskTypeSnapshot> taskTypes = breakdown.snapshotAndReset();
+        if (taskTypes.isEmpty()) {
+            return;
         }
-        return decayedTaskCount;
+        boolean resourceMeasured = statistics.isResourceAccountingEnabled();
+        int count = Math.min(taskTypes.size(), breakdown.getTopN());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            TaskTypeBreakdown.TaskTypeSnapshot taskType = taskTypes.get(i);
+            long taskCount = taskType.getTaskCount();
+            long share = totalRunningTime <= 0 ? 0 : taskType.getTotalRunningTime() * 100
+                                                     / totalRunningTime;
+            // taskType, #count, #runningTime share in percent, #averageRunningTime,
+            // #runningTime p99, #averageStayInQueueTime[, #averageCpuTime, #averageAllocatedBytes]
+            sb.append(i == 0 ? "" : ",").append('[').append(taskType.getTaskType()).append(',')
+                .append(taskCount).append(',').append(share).append(',')
+                .append(toMillis(taskType.getAverageRunningTime())).append(',')
+                .append(toMillis(taskType.getP99RunningTime())).append(',')
+                .append(toMillis(taskType.getTotalStayInQueueTime() / taskCount));
+            if (resourceMeasured) {
+                sb.append(',').append(toMillis(taskType.getTotalCpuTime() / taskCount)).append(',')
+                    .append(taskType.getTotalAllocatedBytes() / taskCount);
+            }
+            sb.append(']');
+        }
+        ThreadLogger.info("Thread pool '{}' top task types: [{}]", config.getIdentity(), sb);
     }
 
     /**
-     * Print the decayed task's stack trace
-     * @param task the decayed task
-     * @param executingThread the execute thread of the task
+     * Print the decayed tasks' stack traces, the stacks are captured in one operation.
+     * The tasks not captured by the rate limit are left unprinted to be retried in the next period.
+     * @param decayedTasks the decayed tasks not printed yet
      */
-    private void printStackTrace(ExecutingRunnable task, Thread executingThread) {
-        if (!task.isPrinted()) {
-            task.setPrinted(true);
-            StringBuilder sb = new StringBuilder();
-            for (StackTraceElement e : executingThread.getStackTrace()) {
-                sb.append("    ").append(e).append("\n");
+    private void printStackTraces(List<DecayedTask> decayedTasks) {
+        Thread[] threads = new Thread[decayedTasks.size()];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = decayedTasks.get(i).thread;
+        }
+        StackTraceSampler sampler = StackTraceSampler.getInstance();
+        StackTraceElement[][] stacks = sampler.capture(threads);
+        for (int i = 0; i < threads.length; i++) {
+            if (stacks[i] == null) {
+                continue;
             }
+            DecayedTask decayedTask = decayedTasks.get(i);
+            decayedTask.slot.setPrinted(decayedTask.startTime);
+            Runnable task = decayedTask.task;
+            Thread executingThread = decayedTask.thread;
             String traceId = TracerIdAdapter.getInstance().traceIdSafari(executingThread);
             try {
                 ThreadLogger
                     .warn(
                         "Task {} in thread pool {} started on {}{} exceeds the limit of {} execution time with stack trace:\n    {}",
-                        task, config.getIdentity(), DATE_FORMAT.format(Instant.ofEpochMilli(task
-                            .getDequeueTime())), traceId == null ? "" : " with traceId " + traceId,
-                        config.getTaskTimeout() + config.getTimeUnit().toString(), sb.toString()
-                            .trim());
+                        task instanceof ExecutingRunnable ? task : task.toString()
+                                                                   + executingThread, config
+                            .getIdentity(), DATE_FORMAT.format(Instant.ofEpochMilli(System
+                            .currentTimeMillis() - decayedTask.executionTime)),
+                        traceId == null ? "" : " with traceId " + traceId, config.getTaskTimeout()
+                                                                           + config.getTimeUnit()
+                                                                               .toString(), sampler
+                            .format(stacks[i]).trim());
             } catch (Throwable e) {
                 e.printStackTrace();
             }
         }
     }
+
+    /**
+     * The decayed task to print
+     */
+    private static class DecayedTask {
+        private final ExecutingTaskSlot slot;
+        private final long              startTime;
+        private final Runnable          task;
+        private final Thread            thread;
+        private final long              executionTime;
+
+        DecayedTask(ExecutingTaskSlot slot, long startTime, Runnable task, Thread thread,
+                    long executionTime) {
+            this.slot = slot;
+            this.startTime = startTime;
+            this.task = task;
+            this.thread = thread;
+            this.executionTime = executionTime;
+        }
+    }
 }
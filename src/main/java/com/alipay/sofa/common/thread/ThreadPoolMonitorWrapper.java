@@ -18,7 +18,7 @@ package com.alipay.sofa.common.thread;
 
 import com.alipay.sofa.common.thread.log.ThreadLogger;
 
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.SOFA_THREAD_POOL_LOGGING_CAPABILITY;
@@ -30,18 +30,33 @@ import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.SOFA_THREAD_
  */
 public class ThreadPoolMonitorWrapper {
 
+    private final ExecutorService      executorService;
+
     private final ThreadPoolExecutor   threadPoolExecutor;
 
     private final ThreadPoolConfig     threadPoolConfig;
 
     private final ThreadPoolStatistics threadPoolStatistics;
 
-    private ScheduledFuture<?>         scheduledFuture;
+    private MonitorTimerWheel.Timeout  monitorTimeout;
+
+    /**
+     * only accessed by the governor thread
+     */
+    private AdaptivePoolSizer          adaptivePoolSizer;
 
     public ThreadPoolMonitorWrapper(ThreadPoolExecutor threadPoolExecutor,
                                     ThreadPoolConfig threadPoolConfig,
                                     ThreadPoolStatistics threadPoolStatistics) {
-        this.threadPoolExecutor = threadPoolExecutor;
+        this((ExecutorService) threadPoolExecutor, threadPoolConfig, threadPoolStatistics);
+    }
+
+    public ThreadPoolMonitorWrapper(ExecutorService executorService,
+                                    ThreadPoolConfig threadPoolConfig,
+                                    ThreadPoolStatistics threadPoolStatistics) {
+        this.executorService = executorService;
+        this.threadPoolExecutor = executorService instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) executorService
+            : null;
         this.threadPoolConfig = threadPoolConfig;
         this.threadPoolStatistics = threadPoolStatistics;
     }
@@ -55,18 +70,17 @@ public class ThreadPoolMonitorWrapper {
             return;
         }
         synchronized (this) {
-            if (scheduledFuture != null) {
+            if (monitorTimeout != null) {
                 ThreadLogger.warn("Thread pool '{}' is already started with period: {} {}",
                     threadPoolConfig.getIdentity(), threadPoolConfig.getPeriod(),
                     threadPoolConfig.getTimeUnit());
             } else {
-                scheduledFuture = ThreadPoolGovernor
+                monitorTimeout = ThreadPoolGovernor
                     .getInstance()
-                    .getMonitorScheduler()
+                    .getMonitorTimerWheel()
                     .scheduleAtFixedRate(
                         new ThreadPoolMonitorRunner(threadPoolConfig, threadPoolStatistics),
-                        threadPoolConfig.getPeriod(), threadPoolConfig.getPeriod(),
-                        threadPoolConfig.getTimeUnit());
+                        threadPoolConfig.getPeriod(), threadPoolConfig.getTimeUnit());
                 ThreadLogger.info("Thread pool '{}' started with period: {} {}",
                     threadPoolConfig.getIdentity(), threadPoolConfig.getPeriod(),
                     threadPoolConfig.getTimeUnit());
@@ -79,9 +93,9 @@ public class ThreadPoolMonitorWrapper {
      */
     public void stopMonitor() {
         synchronized (this) {
-            if (scheduledFuture != null) {
-                scheduledFuture.cancel(true);
-                scheduledFuture = null;
+            if (monitorTimeout != null) {
+                monitorTimeout.cancel();
+                monitorTimeout = null;
                 ThreadLogger.info("Thread pool '{}' stopped.", threadPoolConfig.getIdentity());
             } else {
                 ThreadLogger.warn("Thread pool '{}' is not scheduling!",
@@ -95,30 +109,54 @@ public class ThreadPoolMonitorWrapper {
      */
     public void restartMonitor() {
         synchronized (this) {
-            if (scheduledFuture != null) {
-                scheduledFuture.cancel(true);
+            if (monitorTimeout != null) {
+                monitorTimeout.cancel();
             }
-            scheduledFuture = ThreadPoolGovernor
+            monitorTimeout = ThreadPoolGovernor
                 .getInstance()
-                .getMonitorScheduler()
+                .getMonitorTimerWheel()
                 .scheduleAtFixedRate(
                     new ThreadPoolMonitorRunner(threadPoolConfig, threadPoolStatistics),
-                    threadPoolConfig.getPeriod(), threadPoolConfig.getPeriod(),
-                    threadPoolConfig.getTimeUnit());
+                    threadPoolConfig.getPeriod(), threadPoolConfig.getTimeUnit());
             ThreadLogger.info("Restart thread pool '{}' with period: {} {}",
                 threadPoolConfig.getIdentity(), threadPoolConfig.getPeriod(),
                 threadPoolConfig.getTimeUnit());
         }
     }
 
+    /**
+     * Resize the {@link ThreadPoolExecutor} by the {@link AdaptiveSizingPolicy} of it's
+     * {@link ThreadPoolConfig}, nothing happens when the policy is null
+     */
+    public void adjustPoolSize() {
+        AdaptiveSizingPolicy policy = threadPoolConfig.getAdaptiveSizingPolicy();
+        if (policy == null || threadPoolExecutor == null) {
+            adaptivePoolSizer = null;
+            return;
+        }
+        if (adaptivePoolSizer == null || adaptivePoolSizer.getPolicy() != policy) {
+            adaptivePoolSizer = new AdaptivePoolSizer(threadPoolExecutor, threadPoolStatistics,
+                policy, threadPoolConfig.getIdentity());
+        }
+        adaptivePoolSizer.adjust();
+    }
+
     /**
      * Return the origin {@link ThreadPoolExecutor}
-     * @return the {@link ThreadPoolExecutor}
+     * @return the {@link ThreadPoolExecutor}, null if the executor is not a {@link ThreadPoolExecutor}
      */
     public ThreadPoolExecutor getThreadPoolExecutor() {
         return threadPoolExecutor;
     }
 
+    /**
+     * Return the origin {@link ExecutorService}
+     * @return the {@link ExecutorService}
+     */
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
     /**
      * Return the {@link ThreadPoolConfig}
      * @return the {@link ThreadPoolConfig}
@@ -127,11 +165,19 @@ public class ThreadPoolMonitorWrapper {
         return threadPoolConfig;
     }
 
+    /**
+     * Return the {@link ThreadPoolStatistics}
+     * @return the {@link ThreadPoolStatistics}
+     */
+    public ThreadPoolStatistics getThreadPoolStatistics() {
+        return threadPoolStatistics;
+    }
+
     /**
      * Return whether the monitor task is started
      * @return started
      */
     public boolean isStarted() {
-        return this.scheduledFuture != null;
+        return this.monitorTimeout != null;
     }
 }
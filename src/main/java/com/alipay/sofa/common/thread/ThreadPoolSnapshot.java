@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The values of a set of thread pools sampled at one time, the values of all pools are
+ * kept in one flat long array with a row of {@link #FIELD_COUNT} values per pool.
+ * <p>
+ * A snapshot can be filled again to sample the pools again, the arrays are only
+ * reallocated when the count of pools grows. The executing task count is read from the
+ * slot table of {@link ThreadPoolStatistics} without any lock, the pool size of a
+ * {@link ThreadPoolExecutor} is the only value read with the main lock of the executor,
+ * once per pool in each sampling.
+ * <p>
+ * A snapshot is not thread safe, it must not be read while it's being filled.
+ */
+public class ThreadPoolSnapshot {
+
+    /** the count of queued tasks */
+    public static final int QUEUE_SIZE           = 0;
+
+    /** the count of worker threads */
+    public static final int POOL_SIZE            = 1;
+
+    /** the core pool size, -1 if the executor is not a {@link ThreadPoolExecutor} */
+    public static final int CORE_POOL_SIZE       = 2;
+
+    /** the maximum pool size, -1 if the executor is not a {@link ThreadPoolExecutor} */
+    public static final int MAXIMUM_POOL_SIZE    = 3;
+
+    /** the count of executing tasks */
+    public static final int EXECUTING_TASK_COUNT = 4;
+
+    /** the count of executing tasks exceeding the task timeout */
+    public static final int DECAYED_TASK_COUNT   = 5;
+
+    /** the cumulative count of finished tasks */
+    public static final int TASK_COUNT           = 6;
+
+    /** the cumulative running time in nanoseconds */
+    public static final int RUNNING_TIME         = 7;
+
+    /** the cumulative stay in queue time in nanoseconds */
+    public static final int STAY_IN_QUEUE_TIME   = 8;
+
+    /** the cumulative count of tasks dropped since their deadline passed */
+    public static final int EXPIRED_TASK_COUNT   = 9;
+
+    /** the cumulative count of tasks shed before they are queued */
+    public static final int SHED_TASK_COUNT      = 10;
+
+    /** the cumulative CPU time in nanoseconds, -1 if the resource accounting is disabled */
+    public static final int CPU_TIME             = 11;
+
+    /** the cumulative allocated bytes, -1 if the resource accounting is disabled */
+    public static final int ALLOCATED_BYTES      = 12;
+
+    /** the count of values of one pool */
+    public static final int FIELD_COUNT          = 13;
+
+    private String[]        identities           = new String[0];
+
+    private String[]        spaceNames           = new String[0];
+
+    private long[]          values               = new long[0];
+
+    private int             size;
+
+    private long            timestamp;
+
+    /**
+     * Sample the thread pools, the previous values are discarded
+     * @param wrappers the thread pools
+     * @return this snapshot
+     */
+    public ThreadPoolSnapshot fill(Iterable<ThreadPoolMonitorWrapper> wrappers) {
+        size = 0;
+        long now = System.nanoTime();
+        for (ThreadPoolMonitorWrapper wrapper : wrappers) {
+            add(wrapper, now);
+        }
+        // clear the references of removed pools
+        Arrays.fill(identities, size, identities.length, null);
+        Arrays.fill(spaceNames, size, spaceNames.length, null);
+        timestamp = now;
+        return this;
+    }
+
+    private void add(ThreadPoolMonitorWrapper wrapper, long now) {
+        if (size == identities.length) {
+            int capacity = Math.max(8, size << 1);
+            identities = Arrays.copyOf(identities, capacity);
+            spaceNames = Arrays.copyOf(spaceNames, capacity);
+            values = Arrays.copyOf(values, capacity * FIELD_COUNT);
+        }
+        ThreadPoolConfig config = wrapper.getThreadPoolConfig();
+        ThreadPoolStatistics statistics = wrapper.getThreadPoolStatistics();
+        ThreadPoolExecutor executor = wrapper.getThreadPoolExecutor();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getTaskTimeoutMilli());
+        int executing = statistics.getExecutingTaskCount();
+        // the slots are scanned twice, a task may start in between
+        int decayed = Math.min(executing, statistics.getDecayedTaskCount(timeoutNanos, now));
+        boolean resourceAccounting = statistics.isResourceAccountingEnabled();
+        int base = size * FIELD_COUNT;
+        values[base + QUEUE_SIZE] = statistics.getQueueSize();
+        values[base + POOL_SIZE] = statistics.getPoolSize();
+        values[base + CORE_POOL_SIZE] = executor == null ? -1 : executor.getCorePoolSize();
+        values[base + MAXIMUM_POOL_SIZE] = executor == null ? -1 : executor.getMaximumPoolSize();
+        values[base + EXECUTING_TASK_COUNT] = executing;
+        values[base + DECAYED_TASK_COUNT] = decayed;
+        values[base + TASK_COUNT] = statistics.getCumulativeTaskCount();
+        values[base + RUNNING_TIME] = statistics.getCumulativeRunningTimeNanos();
+        values[base + STAY_IN_QUEUE_TIME] = statistics.getCumulativeStayInQueueTimeNanos();
+        values[base + EXPIRED_TASK_COUNT] = statistics.getExpiredTaskCount();
+        values[base + SHED_TASK_COUNT] = statistics.getShedTaskCount();
+        values[base + CPU_TIME] = resourceAccounting ? statistics.getCumulativeCpuTimeNanos() : -1;
+        values[base + ALLOCATED_BYTES] = resourceAccounting ? statistics
+            .getCumulativeAllocatedBytes() : -1;
+        identities[size] = config.getIdentity();
+        spaceNames[size] = config.getSpaceName();
+        size++;
+    }
+
+    /**
+     * Return the count of sampled thread pools
+     * @return the pool count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the time of the sampling from {@link System#nanoTime()}
+     * @return the sampling time
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Return the identity of the pool
+     * @param index the index of the pool
+     * @return the identity
+     */
+    public String getIdentity(int index) {
+        checkIndex(index);
+        return identities[index];
+    }
+
+    /**
+     * Return the space name of the pool
+     * @param index the index of the pool
+     * @return the space name, null if the pool has no space
+     */
+    public String getSpaceName(int index) {
+        checkIndex(index);
+        return spaceNames[index];
+    }
+
+    /**
+     * Return a value of the pool
+     * @param index the index of the pool
+     * @param field the field of the value, such as {@link #QUEUE_SIZE}
+     * @return the value
+     */
+    public long get(int index, int field) {
+        checkIndex(index);
+        if (field < 0 || field >= FIELD_COUNT) {
+            throw new IndexOutOfBoundsException("field: " + field);
+        }
+        return values[index * FIELD_COUNT + field];
+    }
+
+    /**
+     * Return the index of the pool
+     * @param identity the identity of the pool
+     * @return the index, -1 if the pool is not sampled
+     */
+    public int indexOf(String identity) {
+        for (int i = 0; i < size; i++) {
+            if (identities[i].equals(identity)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+}
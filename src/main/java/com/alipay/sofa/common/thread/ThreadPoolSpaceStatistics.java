@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The aggregated statistics of all the thread pools in one spaceName.
+ * <p>
+ * Nothing is recorded on the task path, the aggregates are computed from the statistics of
+ * the thread pools when {@link #snapshot(String, int, Collection, SpaceSnapshot)} is called.
+ * The histograms of the thread pools are merged by their accumulated bucket counts, which are
+ * never reset. The space keeps cumulative counters only, a snapshot reports the interval since
+ * the previous snapshot of the same consumer, so consumers don't steal intervals from each
+ * other. The counts of a thread pool are taken from the time it joins the space, and are kept
+ * when it leaves the space, so the cumulative counters never go backwards.
+ */
+public class ThreadPoolSpaceStatistics {
+
+    private final long                  createTime = System.nanoTime();
+
+    /** the counts of the thread pools when they joined the space, null if they were zero */
+    private final Map<String, Counts>   baselines  = new HashMap<>();
+
+    /** the counts contributed by the thread pools which left the space */
+    private final Counts                retired    = new Counts();
+
+    /**
+     * Start to count a thread pool joining the space
+     * @param wrapper the thread pool
+     */
+    public synchronized void join(ThreadPoolMonitorWrapper wrapper) {
+        Counts counts = new Counts();
+        counts.add(wrapper.getThreadPoolStatistics(), null);
+        baselines.put(wrapper.getThreadPoolConfig().getIdentity(),
+            counts.taskCount == 0 ? null : counts);
+    }
+
+    /**
+     * Keep the counts of a thread pool leaving the space
+     * @param wrapper the thread pool
+     */
+    public synchronized void leave(ThreadPoolMonitorWrapper wrapper) {
+        String identity = wrapper.getThreadPoolConfig().getIdentity();
+        if (baselines.containsKey(identity)) {
+            retired.add(wrapper.getThreadPoolStatistics(), baselines.remove(identity));
+        }
+    }
+
+    /**
+     * Take the aggregates of the thread pools
+     * @param spaceName the spaceName
+     * @param maxThreads the thread budget of the space, 0 if it's unlimited
+     * @param wrappers the thread pools in the space
+     * @param previous the previous snapshot of the consumer, null to report the interval
+     *                 since the space is created
+     * @return the aggregates
+     */
+    public synchronized SpaceSnapshot snapshot(String spaceName, int maxThreads,
+                                               Collection<ThreadPoolMonitorWrapper> wrappers,
+                                               SpaceSnapshot previous) {
+        long now = System.nanoTime();
+        long poolSize = 0;
+        long activeCount = 0;
+        long queueSize = 0;
+        Counts cumulative = new Counts();
+        cumulative.add(retired);
+        for (ThreadPoolMonitorWrapper wrapper : wrappers) {
+            ThreadPoolStatistics statistics = wrapper.getThreadPoolStatistics();
+            poolSize += statistics.getPoolSize();
+            activeCount += statistics.getExecutingTaskCount();
+            queueSize += statistics.getQueueSize();
+            cumulative.add(statistics, baselines.get(wrapper.getThreadPoolConfig().getIdentity()));
+        }
+        return new SpaceSnapshot(spaceName, wrappers.size(), maxThreads, poolSize, activeCount,
+            queueSize, now, cumulative, previous, createTime);
+    }
+
+    /**
+     * The accumulated counts of thread pools
+     */
+    static final class Counts {
+
+        private long         taskCount;
+
+        private final long[] runningTime     = LatencyHistogram.newBuckets();
+
+        private final long[] stayInQueueTime = LatencyHistogram.newBuckets();
+
+        void add(ThreadPoolStatistics statistics, Counts baseline) {
+            // read the count first like the statistics, the histograms are recorded before it
+            taskCount += statistics.getCumulativeTaskCount();
+            statistics.getRunningTimeHistogram().accumulateTo(runningTime);
+            statistics.getStayInQueueTimeHistogram().accumulateTo(stayInQueueTime);
+            if (baseline != null) {
+                subtract(baseline);
+            }
+        }
+
+        void add(Counts counts) {
+            taskCount += counts.taskCount;
+            for (int i = 0; i < runningTime.length; i++) {
+                runningTime[i] += counts.runningTime[i];
+                stayInQueueTime[i] += counts.stayInQueueTime[i];
+            }
+        }
+
+        private void subtract(Counts counts) {
+            taskCount -= counts.taskCount;
+            for (int i = 0; i < runningTime.length; i++) {
+                runningTime[i] -= counts.runningTime[i];
+                stayInQueueTime[i] -= counts.stayInQueueTime[i];
+            }
+        }
+    }
+
+    /**
+     * The aggregates of one spaceName, the interval values are relative to the previous
+     * snapshot of the consumer
+     */
+    public static class SpaceSnapshot {
+
+        private final String                       spaceName;
+
+        private final int                          threadPoolCount;
+
+        private final int                          maxThreads;
+
+        private final long                         poolSize;
+
+        private final long                         activeCount;
+
+        private final long                         queueSize;
+
+        private final long                         totalTaskCount;
+
+        private final long                         taskCount;
+
+        private final long                         intervalNanos;
+
+        private final LatencyHistogram.Percentiles runningTimePercentiles;
+
+        private final LatencyHistogram.Percentiles stayInQueueTimePercentiles;
+
+        /** the time of the snapshot */
+        private final long                         time;
+
+        /** the cumulative counts, kept to compute the next interval */
+        private final Counts                       counts;
+
+        SpaceSnapshot(String spaceName, int threadPoolCount, int maxThreads, long poolSize,
+                      long activeCount, long queueSize, long time, Counts counts,
+                      SpaceSnapshot previous, long createTime) {
+            this.spaceName = spaceName;
+            this.threadPoolCount = threadPoolCount;
+            this.maxThreads = maxThreads;
+            this.poolSize = poolSize;
+            this.activeCount = activeCount;
+            this.queueSize = queueSize;
+            this.time = time;
+            this.counts = counts;
+            this.totalTaskCount = counts.taskCount;
+            if (previous == null) {
+                this.taskCount = counts.taskCount;
+                this.intervalNanos = time - createTime;
+                this.runningTimePercentiles = LatencyHistogram.percentiles(counts.runningTime);
+                this.stayInQueueTimePercentiles = LatencyHistogram
+                    .percentiles(counts.stayInQueueTime);
+            } else {
+                this.taskCount = counts.taskCount - previous.counts.taskCount;
+                this.intervalNanos = time - previous.time;
+                this.runningTimePercentiles = LatencyHistogram.percentiles(delta(
+                    counts.runningTime, previous.counts.runningTime));
+                this.stayInQueueTimePercentiles = LatencyHistogram.percentiles(delta(
+                    counts.stayInQueueTime, previous.counts.stayInQueueTime));
+            }
+        }
+
+        private static long[] delta(long[] current, long[] previous) {
+            long[] deltas = LatencyHistogram.newBuckets();
+            for (int i = 0; i < deltas.length; i++) {
+                deltas[i] = current[i] - previous[i];
+            }
+            return deltas;
+        }
+
+        public String getSpaceName() {
+            return spaceName;
+        }
+
+        /**
+         * @return the count of registered thread pools in the space
+         */
+        public int getThreadPoolCount() {
+            return threadPoolCount;
+        }
+
+        /**
+         * @return the thread budget of the space, 0 if it's unlimited
+         */
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        /**
+         * @return the total threads of the thread pools
+         */
+        public long getPoolSize() {
+            return poolSize;
+        }
+
+        /**
+         * @return the total executing tasks of the thread pools
+         */
+        public long getActiveCount() {
+            return activeCount;
+        }
+
+        /**
+         * @return the total queued tasks of the thread pools
+         */
+        public long getQueueSize() {
+            return queueSize;
+        }
+
+        /**
+         * @return the finished tasks of the thread pools since they joined the space,
+         * including the thread pools which left the space
+         */
+        public long getTotalTaskCount() {
+            return totalTaskCount;
+        }
+
+        /**
+         * @return the finished tasks since the previous snapshot
+         */
+        public long getTaskCount() {
+            return taskCount;
+        }
+
+        /**
+         * @return the length of the interval in nanoseconds
+         */
+        public long getIntervalNanos() {
+            return intervalNanos;
+        }
+
+        /**
+         * @return the finished tasks per second in the interval
+         */
+        public double getThroughput() {
+            return intervalNanos <= 0 ? 0 : taskCount * (double) TimeUnit.SECONDS.toNanos(1)
+                                            / intervalNanos;
+        }
+
+        /**
+         * @return the percentiles of the running time in nanoseconds of the interval
+         */
+        public LatencyHistogram.Percentiles getRunningTimePercentiles() {
+            return runningTimePercentiles;
+        }
+
+        /**
+         * @return the percentiles of the stay in queue time in nanoseconds of the interval
+         */
+        public LatencyHistogram.Percentiles getStayInQueueTimePercentiles() {
+            return stayInQueueTimePercentiles;
+        }
+
+        @Override
+        public String toString() {
+            return "SpaceSnapshot{spaceName='" + spaceName + "', threadPoolCount="
+                   + threadPoolCount + ", maxThreads=" + maxThreads + ", poolSize=" + poolSize
+                   + ", activeCount=" + activeCount + ", queueSize=" + queueSize
+                   + ", totalTaskCount=" + totalTaskCount + ", taskCount=" + taskCount
+                   + ", throughput=" + getThroughput() + ", runningTime="
+                   + runningTimePercentiles + ", stayInQueueTime=" + stayInQueueTimePercentiles
+                   + '}';
+        }
+    }
+}
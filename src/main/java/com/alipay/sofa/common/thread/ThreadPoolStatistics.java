@@ -16,10 +16,16 @@
  */
 package com.alipay.sofa.common.thread;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.alipay.sofa.common.thread.SofaThreadPoolConstants.DEFAULT_TASK_TYPE_LIMIT;
 
 /**
  * The running statics of a {@link ThreadPoolExecutor}
@@ -33,34 +39,357 @@ public class ThreadPoolStatistics {
     private final ThreadPoolExecutor threadPoolExecutor;
 
     /**
-     * the key is executing tasks, the value is dequeue time when executor is {@link SofaScheduledThreadPoolExecutor}
+     * the max initial size of the slot table, it grows when more workers are started
+     */
+    private static final int MAX_INITIAL_SLOTS = 256;
+
+    /**
+     * the slot table of the worker threads, indexed by worker ordinal
+     */
+    private volatile ExecutingTaskSlot[] slots;
+
+    /**
+     * the slot of current worker thread
+     */
+    private final ThreadLocal<ExecutingTaskSlot> localSlot = new ThreadLocal<>();
+
+    /**
+     * the index to start searching a free slot, only accessed with the lock held
+     */
+    private int nextSlotHint;
+
+    /**
+     * the total time for task executing in nanoseconds, it never resets
+     */
+    final LongAdder totalRunningTime = new LongAdder();
+
+    /**
+     * the total time for task in queue in nanoseconds, it never resets
+     */
+    final LongAdder totalStayInQueueTime = new LongAdder();
+
+    /**
+     * total tasks put to thread pool, it never resets
      */
-    private final Map<ExecutingRunnable, Long> executingTasks = new ConcurrentHashMap<>();
+    final LongAdder totalTaskCount = new LongAdder();
 
     /**
-     * the total time for task executing
+     * tasks dropped by the work queue since their deadline passed, it never resets
      */
-    AtomicLong totalRunningTime          = new AtomicLong();
+    private final LongAdder expiredTaskCount = new LongAdder();
 
     /**
-     * the total time for task in queue
+     * tasks shed by the executor before they are queued, it never resets
      */
-    AtomicLong totalStayInQueueTime = new AtomicLong();
+    private final LongAdder shedTaskCount = new LongAdder();
 
     /**
-     * total tasks put to thread pool
+     * whether the CPU time and allocated bytes of tasks are measured, off by default
      */
-    AtomicLong totalTaskCount            = new AtomicLong();
+    private volatile boolean resourceAccountingEnabled;
+
+    /**
+     * the total CPU time of measured tasks in nanoseconds, it never resets
+     */
+    private final LongAdder totalCpuTime = new LongAdder();
+
+    /**
+     * the total heap bytes allocated by measured tasks, it never resets
+     */
+    private final LongAdder totalAllocatedBytes = new LongAdder();
+
+    /**
+     * the count of tasks measured by the resource accounting, it never resets
+     */
+    private final LongAdder resourceTaskCount = new LongAdder();
+
+    /**
+     * the statistics grouped by the task type, null when it's disabled
+     */
+    private volatile TaskTypeBreakdown taskTypeBreakdown;
+
+    /**
+     * the drift of the periodic tasks from their trigger times, done tasks are removed
+     * by {@link #snapshotAndReset()}
+     */
+    private final ConcurrentHashMap<Future<?>, PeriodicTaskDrift> periodicDrifts = new ConcurrentHashMap<>();
+
+    /**
+     * the histogram of the time for task executing
+     */
+    private final LatencyHistogram runningTimeHistogram = new LatencyHistogram();
+
+    /**
+     * the histogram of the time for task in queue
+     */
+    private final LatencyHistogram stayInQueueTimeHistogram = new LatencyHistogram();
+
+    /**
+     * the accumulated values at the last reset, statistics are reported relative to it
+     */
+    private volatile IntervalSnapshot lastReset = new IntervalSnapshot(0, 0, 0);
+
+    /**
+     * the statistics of the last finished interval
+     */
+    private volatile IntervalSnapshot lastInterval = new IntervalSnapshot(0, 0, 0);
 
     public ThreadPoolStatistics(ThreadPoolExecutor threadPoolExecutor) {
         this.threadPoolExecutor = threadPoolExecutor;
+        this.slots = new ExecutingTaskSlot[Math.max(1,
+            Math.min(threadPoolExecutor.getCorePoolSize(), MAX_INITIAL_SLOTS))];
+    }
+
+    /**
+     * Constructor for executors which are not a {@link ThreadPoolExecutor},
+     * subclasses must override {@link #getQueueSize()} and {@link #getPoolSize()}
+     * @param expectedConcurrency the expected count of concurrent executing tasks
+     */
+    protected ThreadPoolStatistics(int expectedConcurrency) {
+        this.threadPoolExecutor = null;
+        this.slots = new ExecutingTaskSlot[Math.max(1,
+            Math.min(expectedConcurrency, MAX_INITIAL_SLOTS))];
+    }
+
+    /**
+     * Mark the task started on current worker thread
+     * @param task the executing task
+     * @param startTime the start time of the task from {@link System#nanoTime()}
+     */
+    public void startTask(Runnable task, long startTime) {
+        ExecutingTaskSlot slot = localSlot.get();
+        if (slot == null) {
+            slot = acquireSlot(Thread.currentThread());
+            localSlot.set(slot);
+        }
+        startTask(slot, task, startTime);
     }
 
     /**
-     * Return the running tasks of the {@link ThreadPoolExecutor}
-     * @return the executingTasks
+     * Mark the task started on the given slot of current thread, it's used by executors which
+     * keep the slot of each task themselves instead of binding it to the worker thread
+     * @param slot the slot owned by current thread
+     * @param task the executing task
+     * @param startTime the start time of the task from {@link System#nanoTime()}
      */
+    void startTask(ExecutingTaskSlot slot, Runnable task, long startTime) {
+        if (resourceAccountingEnabled) {
+            slot.startResource(ThreadResourceMeter.currentThreadCpuTime(),
+                ThreadResourceMeter.currentThreadAllocatedBytes());
+        } else {
+            slot.startResource(-1, -1);
+        }
+        slot.start(task, startTime);
+    }
+
+    /**
+     * Mark the task executing on current worker thread finished
+     * @param finishTime the finish time of the task from {@link System#nanoTime()}
+     * @return the running time of the task in nanoseconds, or -1 if no task is executing
+     */
+    public long finishTask(long finishTime) {
+        ExecutingTaskSlot slot = localSlot.get();
+        if (slot == null) {
+            return -1;
+        }
+        return finishTask(slot, finishTime);
+    }
+
+    /**
+     * Mark the task executing on the given slot of current thread finished
+     * @param slot the slot owned by current thread
+     * @param finishTime the finish time of the task from {@link System#nanoTime()}
+     * @return the running time of the task in nanoseconds, or -1 if no task is executing
+     */
+    long finishTask(ExecutingTaskSlot slot, long finishTime) {
+        Runnable task = slot.getTask();
+        if (task == null) {
+            return -1;
+        }
+        long cpuTime = -1;
+        long allocatedBytes = -1;
+        if (slot.getStartCpuTime() >= 0 || slot.getStartAllocatedBytes() >= 0) {
+            finishResource(slot, task);
+            cpuTime = slot.getCpuTime();
+            allocatedBytes = slot.getAllocatedBytes();
+        }
+        long runningTime = Math.max(0, finishTime - slot.finish());
+        TaskTypeBreakdown breakdown = this.taskTypeBreakdown;
+        if (breakdown != null) {
+            // the dequeue time is set before the task starts, so the stay in queue time is known
+            long stayInQueueTime = task instanceof ExecutingRunnable ? ((ExecutingRunnable) task)
+                .getStayInQueueTimeNanos() : 0;
+            breakdown.record(task, runningTime, stayInQueueTime, cpuTime, allocatedBytes);
+        }
+        return runningTime;
+    }
+
+    /**
+     * Add the resource usage of the task finished on current worker thread, the usage is
+     * also saved to the slot and to the task if it's an {@link ExecutingRunnable}
+     * @param slot the slot of current worker thread
+     * @param task the finished task
+     */
+    private void finishResource(ExecutingTaskSlot slot, Runnable task) {
+        long cpuTime = -1;
+        long allocatedBytes = -1;
+        if (slot.getStartCpuTime() >= 0) {
+            long current = ThreadResourceMeter.currentThreadCpuTime();
+            if (current >= 0) {
+                cpuTime = Math.max(0, current - slot.getStartCpuTime());
+                totalCpuTime.add(cpuTime);
+            }
+        }
+        if (slot.getStartAllocatedBytes() >= 0) {
+            long current = ThreadResourceMeter.currentThreadAllocatedBytes();
+            if (current >= 0) {
+                allocatedBytes = Math.max(0, current - slot.getStartAllocatedBytes());
+                totalAllocatedBytes.add(allocatedBytes);
+            }
+        }
+        resourceTaskCount.increment();
+        slot.finishResource(cpuTime, allocatedBytes);
+        if (task instanceof ExecutingRunnable) {
+            ExecutingRunnable runnable = (ExecutingRunnable) task;
+            runnable.setCpuTime(cpuTime);
+            runnable.setAllocatedBytes(allocatedBytes);
+        }
+    }
+
+    /**
+     * Return whether current thread is executing a task counted by this statistics
+     * @return whether a task is executing on current thread
+     */
+    boolean isExecuting() {
+        ExecutingTaskSlot slot = localSlot.get();
+        return slot != null && slot.getTask() != null;
+    }
+
+    /**
+     * Bind a slot to the worker thread, slots of died workers are reused
+     * @param thread the worker thread
+     * @return the bound slot
+     */
+    private synchronized ExecutingTaskSlot acquireSlot(Thread thread) {
+        ExecutingTaskSlot[] current = this.slots;
+        int length = current.length;
+        for (int n = 0; n < length; n++) {
+            int i = (nextSlotHint + n) % length;
+            if (current[i] == null) {
+                current[i] = new ExecutingTaskSlot(thread);
+            } else if (!current[i].takeOver(thread)) {
+                continue;
+            }
+            nextSlotHint = i + 1;
+            return current[i];
+        }
+        return growSlots(thread);
+    }
+
+    /**
+     * Add a new slot for the thread without taking over the existing slots, it's used by
+     * executors which keep the free slots themselves
+     * @param thread the thread owns the new slot
+     * @return the new slot
+     */
+    synchronized ExecutingTaskSlot newSlot(Thread thread) {
+        ExecutingTaskSlot[] current = this.slots;
+        int length = current.length;
+        for (int n = 0; n < length; n++) {
+            int i = (nextSlotHint + n) % length;
+            if (current[i] == null) {
+                current[i] = new ExecutingTaskSlot(thread);
+                nextSlotHint = i + 1;
+                return current[i];
+            }
+        }
+        return growSlots(thread);
+    }
+
+    /**
+     * Double the slot table and bind the first new slot to the thread, the lock must be held
+     * @param thread the thread owns the new slot
+     * @return the new slot
+     */
+    private ExecutingTaskSlot growSlots(Thread thread) {
+        ExecutingTaskSlot[] current = this.slots;
+        int length = current.length;
+        ExecutingTaskSlot[] grown = Arrays.copyOf(current, length << 1);
+        grown[length] = new ExecutingTaskSlot(thread);
+        this.slots = grown;
+        nextSlotHint = length + 1;
+        return grown[length];
+    }
+
+    /**
+     * Return the slot table of the worker threads, the returned array is shared and
+     * may contain null elements, it should only be read
+     * @return the slots
+     */
+    public ExecutingTaskSlot[] getExecutingTaskSlots() {
+        return slots;
+    }
+
+    /**
+     * Return the count of the executing tasks
+     * @return the executing task count
+     */
+    public int getExecutingTaskCount() {
+        int count = 0;
+        for (ExecutingTaskSlot slot : slots) {
+            if (slot != null && slot.getTask() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the count of the executing tasks running for at least the timeout
+     * @param timeoutNanos the task timeout in nanoseconds
+     * @param now the current time from {@link System#nanoTime()}
+     * @return the decayed task count
+     */
+    public int getDecayedTaskCount(long timeoutNanos, long now) {
+        int count = 0;
+        for (ExecutingTaskSlot slot : slots) {
+            if (slot != null && slot.getTask() != null
+                && isDecayed(slot.getStartTime(), timeoutNanos, now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static boolean isDecayed(long startTime, long timeoutNanos, long now) {
+        return now - startTime >= timeoutNanos;
+    }
+
+    /**
+     * Return a snapshot of the running tasks of the {@link ThreadPoolExecutor}
+     * @return the executing tasks with their start time from {@link System#nanoTime()}
+     * @deprecated use {@link #getExecutingTaskSlots()} instead, this method allocates a new map
+     */
+    @Deprecated
     public Map<ExecutingRunnable, Long> getExecutingTasks() {
+        Map<ExecutingRunnable, Long> executingTasks = new HashMap<>();
+        for (ExecutingTaskSlot slot : slots) {
+            if (slot == null) {
+                continue;
+            }
+            Runnable task = slot.getTask();
+            if (task == null) {
+                continue;
+            }
+            ExecutingRunnable runnable;
+            if (task instanceof ExecutingRunnable) {
+                runnable = (ExecutingRunnable) task;
+            } else {
+                runnable = new ExecutingRunnable(task);
+                runnable.setThread(slot.getThread());
+            }
+            executingTasks.put(runnable, slot.getStartTime());
+        }
         return executingTasks;
     }
 
@@ -81,60 +410,459 @@ public class ThreadPoolStatistics {
     }
 
     /**
-     * add total running time
-     * @param runningTime the added runningTime
+     * add total running time and record it to the histogram,
+     * tasks should add the times before {@link #addTotalTaskCount()}
+     * @param runningTime the added runningTime in milliseconds
      */
     public void addTotalRunningTime(long runningTime) {
-        totalRunningTime.addAndGet(runningTime);
+        addTotalRunningTimeNanos(TimeUnit.MILLISECONDS.toNanos(runningTime));
     }
 
     /**
-     * add total stay in queue time
-     * @param stayInQueueTime the added stay in queue time
+     * add total stay in queue time and record it to the histogram,
+     * tasks should add the times before {@link #addTotalTaskCount()}
+     * @param stayInQueueTime the added stay in queue time in milliseconds
      */
     public void addTotalStayInQueueTime(long stayInQueueTime) {
-        totalStayInQueueTime.addAndGet(stayInQueueTime);
+        addTotalStayInQueueTimeNanos(TimeUnit.MILLISECONDS.toNanos(stayInQueueTime));
+    }
+
+    /**
+     * add total running time and record it to the histogram,
+     * tasks should add the times before {@link #addTotalTaskCount()}
+     * @param runningTime the added runningTime in nanoseconds
+     */
+    public void addTotalRunningTimeNanos(long runningTime) {
+        totalRunningTime.add(runningTime);
+        runningTimeHistogram.record(runningTime);
+    }
+
+    /**
+     * add total stay in queue time and record it to the histogram,
+     * tasks should add the times before {@link #addTotalTaskCount()}
+     * @param stayInQueueTime the added stay in queue time in nanoseconds
+     */
+    public void addTotalStayInQueueTimeNanos(long stayInQueueTime) {
+        totalStayInQueueTime.add(stayInQueueTime);
+        stayInQueueTimeHistogram.record(stayInQueueTime);
     }
 
     /**
      * increase total task count
      */
     public void addTotalTaskCount() {
-        totalTaskCount.incrementAndGet();
+        totalTaskCount.increment();
     }
 
     /**
-     * return the total task count
+     * return the total task count since last reset
      * @return the total task count
      */
     public long getTotalTaskCount() {
-        return totalTaskCount.get();
+        return totalTaskCount.sum() - lastReset.getTaskCount();
+    }
+
+    /**
+     * return the total task count since the statistics is created, it never resets
+     * @return the cumulative task count
+     */
+    public long getCumulativeTaskCount() {
+        return totalTaskCount.sum();
+    }
+
+    /**
+     * return the total running time since the statistics is created, it never resets
+     * @return the cumulative running time in nanoseconds
+     */
+    public long getCumulativeRunningTimeNanos() {
+        return totalRunningTime.sum();
+    }
+
+    /**
+     * return the total stay in queue time since the statistics is created, it never resets
+     * @return the cumulative stay in queue time in nanoseconds
+     */
+    public long getCumulativeStayInQueueTimeNanos() {
+        return totalStayInQueueTime.sum();
+    }
+
+    /**
+     * count a task dropped by the work queue since it's deadline passed
+     */
+    public void addExpiredTaskCount() {
+        expiredTaskCount.increment();
+    }
+
+    /**
+     * return the count of tasks dropped by the work queue since their deadline passed,
+     * it never resets
+     * @return the expired task count
+     */
+    public long getExpiredTaskCount() {
+        return expiredTaskCount.sum();
+    }
+
+    /**
+     * count a task shed by the executor before it's queued
+     */
+    public void addShedTaskCount() {
+        shedTaskCount.increment();
+    }
+
+    /**
+     * return the count of tasks shed by the executor before they are queued, it never resets
+     * @return the shed task count
+     */
+    public long getShedTaskCount() {
+        return shedTaskCount.sum();
+    }
+
+    /**
+     * Enable or disable measuring the CPU time and allocated bytes of each task, a task
+     * started before the change is measured by the setting when it started
+     * @param resourceAccountingEnabled whether to measure
+     */
+    public void setResourceAccountingEnabled(boolean resourceAccountingEnabled) {
+        if (resourceAccountingEnabled) {
+            ThreadResourceMeter.enable();
+        }
+        this.resourceAccountingEnabled = resourceAccountingEnabled;
+    }
+
+    /**
+     * return whether the CPU time and allocated bytes of each task are measured
+     * @return whether the resource accounting is enabled
+     */
+    public boolean isResourceAccountingEnabled() {
+        return resourceAccountingEnabled;
+    }
+
+    /**
+     * Enable or disable the statistics grouped by the task type, enabling it again starts
+     * from empty statistics
+     * @param taskTypeBreakdownEnabled whether to group the statistics by the task type
+     */
+    public void setTaskTypeBreakdownEnabled(boolean taskTypeBreakdownEnabled) {
+        if (!taskTypeBreakdownEnabled) {
+            this.taskTypeBreakdown = null;
+        } else if (this.taskTypeBreakdown == null) {
+            this.taskTypeBreakdown = new TaskTypeBreakdown(DEFAULT_TASK_TYPE_LIMIT);
+        }
+    }
+
+    /**
+     * return the statistics grouped by the task type
+     * @return the task type breakdown, null if it's disabled
+     */
+    public TaskTypeBreakdown getTaskTypeBreakdown() {
+        return taskTypeBreakdown;
+    }
+
+    /**
+     * return the total CPU time of measured tasks, it never resets
+     * @return the cumulative CPU time in nanoseconds
+     */
+    public long getCumulativeCpuTimeNanos() {
+        return totalCpuTime.sum();
+    }
+
+    /**
+     * return the total heap bytes allocated by measured tasks, it never resets
+     * @return the cumulative allocated bytes
+     */
+    public long getCumulativeAllocatedBytes() {
+        return totalAllocatedBytes.sum();
+    }
+
+    /**
+     * return the count of tasks measured by the resource accounting, it never resets
+     * @return the measured task count
+     */
+    public long getCumulativeResourceTaskCount() {
+        return resourceTaskCount.sum();
+    }
+
+    /**
+     * Record the schedule lag of one execution of a periodic task, it's the drift of the
+     * execution from it's trigger time, no object is allocated after the first execution
+     * @param task the periodic task, it's the same future in all the executions
+     * @param drift the start time minus the trigger time in nanoseconds
+     */
+    public void recordPeriodicDrift(Future<?> task, long drift) {
+        PeriodicTaskDrift taskDrift = periodicDrifts.get(task);
+        if (taskDrift == null) {
+            taskDrift = new PeriodicTaskDrift();
+            PeriodicTaskDrift previous = periodicDrifts.putIfAbsent(task, taskDrift);
+            if (previous != null) {
+                taskDrift = previous;
+            }
+        }
+        taskDrift.record(drift);
+    }
+
+    /**
+     * Remove the drift of a periodic task which is done
+     * @param task the periodic task
+     */
+    public void removePeriodicDrift(Future<?> task) {
+        periodicDrifts.remove(task);
+    }
+
+    /**
+     * Return the drift of the periodic tasks which are not done
+     * @return the drift by task
+     */
+    public Map<Future<?>, PeriodicTaskDrift> getPeriodicDrifts() {
+        Map<Future<?>, PeriodicTaskDrift> drifts = new HashMap<>();
+        for (Map.Entry<Future<?>, PeriodicTaskDrift> entry : periodicDrifts.entrySet()) {
+            if (!entry.getKey().isDone()) {
+                drifts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return drifts;
     }
 
     /**
-     * get the average running time
-     * @return average running time
+     * get the average running time since last reset
+     * @return average running time in milliseconds
      */
     public long getAverageRunningTime() {
-        return this.totalTaskCount.get() == 0 ? -1 : this.totalRunningTime.get()
-                / this.totalTaskCount.get();
+        return toMillis(getAverageRunningTimeNanos());
     }
 
     /**
-     * get the average stay in queue time
-     * @return average stay in queue time
+     * get the average stay in queue time since last reset
+     * @return average stay in queue time in milliseconds
      */
     public long getAverageStayInQueueTime() {
-        return this.totalTaskCount.get() == 0 ? -1 : this.totalStayInQueueTime.get()
-                / this.totalTaskCount.get();
+        return toMillis(getAverageStayInQueueTimeNanos());
     }
 
     /**
-     * reset each statics, it may cause the result inaccurate
+     * get the average running time since last reset
+     * @return average running time in nanoseconds
+     */
+    public long getAverageRunningTimeNanos() {
+        return currentInterval().getAverageRunningTimeNanos();
+    }
+
+    /**
+     * get the average stay in queue time since last reset
+     * @return average stay in queue time in nanoseconds
+     */
+    public long getAverageStayInQueueTimeNanos() {
+        return currentInterval().getAverageStayInQueueTimeNanos();
+    }
+
+    /**
+     * reset each statics, increments racing with the reset are kept for the next interval
      */
     public void resetAverageStatics() {
-        this.totalTaskCount.set(0);
-        this.totalRunningTime.set(0);
-        this.totalStayInQueueTime.set(0);
+        snapshotAndReset();
+    }
+
+    /**
+     * Take the statistics since last reset and start a new interval, the counters are
+     * never cleared so no increment racing with this method is lost
+     * @return the statistics of the finished interval
+     */
+    public synchronized IntervalSnapshot snapshotAndReset() {
+        if (!periodicDrifts.isEmpty()) {
+            // periodic tasks cancelled in the queue never finish an execution
+            periodicDrifts.keySet().removeIf(Future::isDone);
+        }
+        IntervalSnapshot current = accumulated();
+        IntervalSnapshot previous = this.lastReset;
+        this.lastReset = current;
+        IntervalSnapshot interval = new IntervalSnapshot(current.taskCount - previous.taskCount,
+            current.totalRunningTime - previous.totalRunningTime, current.totalStayInQueueTime
+                                                                 - previous.totalStayInQueueTime,
+            runningTimeHistogram.snapshotAndReset(), stayInQueueTimeHistogram.snapshotAndReset());
+        this.lastInterval = interval;
+        return interval;
+    }
+
+    LatencyHistogram getRunningTimeHistogram() {
+        return runningTimeHistogram;
+    }
+
+    LatencyHistogram getStayInQueueTimeHistogram() {
+        return stayInQueueTimeHistogram;
+    }
+
+    /**
+     * Return the statistics of the last interval finished by {@link #snapshotAndReset()},
+     * it's updated by the monitor in each period
+     * @return the last interval statistics
+     */
+    public IntervalSnapshot getLastInterval() {
+        return lastInterval;
+    }
+
+    private IntervalSnapshot currentInterval() {
+        IntervalSnapshot previous = this.lastReset;
+        return accumulated().minus(previous);
+    }
+
+    private IntervalSnapshot accumulated() {
+        // read the count first, the times of a counted task are always added before it's count
+        long taskCount = totalTaskCount.sum();
+        return new IntervalSnapshot(taskCount, totalRunningTime.sum(), totalStayInQueueTime.sum());
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos < 0 ? nanos : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * The statistics of the tasks finished in one interval
+     */
+    public static class IntervalSnapshot {
+        private final long taskCount;
+
+        private final long totalRunningTime;
+
+        private final long totalStayInQueueTime;
+
+        private final LatencyHistogram.Percentiles runningTimePercentiles;
+
+        private final LatencyHistogram.Percentiles stayInQueueTimePercentiles;
+
+        IntervalSnapshot(long taskCount, long totalRunningTime, long totalStayInQueueTime) {
+            this(taskCount, totalRunningTime, totalStayInQueueTime,
+                LatencyHistogram.Percentiles.EMPTY, LatencyHistogram.Percentiles.EMPTY);
+        }
+
+        IntervalSnapshot(long taskCount, long totalRunningTime, long totalStayInQueueTime,
+                         LatencyHistogram.Percentiles runningTimePercentiles,
+                         LatencyHistogram.Percentiles stayInQueueTimePercentiles) {
+            this.taskCount = taskCount;
+            this.totalRunningTime = totalRunningTime;
+            this.totalStayInQueueTime = totalStayInQueueTime;
+            this.runningTimePercentiles = runningTimePercentiles;
+            this.stayInQueueTimePercentiles = stayInQueueTimePercentiles;
+        }
+
+        IntervalSnapshot minus(IntervalSnapshot base) {
+            return new IntervalSnapshot(taskCount - base.taskCount, totalRunningTime
+                                                                    - base.totalRunningTime,
+                totalStayInQueueTime - base.totalStayInQueueTime);
+        }
+
+        /**
+         * @return the count of finished tasks
+         */
+        public long getTaskCount() {
+            return taskCount;
+        }
+
+        /**
+         * @return the total running time in nanoseconds
+         */
+        public long getTotalRunningTime() {
+            return totalRunningTime;
+        }
+
+        /**
+         * @return the total stay in queue time in nanoseconds
+         */
+        public long getTotalStayInQueueTime() {
+            return totalStayInQueueTime;
+        }
+
+        /**
+         * @return the average running time in nanoseconds, -1 if no task finished
+         */
+        public long getAverageRunningTimeNanos() {
+            return taskCount == 0 ? -1 : totalRunningTime / taskCount;
+        }
+
+        /**
+         * @return the average stay in queue time in nanoseconds, -1 if no task finished
+         */
+        public long getAverageStayInQueueTimeNanos() {
+            return taskCount == 0 ? -1 : totalStayInQueueTime / taskCount;
+        }
+
+        /**
+         * @return the percentiles of the running time in nanoseconds, empty if the
+         * snapshot isn't taken by {@link ThreadPoolStatistics#snapshotAndReset()}
+         */
+        public LatencyHistogram.Percentiles getRunningTimePercentiles() {
+            return runningTimePercentiles;
+        }
+
+        /**
+         * @return the percentiles of the stay in queue time in nanoseconds, empty if the
+         * snapshot isn't taken by {@link ThreadPoolStatistics#snapshotAndReset()}
+         */
+        public LatencyHistogram.Percentiles getStayInQueueTimePercentiles() {
+            return stayInQueueTimePercentiles;
+        }
+
+        /**
+         * @return the average running time in milliseconds, -1 if no task finished
+         */
+        public long getAverageRunningTime() {
+            return toMillis(getAverageRunningTimeNanos());
+        }
+
+        /**
+         * @return the average stay in queue time in milliseconds, -1 if no task finished
+         */
+        public long getAverageStayInQueueTime() {
+            return toMillis(getAverageStayInQueueTimeNanos());
+        }
+    }
+
+    /**
+     * The drift of a periodic task, it's only updated by the execution of the task which
+     * never runs concurrently with itself
+     */
+    public static class PeriodicTaskDrift {
+        private volatile long executionCount;
+
+        private volatile long totalDrift;
+
+        private volatile long lastDrift;
+
+        private volatile long maxDrift;
+
+        void record(long drift) {
+            executionCount++;
+            totalDrift += drift;
+            lastDrift = drift;
+            if (drift > maxDrift) {
+                maxDrift = drift;
+            }
+        }
+
+        /**
+         * @return the count of recorded executions
+         */
+        public long getExecutionCount() {
+            return executionCount;
+        }
+
+        /**
+         * @return the total drift in nanoseconds
+         */
+        public long getTotalDrift() {
+            return totalDrift;
+        }
+
+        /**
+         * @return the drift of the last execution in nanoseconds
+         */
+        public long getLastDrift() {
+            return lastDrift;
+        }
+
+        /**
+         * @return the max drift in nanoseconds
+         */
+        public long getMaxDrift() {
+            return maxDrift;
+        }
     }
 }
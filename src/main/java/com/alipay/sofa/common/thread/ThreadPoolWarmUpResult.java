@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+/**
+ * The cost of warming up one thread pool by {@link ThreadPoolGovernor}, times are in nanoseconds
+ */
+public class ThreadPoolWarmUpResult {
+
+    private final String  identity;
+
+    private final int     startedThreads;
+
+    private final long    threadCreationTime;
+
+    private final int     warmedUpThreads;
+
+    private final long    warmUpTaskTime;
+
+    private final boolean completed;
+
+    ThreadPoolWarmUpResult(String identity, int startedThreads, long threadCreationTime,
+                           int warmedUpThreads, long warmUpTaskTime, boolean completed) {
+        this.identity = identity;
+        this.startedThreads = startedThreads;
+        this.threadCreationTime = threadCreationTime;
+        this.warmedUpThreads = warmedUpThreads;
+        this.warmUpTaskTime = warmUpTaskTime;
+        this.completed = completed;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return the count of core threads started by the warm-up
+     */
+    public int getStartedThreads() {
+        return startedThreads;
+    }
+
+    /**
+     * @return the time to start the core threads
+     */
+    public long getThreadCreationTime() {
+        return threadCreationTime;
+    }
+
+    /**
+     * @return the count of the warm-up tasks finished successfully, an idle core thread may
+     * run more than one of them
+     */
+    public int getWarmedUpThreads() {
+        return warmedUpThreads;
+    }
+
+    /**
+     * @return the time from queueing the warm-up tasks to all of them finished or the deadline,
+     * -1 if no warm-up task is given
+     */
+    public long getWarmUpTaskTime() {
+        return warmUpTaskTime;
+    }
+
+    /**
+     * @return whether all the core threads are started
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadPoolWarmUpResult{identity='" + identity + "', startedThreads="
+               + startedThreads + ", threadCreationTime=" + threadCreationTime
+               + ", warmedUpThreads=" + warmedUpThreads + ", warmUpTaskTime=" + warmUpTaskTime
+               + ", completed=" + completed + '}';
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The reader of the CPU time and allocated bytes of current thread, both are read from
+ * the {@link ThreadMXBean} without a safepoint, a value is -1 if the JVM doesn't support
+ * or has disabled the measurement
+ */
+public final class ThreadResourceMeter {
+
+    private static final ThreadMXBean                    THREAD_MX_BEAN          = ManagementFactory
+                                                                                     .getThreadMXBean();
+
+    /** the extended bean to read allocated bytes, null if it's not provided by the JVM */
+    private static final com.sun.management.ThreadMXBean EXTENDED_THREAD_MX_BEAN = THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) THREAD_MX_BEAN
+                                                                                     : null;
+
+    private static volatile boolean                      enabled;
+
+    private ThreadResourceMeter() {
+    }
+
+    /**
+     * Enable the measurements in the {@link ThreadMXBean} if they are supported,
+     * it's called once when the resource accounting of a thread pool is enabled
+     */
+    static void enable() {
+        if (enabled) {
+            return;
+        }
+        synchronized (ThreadResourceMeter.class) {
+            if (enabled) {
+                return;
+            }
+            try {
+                if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+                    && !THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+                    THREAD_MX_BEAN.setThreadCpuTimeEnabled(true);
+                }
+                if (EXTENDED_THREAD_MX_BEAN != null
+                    && EXTENDED_THREAD_MX_BEAN.isThreadAllocatedMemorySupported()
+                    && !EXTENDED_THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled()) {
+                    EXTENDED_THREAD_MX_BEAN.setThreadAllocatedMemoryEnabled(true);
+                }
+            } catch (Throwable e) {
+                ThreadLogger.warn(
+                    "Failed to enable the thread cpu time and allocation measurement: {}", e);
+            }
+            enabled = true;
+        }
+    }
+
+    /**
+     * Return the CPU time of current thread
+     * @return the CPU time in nanoseconds, -1 if it's not measured
+     */
+    public static long currentThreadCpuTime() {
+        try {
+            return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the bytes allocated in heap by current thread
+     * @return the allocated bytes, -1 if it's not measured
+     */
+    public static long currentThreadAllocatedBytes() {
+        if (EXTENDED_THREAD_MX_BEAN == null) {
+            return -1;
+        }
+        try {
+            return EXTENDED_THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+}
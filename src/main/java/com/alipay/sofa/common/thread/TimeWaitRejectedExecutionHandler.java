@@ -19,7 +19,8 @@ package com.alipay.sofa.common.thread;
 import com.alipay.sofa.common.thread.log.ThreadLogger;
 import com.alipay.sofa.common.utils.TimeWaitRunner;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -58,13 +59,24 @@ public class TimeWaitRejectedExecutionHandler implements RejectedExecutionHandle
     }
 
     private String getAllStackTrace(SofaThreadPoolExecutor threadPoolExecutor) {
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<ExecutingRunnable, Long> entry : threadPoolExecutor.getStatistics()
-            .getExecutingTasks().entrySet()) {
-            for (StackTraceElement e : entry.getKey().thread.getStackTrace()) {
-                sb.append("    ").append(e).append("\n");
+        List<Thread> threads = new ArrayList<>();
+        for (ExecutingTaskSlot slot : threadPoolExecutor.getStatistics().getExecutingTaskSlots()) {
+            if (slot == null || slot.getTask() == null) {
+                continue;
+            }
+            Thread thread = slot.getThread();
+            if (thread != null) {
+                threads.add(thread);
             }
         }
+        // capture all the executing threads in one operation
+        StackTraceSampler sampler = StackTraceSampler.getInstance();
+        StackTraceElement[][] stacks = sampler.capture(threads.toArray(new Thread[0]));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stacks.length; i++) {
+            sb.append("    ").append(threads.get(i).getName()).append("\n")
+                .append(sampler.format(stacks[i])).append("\n");
+        }
         return sb.toString();
     }
 
@@ -379,6 +379,53 @@ public class VariableLinkedBlockingQueue<E> extends AbstractQueue<E> implements
         return true;
     }
 
+    /**
+     * Inserts the elements at the tail of this queue in order under one
+     * acquisition of the put lock, as many as the remaining capacity allows,
+     * waiting takes are signalled once.
+     *
+     * @param c the elements to add.
+     * @return the count of the added elements, they are the first ones
+     *         of the collection in iteration order
+     * @throws NullPointerException if the collection or any of its
+     *         elements is {@code null}
+     */
+    public int offerAll(Collection<? extends E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        for (E o : c) {
+            if (o == null)
+                throw new NullPointerException();
+        }
+        final AtomicInteger count = this.count;
+        if (c.isEmpty() || count.get() >= capacity)
+            return 0;
+        int added = 0;
+        int before = -1;
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            // takes only decrease the count, the room never shrinks while holding the lock
+            int room = capacity - count.get();
+            if (room > 0) {
+                Iterator<? extends E> it = c.iterator();
+                while (added < room && it.hasNext()) {
+                    insert(it.next());
+                    added++;
+                }
+                before = count.getAndAdd(added);
+                if (before + added < capacity)
+                    notFull.signal();
+            }
+        } finally {
+            putLock.unlock();
+        }
+        // takes signal each other while elements remain
+        if (before == 0)
+            signalNotEmpty();
+        return added;
+    }
+
     /**
      * Inserts the specified element at the tail of this queue if possible,
      * returning immediately if this queue is full.
@@ -0,0 +1,603 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A multi-producer multi-consumer {@link BlockingQueue} with a {@link #setCapacity(int)}
+ * method like {@link VariableLinkedBlockingQueue}, it can be used as the work queue of
+ * {@link SofaThreadPoolExecutor} in place of it.
+ * <p>
+ * Elements are stored in linked array segments of {@link #SEGMENT_SIZE} slots instead of
+ * one node per element. Producers claim a slot by incrementing the tail index and
+ * consumers by a CAS on the head index, so non-blocking {@link #offer(Object)} and
+ * {@link #poll()} take no lock. The capacity is a logical bound checked by a CAS on the
+ * element count, so it can be changed at any time. Locks are only taken to park and
+ * signal threads waiting in {@link #take()}, {@link #put(Object)} and the timed variants.
+ * <p>
+ * A consumer which claims a slot whose producer has not written the element yet spins
+ * until it's written. {@link #remove(Object)} marks the slot as removed and consumers skip
+ * it. Iterators are weakly consistent snapshots.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class VariableSegmentBlockingQueue<E> extends AbstractQueue<E> implements
+                                                                      BlockingQueue<E> {
+
+    /**
+     * The slot count of one segment
+     */
+    public static final int               SEGMENT_SIZE    = 1024;
+
+    private static final int              SEGMENT_MASK    = SEGMENT_SIZE - 1;
+
+    private static final int              SPIN_TRIES      = 64;
+
+    /** Marks a slot whose element has been taken */
+    private static final Object           TAKEN           = new Object();
+
+    /** Marks a slot whose element has been removed by {@link #remove(Object)} */
+    private static final Object           REMOVED         = new Object();
+
+    /**
+     * Array segment of the queue, slots are written once and never reused
+     */
+    static final class Segment {
+        final long                          base;
+        final AtomicReferenceArray<Object>  slots = new AtomicReferenceArray<>(SEGMENT_SIZE);
+        final AtomicReference<Segment>      next  = new AtomicReference<>();
+
+        Segment(long base) {
+            this.base = base;
+        }
+    }
+
+    /** The capacity bound, or Integer.MAX_VALUE if none */
+    private volatile int                  capacity;
+
+    /** Current number of elements */
+    private final AtomicInteger           count           = new AtomicInteger();
+
+    /** Index of the next slot to take */
+    private final AtomicLong              head            = new AtomicLong();
+
+    /** Index of the next slot to put */
+    private final AtomicLong              tail            = new AtomicLong();
+
+    /** The segment of the head index or an earlier one */
+    private final AtomicReference<Segment> headSegment;
+
+    /** The segment of the tail index or an earlier one */
+    private final AtomicReference<Segment> tailSegment;
+
+    /** Number of threads waiting in take and timed poll */
+    private final AtomicInteger           waitingTakers   = new AtomicInteger();
+
+    /** Lock held by waiting takes */
+    private final ReentrantLock           takeLock        = new ReentrantLock();
+
+    /** Wait queue for waiting takes */
+    private final Condition               notEmpty        = takeLock.newCondition();
+
+    /** Number of threads waiting in put and timed offer */
+    private final AtomicInteger           waitingPutters  = new AtomicInteger();
+
+    /** Lock held by waiting puts */
+    private final ReentrantLock           putLock         = new ReentrantLock();
+
+    /** Wait queue for waiting puts */
+    private final Condition               notFull         = putLock.newCondition();
+
+    /**
+     * Creates a {@code VariableSegmentBlockingQueue} with a capacity of
+     * {@link Integer#MAX_VALUE}.
+     */
+    public VariableSegmentBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a {@code VariableSegmentBlockingQueue} with the given capacity.
+     *
+     * @param capacity the capacity of this queue.
+     * @throws IllegalArgumentException if {@code capacity} is not greater
+     *         than zero.
+     */
+    public VariableSegmentBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        Segment first = new Segment(0);
+        this.headSegment = new AtomicReference<>(first);
+        this.tailSegment = new AtomicReference<>(first);
+    }
+
+    /**
+     * Creates a {@code VariableSegmentBlockingQueue} with a capacity of
+     * {@link Integer#MAX_VALUE}, initially containing the elements of the
+     * given collection, added in traversal order of the collection's iterator.
+     * @param c the collection of elements to initially contain
+     * @throws NullPointerException if {@code c} or any element within it
+     * is {@code null}
+     */
+    public VariableSegmentBlockingQueue(Collection<? extends E> c) {
+        this(Integer.MAX_VALUE);
+        for (E e : c) {
+            add(e);
+        }
+    }
+
+    /**
+     * Set a new capacity for the queue. Increasing the capacity can
+     * cause any waiting {@link #put(Object)} invocations to succeed if the new
+     * capacity is larger than the queue.
+     * @param capacity the new capacity for the queue
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        if (waitingPutters.get() > 0) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                putLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the capacity of this queue
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - count.get();
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!tryAcquire()) {
+            return false;
+        }
+        enqueue(e);
+        return true;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!tryAcquire()) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lockInterruptibly();
+            try {
+                waitingPutters.incrementAndGet();
+                try {
+                    while (!tryAcquire()) {
+                        notFull.await();
+                    }
+                } catch (InterruptedException ie) {
+                    notFull.signal(); // propagate to a non-interrupted thread
+                    throw ie;
+                } finally {
+                    waitingPutters.decrementAndGet();
+                }
+            } finally {
+                putLock.unlock();
+            }
+        }
+        enqueue(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!tryAcquire()) {
+            long nanos = unit.toNanos(timeout);
+            final ReentrantLock putLock = this.putLock;
+            putLock.lockInterruptibly();
+            try {
+                waitingPutters.incrementAndGet();
+                try {
+                    while (!tryAcquire()) {
+                        if (nanos <= 0) {
+                            return false;
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException ie) {
+                    notFull.signal(); // propagate to a non-interrupted thread
+                    throw ie;
+                } finally {
+                    waitingPutters.decrementAndGet();
+                }
+            } finally {
+                putLock.unlock();
+            }
+        }
+        enqueue(e);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        for (;;) {
+            // read the segment before claiming, it's never after the claimed index
+            Segment segment = headSegment.get();
+            long index = head.get();
+            if (index >= tail.get()) {
+                return null;
+            }
+            if (!head.compareAndSet(index, index + 1)) {
+                continue;
+            }
+            Object item = takeSlot(locate(segment, index, headSegment), index);
+            if (item != REMOVED) {
+                afterTake();
+                return cast(item);
+            }
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            waitingTakers.incrementAndGet();
+            try {
+                while ((e = poll()) == null) {
+                    notEmpty.await();
+                }
+            } catch (InterruptedException ie) {
+                notEmpty.signal(); // propagate to a non-interrupted thread
+                throw ie;
+            } finally {
+                waitingTakers.decrementAndGet();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            waitingTakers.incrementAndGet();
+            try {
+                while ((e = poll()) == null) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } catch (InterruptedException ie) {
+                notEmpty.signal(); // propagate to a non-interrupted thread
+                throw ie;
+            } finally {
+                waitingTakers.decrementAndGet();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        Segment segment = headSegment.get();
+        long index = head.get();
+        long end = tail.get();
+        for (; index < end; index++) {
+            if (index >= segment.base + SEGMENT_SIZE) {
+                // the head segment may lag behind the head index by several segments
+                segment = find(segment, index);
+                if (segment == null) {
+                    return null;
+                }
+            }
+            Object item = segment.slots.get((int) (index & SEGMENT_MASK));
+            if (isElement(item)) {
+                return cast(item);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        Segment segment = headSegment.get();
+        long index = head.get();
+        long end = tail.get();
+        for (; index < end; index++) {
+            if (index >= segment.base + SEGMENT_SIZE) {
+                // the head segment may lag behind the head index by several segments
+                segment = find(segment, index);
+                if (segment == null) {
+                    return false;
+                }
+            }
+            int slot = (int) (index & SEGMENT_MASK);
+            Object item = segment.slots.get(slot);
+            if (isElement(item) && o.equals(item)
+                && segment.slots.compareAndSet(slot, item, REMOVED)) {
+                afterTake();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object[] toArray() {
+        return snapshot().toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        return snapshot().toArray(a);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            // drop all elements
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over a snapshot of the elements,
+     * {@link Iterator#remove()} removes the element from the queue.
+     * @return an iterator over the elements in this queue in proper sequence
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> it = snapshot().iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                VariableSegmentBlockingQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * Reserve one element of the capacity
+     * @return false if the queue is full
+     */
+    private boolean tryAcquire() {
+        final AtomicInteger count = this.count;
+        for (;;) {
+            int c = count.get();
+            if (c >= capacity) {
+                return false;
+            }
+            if (count.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Put the element to a claimed slot after the capacity is reserved
+     * @param e the element
+     */
+    private void enqueue(E e) {
+        // read the segment before claiming, it's never after the claimed index
+        Segment segment = tailSegment.get();
+        long index = tail.getAndIncrement();
+        locate(segment, index, tailSegment).slots.lazySet((int) (index & SEGMENT_MASK), e);
+        if (waitingTakers.get() > 0) {
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                takeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Release one element of the capacity after an element is taken or removed
+     */
+    private void afterTake() {
+        count.getAndDecrement();
+        if (waitingPutters.get() > 0) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                putLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Take the element of a claimed slot, wait for the producer if it's not written yet
+     * @return the element or {@link #REMOVED}
+     */
+    private static Object takeSlot(Segment segment, long index) {
+        int slot = (int) (index & SEGMENT_MASK);
+        int spins = 0;
+        while (segment.slots.get(slot) == null) {
+            if (++spins < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        return segment.slots.getAndSet(slot, TAKEN);
+    }
+
+    /**
+     * Find the segment of the index starting from the given segment, create the missing
+     * segments and advance the shared segment reference
+     */
+    private static Segment locate(Segment segment, long index,
+                                  AtomicReference<Segment> reference) {
+        Segment start = segment;
+        while (index >= segment.base + SEGMENT_SIZE) {
+            Segment next = segment.next.get();
+            if (next == null) {
+                Segment created = new Segment(segment.base + SEGMENT_SIZE);
+                next = segment.next.compareAndSet(null, created) ? created : segment.next.get();
+            }
+            segment = next;
+        }
+        if (segment != start) {
+            for (;;) {
+                Segment current = reference.get();
+                if (current.base >= segment.base || reference.compareAndSet(current, segment)) {
+                    break;
+                }
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Find the segment of the index starting from the given segment without creating segments
+     * @return the segment, or null if it's not linked yet
+     */
+    static Segment find(Segment segment, long index) {
+        while (segment != null && index >= segment.base + SEGMENT_SIZE) {
+            segment = segment.next.get();
+        }
+        return segment;
+    }
+
+    private List<E> snapshot() {
+        List<E> elements = new ArrayList<>();
+        Segment segment = headSegment.get();
+        long index = head.get();
+        long end = tail.get();
+        for (; index < end; index++) {
+            if (index >= segment.base + SEGMENT_SIZE) {
+                // the head segment may lag behind the head index by several segments
+                segment = find(segment, index);
+                if (segment == null) {
+                    break;
+                }
+            }
+            Object item = segment.slots.get((int) (index & SEGMENT_MASK));
+            if (isElement(item)) {
+                elements.add(cast(item));
+            }
+        }
+        return elements;
+    }
+
+    private static boolean isElement(Object item) {
+        return item != null && item != TAKEN && item != REMOVED;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E cast(Object item) {
+        return (E) item;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.context;
+
+/**
+ * SPI to carry a thread bound context, such as the MDC, the security context or the tenant,
+ * from the thread submitting a task to the worker thread running it.
+ * <p>
+ * Implementations are found by {@link java.util.ServiceLoader} or added by
+ * {@link ContextPropagation#addCarrier(ContextCarrier)}, the values of all the carriers are
+ * captured into one snapshot of the task.
+ */
+public interface ContextCarrier {
+
+    /**
+     * Capture the context of current thread, it's called on the submitting thread
+     * @return the captured value, may be null
+     */
+    Object capture();
+
+    /**
+     * Restore the captured value to current thread before the task runs
+     * @param captured the value returned by {@link #capture()}
+     * @return the previous value of current thread to pass to {@link #clear(Object)}
+     */
+    Object restore(Object captured);
+
+    /**
+     * Clear the restored value after the task runs
+     * @param previous the value returned by {@link #restore(Object)}
+     */
+    void clear(Object previous);
+}
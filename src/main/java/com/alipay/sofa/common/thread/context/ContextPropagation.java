@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.context;
+
+import com.alipay.sofa.common.thread.TaskWrapper;
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+
+/**
+ * Manage the {@link ContextCarrier}s, all the carriers found by {@link ServiceLoader} are
+ * loaded when this class is initialized.
+ * <p>
+ * The values of all the carriers are captured into one array, so a task allocates one
+ * snapshot no matter how many carriers are registered, and nothing is allocated when no
+ * carrier is registered. The snapshot keeps the carriers it's captured by, so a carrier
+ * added or removed while the task is queued doesn't break restoring it. The snapshot also
+ * holds the previous values while the task runs, so restoring allocates nothing, it
+ * shouldn't be restored by two threads at the same time.
+ */
+public class ContextPropagation {
+
+    private static final ContextCarrier[]    NO_CARRIERS = new ContextCarrier[0];
+
+    /** the registered carriers, copied on write so capturing doesn't iterate a list */
+    private static volatile ContextCarrier[] carriers    = load();
+
+    private static ContextCarrier[] load() {
+        List<ContextCarrier> loaded = new ArrayList<>();
+        try {
+            Iterator<ContextCarrier> iterator = ServiceLoader.load(ContextCarrier.class)
+                .iterator();
+            while (iterator.hasNext()) {
+                ContextCarrier carrier = iterator.next();
+                loaded.add(carrier);
+                ThreadLogger.info("Context carrier '{}' loaded", carrier.getClass().getName());
+            }
+        } catch (Throwable e) {
+            ThreadLogger.warn("Context carriers are failed to load: {}", e);
+        }
+        return loaded.isEmpty() ? NO_CARRIERS : loaded.toArray(new ContextCarrier[0]);
+    }
+
+    /**
+     * Add a carrier, it's captured by the tasks submitted after it's added
+     * @param carrier the carrier
+     */
+    public static synchronized void addCarrier(ContextCarrier carrier) {
+        if (carrier == null) {
+            throw new NullPointerException();
+        }
+        ContextCarrier[] current = carriers;
+        ContextCarrier[] added = Arrays.copyOf(current, current.length + 1);
+        added[current.length] = carrier;
+        carriers = added;
+    }
+
+    /**
+     * Remove a carrier, tasks captured by it are still restored by it
+     * @param carrier the carrier
+     */
+    public static synchronized void removeCarrier(ContextCarrier carrier) {
+        List<ContextCarrier> current = new ArrayList<>(Arrays.asList(carriers));
+        if (current.remove(carrier)) {
+            carriers = current.isEmpty() ? NO_CARRIERS : current.toArray(new ContextCarrier[0]);
+        }
+    }
+
+    /**
+     * Return the current carriers
+     * @return the carriers
+     */
+    public static List<ContextCarrier> getCarriers() {
+        return new ArrayList<>(Arrays.asList(carriers));
+    }
+
+    /**
+     * Capture the context of current thread by all the carriers
+     * @return the snapshot, null if no carrier is registered
+     */
+    public static Object[] capture() {
+        ContextCarrier[] current = carriers;
+        int count = current.length;
+        if (count == 0) {
+            return null;
+        }
+        // the carriers, then the captured values, then the previous values
+        Object[] snapshot = new Object[1 + 2 * count];
+        snapshot[0] = current;
+        for (int i = 0; i < count; i++) {
+            try {
+                snapshot[1 + i] = current[i].capture();
+            } catch (Throwable e) {
+                ThreadLogger.warn("Context carrier '{}' is failed to capture: {}", current[i], e);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Restore the snapshot to current thread before the task runs
+     * @param snapshot the snapshot from {@link #capture()}, nothing is done if it's null
+     */
+    public static void restore(Object[] snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        ContextCarrier[] captured = (ContextCarrier[]) snapshot[0];
+        int count = captured.length;
+        for (int i = 0; i < count; i++) {
+            try {
+                snapshot[1 + count + i] = captured[i].restore(snapshot[1 + i]);
+            } catch (Throwable e) {
+                ThreadLogger.warn("Context carrier '{}' is failed to restore: {}", captured[i], e);
+            }
+        }
+    }
+
+    /**
+     * Clear the restored snapshot after the task runs, the carriers are cleared in the
+     * reverse order of restoring
+     * @param snapshot the snapshot restored by {@link #restore(Object[])}
+     */
+    public static void clear(Object[] snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        ContextCarrier[] captured = (ContextCarrier[]) snapshot[0];
+        int count = captured.length;
+        for (int i = count - 1; i >= 0; i--) {
+            try {
+                captured[i].clear(snapshot[1 + count + i]);
+            } catch (Throwable e) {
+                ThreadLogger.warn("Context carrier '{}' is failed to clear: {}", captured[i], e);
+            }
+            snapshot[1 + count + i] = null;
+        }
+    }
+
+    /**
+     * Wrap the runnable to run with the context of current thread
+     * @param runnable the runnable
+     * @return the wrapped runnable, or the runnable itself if no carrier is registered
+     */
+    public static Runnable wrap(Runnable runnable) {
+        Object[] snapshot = capture();
+        return snapshot == null ? runnable : new PropagatingRunnable(runnable, snapshot);
+    }
+
+    /**
+     * Wrap the callable to run with the context of current thread
+     * @param callable the callable
+     * @param <V> the result type
+     * @return the wrapped callable, or the callable itself if no carrier is registered
+     */
+    public static <V> Callable<V> wrap(Callable<V> callable) {
+        Object[] snapshot = capture();
+        return snapshot == null ? callable : new PropagatingCallable<>(callable, snapshot);
+    }
+
+    /**
+     * The runnable restoring a snapshot, a periodic task restores the same snapshot in
+     * each execution
+     */
+    public static class PropagatingRunnable implements Runnable, TaskWrapper {
+
+        private final Runnable delegate;
+
+        private final Object[] snapshot;
+
+        PropagatingRunnable(Runnable delegate, Object[] snapshot) {
+            this.delegate = delegate;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void run() {
+            restore(snapshot);
+            try {
+                delegate.run();
+            } finally {
+                clear(snapshot);
+            }
+        }
+
+        @Override
+        public Object getWrappedTask() {
+            return delegate;
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    /**
+     * The callable restoring a snapshot
+     * @param <V> the result type
+     */
+    public static class PropagatingCallable<V> implements Callable<V>, TaskWrapper {
+
+        private final Callable<V> delegate;
+
+        private final Object[]    snapshot;
+
+        PropagatingCallable(Callable<V> delegate, Object[] snapshot) {
+            this.delegate = delegate;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public V call() throws Exception {
+            restore(snapshot);
+            try {
+                return delegate.call();
+            } finally {
+                clear(snapshot);
+            }
+        }
+
+        @Override
+        public Object getWrappedTask() {
+            return delegate;
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.metrics;
+
+import com.alipay.sofa.common.thread.ThreadPoolMonitorWrapper;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publish each registered thread pool as a {@link ThreadPoolMetricsMBean} to the platform
+ * {@link MBeanServer}, the object name is {@value #DOMAIN}:type=ThreadPool,name="identity".
+ * <p>
+ * It's not enabled by default, add it to
+ * META-INF/services/com.alipay.sofa.common.thread.metrics.ThreadPoolMetricsExporter
+ * or call {@link MetricsExporterManager#addExporter(ThreadPoolMetricsExporter)} to enable it.
+ */
+public class JmxThreadPoolMetricsExporter implements ThreadPoolMetricsExporter {
+
+    public static final String DOMAIN      = "com.alipay.sofa.common.thread";
+
+    private final MBeanServer  mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    @Override
+    public void register(ThreadPoolMonitorWrapper wrapper) {
+        try {
+            ObjectName objectName = getObjectName(wrapper.getThreadPoolConfig().getIdentity());
+            ThreadPoolMetrics metrics = new ThreadPoolMetrics(wrapper);
+            try {
+                mBeanServer.registerMBean(metrics, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                // a thread pool with the same identity is registered again
+                mBeanServer.unregisterMBean(objectName);
+                mBeanServer.registerMBean(metrics, objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void unregister(ThreadPoolMonitorWrapper wrapper) {
+        try {
+            mBeanServer.unregisterMBean(getObjectName(wrapper.getThreadPoolConfig().getIdentity()));
+        } catch (InstanceNotFoundException e) {
+            // ignore
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return the object name of the thread pool
+     * @param identity the identity of the thread pool
+     * @return the object name
+     * @throws JMException if the name is malformed
+     */
+    public static ObjectName getObjectName(String identity) throws JMException {
+        return new ObjectName(DOMAIN + ":type=ThreadPool,name=" + ObjectName.quote(identity));
+    }
+}
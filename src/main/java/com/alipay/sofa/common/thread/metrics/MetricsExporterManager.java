@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.metrics;
+
+import com.alipay.sofa.common.thread.ThreadPoolGovernor;
+import com.alipay.sofa.common.thread.ThreadPoolMonitorWrapper;
+import com.alipay.sofa.common.thread.log.ThreadLogger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Manage the {@link ThreadPoolMetricsExporter}s, all the exporters found by
+ * {@link ServiceLoader} are loaded when the first thread pool is registered
+ */
+public class MetricsExporterManager {
+
+    private static final List<ThreadPoolMetricsExporter> EXPORTERS = new CopyOnWriteArrayList<>(
+                                                                       load());
+
+    private static List<ThreadPoolMetricsExporter> load() {
+        List<ThreadPoolMetricsExporter> exporters = new ArrayList<>();
+        try {
+            Iterator<ThreadPoolMetricsExporter> iterator = ServiceLoader.load(
+                ThreadPoolMetricsExporter.class).iterator();
+            while (iterator.hasNext()) {
+                ThreadPoolMetricsExporter exporter = iterator.next();
+                exporters.add(exporter);
+                ThreadLogger.info("Thread pool metrics exporter '{}' loaded", exporter.getClass()
+                    .getName());
+            }
+        } catch (Throwable e) {
+            ThreadLogger.warn("Thread pool metrics exporters are failed to load: {}", e);
+        }
+        return exporters;
+    }
+
+    /**
+     * Add an exporter, the registered thread pools are registered to it at once
+     * @param exporter the exporter
+     */
+    public static void addExporter(ThreadPoolMetricsExporter exporter) {
+        if (exporter == null) {
+            throw new NullPointerException();
+        }
+        EXPORTERS.add(exporter);
+        for (ThreadPoolMonitorWrapper wrapper : ThreadPoolGovernor.getInstance()
+            .getAllThreadPoolWrappers()) {
+            register(exporter, wrapper);
+        }
+    }
+
+    /**
+     * Remove an exporter, the registered thread pools are unregistered from it
+     * @param exporter the exporter
+     */
+    public static void removeExporter(ThreadPoolMetricsExporter exporter) {
+        if (!EXPORTERS.remove(exporter)) {
+            return;
+        }
+        for (ThreadPoolMonitorWrapper wrapper : ThreadPoolGovernor.getInstance()
+            .getAllThreadPoolWrappers()) {
+            unregister(exporter, wrapper);
+        }
+    }
+
+    /**
+     * Return the current exporters
+     * @return the exporters
+     */
+    public static List<ThreadPoolMetricsExporter> getExporters() {
+        return new ArrayList<>(EXPORTERS);
+    }
+
+    /**
+     * Called by the {@link ThreadPoolGovernor} when a thread pool is registered
+     * @param wrapper the registered thread pool
+     */
+    public static void onRegister(ThreadPoolMonitorWrapper wrapper) {
+        for (ThreadPoolMetricsExporter exporter : EXPORTERS) {
+            register(exporter, wrapper);
+        }
+    }
+
+    /**
+     * Called by the {@link ThreadPoolGovernor} when a thread pool is unregistered
+     * @param wrapper the unregistered thread pool
+     */
+    public static void onUnregister(ThreadPoolMonitorWrapper wrapper) {
+        for (ThreadPoolMetricsExporter exporter : EXPORTERS) {
+            unregister(exporter, wrapper);
+        }
+    }
+
+    private static void register(ThreadPoolMetricsExporter exporter,
+                                 ThreadPoolMonitorWrapper wrapper) {
+        try {
+            exporter.register(wrapper);
+        } catch (Throwable e) {
+            ThreadLogger.warn("Thread pool '{}' is failed to register to metrics exporter {}: {}",
+                wrapper.getThreadPoolConfig().getIdentity(), exporter, e);
+        }
+    }
+
+    private static void unregister(ThreadPoolMetricsExporter exporter,
+                                   ThreadPoolMonitorWrapper wrapper) {
+        try {
+            exporter.unregister(wrapper);
+        } catch (Throwable e) {
+            ThreadLogger.warn(
+                "Thread pool '{}' is failed to unregister from metrics exporter {}: {}", wrapper
+                    .getThreadPoolConfig().getIdentity(), exporter, e);
+        }
+    }
+}
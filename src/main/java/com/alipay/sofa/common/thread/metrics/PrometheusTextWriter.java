@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.metrics;
+
+import com.alipay.sofa.common.thread.ThreadPoolGovernor;
+import com.alipay.sofa.common.thread.ThreadPoolMonitorWrapper;
+import com.alipay.sofa.common.thread.ThreadPoolSnapshot;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Write the metrics of the registered thread pools in the Prometheus text exposition format,
+ * it's meant to be called by the scrape endpoint of the application. Each thread pool is
+ * labeled by it's identity and space name, times are in seconds.
+ */
+public class PrometheusTextWriter {
+
+    private static final String PREFIX = "sofa_thread_pool_";
+
+    private PrometheusTextWriter() {
+    }
+
+    /**
+     * Write the metrics of all thread pools registered in the {@link ThreadPoolGovernor}, the
+     * snapshot shared with the other readers is used, so concurrent scrapes sample the thread
+     * pools once
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    public static void write(Appendable out) throws IOException {
+        write(out, ThreadPoolGovernor.getInstance().getSharedSnapshot());
+    }
+
+    /**
+     * Write the metrics of the thread pools
+     * @param out the output
+     * @param wrappers the thread pools
+     * @throws IOException if the output fails
+     */
+    public static void write(Appendable out, Collection<ThreadPoolMonitorWrapper> wrappers)
+                                                                                           throws IOException {
+        write(out, new ThreadPoolSnapshot().fill(wrappers));
+    }
+
+    /**
+     * Write the metrics of the thread pools sampled in the snapshot
+     * @param out the output
+     * @param snapshot the sampled thread pools
+     * @throws IOException if the output fails
+     */
+    public static void write(Appendable out, ThreadPoolSnapshot snapshot) throws IOException {
+        writeFamily(out, snapshot, "queue_size", "gauge", "The count of queued tasks",
+            ThreadPoolSnapshot.QUEUE_SIZE);
+        writeFamily(out, snapshot, "pool_size", "gauge", "The count of worker threads",
+            ThreadPoolSnapshot.POOL_SIZE);
+        writeFamily(out, snapshot, "core_pool_size", "gauge", "The core pool size",
+            ThreadPoolSnapshot.CORE_POOL_SIZE);
+        writeFamily(out, snapshot, "maximum_pool_size", "gauge", "The maximum pool size",
+            ThreadPoolSnapshot.MAXIMUM_POOL_SIZE);
+        writeFamily(out, snapshot, "executing_tasks", "gauge", "The count of executing tasks",
+            ThreadPoolSnapshot.EXECUTING_TASK_COUNT);
+        writeFamily(out, snapshot, "decayed_tasks", "gauge",
+            "The count of executing tasks exceeding the task timeout",
+            ThreadPoolSnapshot.DECAYED_TASK_COUNT);
+        writeFamily(out, snapshot, "tasks_total", "counter", "The count of finished tasks",
+            ThreadPoolSnapshot.TASK_COUNT);
+        writeFamily(out, snapshot, "expired_tasks_total", "counter",
+            "The count of tasks dropped by the work queue since their deadline passed",
+            ThreadPoolSnapshot.EXPIRED_TASK_COUNT);
+        writeFamily(out, snapshot, "shed_tasks_total", "counter",
+            "The count of tasks shed by the executor before they are queued",
+            ThreadPoolSnapshot.SHED_TASK_COUNT);
+        writeSecondsFamily(out, snapshot, "running_seconds_total",
+            "The total running time of finished tasks", ThreadPoolSnapshot.RUNNING_TIME);
+        writeSecondsFamily(out, snapshot, "stay_in_queue_seconds_total",
+            "The total stay in queue time of finished tasks", ThreadPoolSnapshot.STAY_IN_QUEUE_TIME);
+        writeSecondsFamily(out, snapshot, "cpu_seconds_total",
+            "The total CPU time of finished tasks, only measured when enabled",
+            ThreadPoolSnapshot.CPU_TIME);
+        writeFamily(out, snapshot, "allocated_bytes_total", "counter",
+            "The total heap bytes allocated by finished tasks, only measured when enabled",
+            ThreadPoolSnapshot.ALLOCATED_BYTES);
+    }
+
+    /**
+     * Write a family of the pools, negative values mean not available and are skipped
+     */
+    private static void writeFamily(Appendable out, ThreadPoolSnapshot snapshot, String name,
+                                    String type, String help, int field) throws IOException {
+        writeHeader(out, name, type, help);
+        for (int i = 0; i < snapshot.size(); i++) {
+            long value = snapshot.get(i, field);
+            if (value >= 0) {
+                writeLabels(out, name, snapshot, i);
+                out.append(Long.toString(value)).append('\n');
+            }
+        }
+    }
+
+    private static void writeSecondsFamily(Appendable out, ThreadPoolSnapshot snapshot,
+                                           String name, String help, int field) throws IOException {
+        writeHeader(out, name, "counter", help);
+        for (int i = 0; i < snapshot.size(); i++) {
+            long value = snapshot.get(i, field);
+            if (value >= 0) {
+                writeLabels(out, name, snapshot, i);
+                out.append(Double.toString(toSeconds(value))).append('\n');
+            }
+        }
+    }
+
+    private static void writeHeader(Appendable out, String name, String type, String help)
+                                                                                          throws IOException {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeLabels(Appendable out, String name, ThreadPoolSnapshot snapshot,
+                                    int index) throws IOException {
+        out.append(PREFIX).append(name).append("{pool=\"");
+        appendLabelValue(out, snapshot.getIdentity(index));
+        out.append("\",space=\"");
+        appendLabelValue(out, snapshot.getSpaceName(index));
+        out.append("\"} ");
+    }
+
+    private static void appendLabelValue(Appendable out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '"') {
+                out.append("\\\"");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
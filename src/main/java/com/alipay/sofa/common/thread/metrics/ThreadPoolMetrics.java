@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.metrics;
+
+import com.alipay.sofa.common.thread.ThreadPoolGovernor;
+import com.alipay.sofa.common.thread.ThreadPoolMonitorWrapper;
+import com.alipay.sofa.common.thread.ThreadPoolSnapshot;
+import com.alipay.sofa.common.thread.ThreadPoolStatistics;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of a registered thread pool, the sampled values are read from the snapshot
+ * shared by all the readers, see {@link ThreadPoolGovernor#getSharedSnapshot()}, so reading
+ * all the attributes samples the thread pool once. The values not in the snapshot are read
+ * from the {@link ThreadPoolStatistics}, the task count and times are cumulative and never reset
+ */
+public class ThreadPoolMetrics implements ThreadPoolMetricsMBean {
+
+    private final ThreadPoolMonitorWrapper wrapper;
+
+    public ThreadPoolMetrics(ThreadPoolMonitorWrapper wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    @Override
+    public String getIdentity() {
+        return wrapper.getThreadPoolConfig().getIdentity();
+    }
+
+    @Override
+    public String getThreadPoolName() {
+        return wrapper.getThreadPoolConfig().getThreadPoolName();
+    }
+
+    @Override
+    public String getSpaceName() {
+        return wrapper.getThreadPoolConfig().getSpaceName();
+    }
+
+    @Override
+    public long getQueueSize() {
+        return getSampled(ThreadPoolSnapshot.QUEUE_SIZE, wrapper.getThreadPoolStatistics()::getQueueSize);
+    }
+
+    @Override
+    public long getPoolSize() {
+        return getSampled(ThreadPoolSnapshot.POOL_SIZE, wrapper.getThreadPoolStatistics()::getPoolSize);
+    }
+
+    /**
+     * @return the core pool size, -1 if the executor is not a {@link ThreadPoolExecutor}
+     */
+    @Override
+    public int getCorePoolSize() {
+        return (int) getSampled(ThreadPoolSnapshot.CORE_POOL_SIZE, () -> {
+            ThreadPoolExecutor executor = wrapper.getThreadPoolExecutor();
+            return executor == null ? -1 : executor.getCorePoolSize();
+        });
+    }
+
+    /**
+     * @return the maximum pool size, -1 if the executor is not a {@link ThreadPoolExecutor}
+     */
+    @Override
+    public int getMaximumPoolSize() {
+        return (int) getSampled(ThreadPoolSnapshot.MAXIMUM_POOL_SIZE, () -> {
+            ThreadPoolExecutor executor = wrapper.getThreadPoolExecutor();
+            return executor == null ? -1 : executor.getMaximumPoolSize();
+        });
+    }
+
+    @Override
+    public int getExecutingTaskCount() {
+        return (int) getSampled(ThreadPoolSnapshot.EXECUTING_TASK_COUNT,
+            wrapper.getThreadPoolStatistics()::getExecutingTaskCount);
+    }
+
+    @Override
+    public int getDecayedTaskCount() {
+        return (int) getSampled(ThreadPoolSnapshot.DECAYED_TASK_COUNT, () -> wrapper
+            .getThreadPoolStatistics().getDecayedTaskCount(
+                TimeUnit.MILLISECONDS.toNanos(wrapper.getThreadPoolConfig().getTaskTimeoutMilli()),
+                System.nanoTime()));
+    }
+
+    @Override
+    public long getTaskCount() {
+        return getSampled(ThreadPoolSnapshot.TASK_COUNT,
+            wrapper.getThreadPoolStatistics()::getCumulativeTaskCount);
+    }
+
+    @Override
+    public long getRunningTime() {
+        return TimeUnit.NANOSECONDS.toMillis(getRunningTimeNanos());
+    }
+
+    @Override
+    public long getStayInQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(getStayInQueueTimeNanos());
+    }
+
+    @Override
+    public long getExpiredTaskCount() {
+        return getSampled(ThreadPoolSnapshot.EXPIRED_TASK_COUNT,
+            wrapper.getThreadPoolStatistics()::getExpiredTaskCount);
+    }
+
+    @Override
+    public long getShedTaskCount() {
+        return getSampled(ThreadPoolSnapshot.SHED_TASK_COUNT,
+            wrapper.getThreadPoolStatistics()::getShedTaskCount);
+    }
+
+    /**
+     * @return the cumulative CPU time of measured tasks, 0 if the resource accounting is
+     * never enabled
+     */
+    @Override
+    public long getCpuTime() {
+        return TimeUnit.NANOSECONDS.toMillis(wrapper.getThreadPoolStatistics()
+            .getCumulativeCpuTimeNanos());
+    }
+
+    /**
+     * @return the cumulative heap bytes allocated by measured tasks, 0 if the resource
+     * accounting is never enabled
+     */
+    @Override
+    public long getAllocatedBytes() {
+        return wrapper.getThreadPoolStatistics().getCumulativeAllocatedBytes();
+    }
+
+    /**
+     * @return whether the CPU time and allocated bytes of tasks are measured
+     */
+    public boolean isResourceAccountingEnabled() {
+        return wrapper.getThreadPoolStatistics().isResourceAccountingEnabled();
+    }
+
+    /**
+     * @return the cumulative CPU time of measured tasks in nanoseconds
+     */
+    public long getCpuTimeNanos() {
+        return wrapper.getThreadPoolStatistics().getCumulativeCpuTimeNanos();
+    }
+
+    /**
+     * @return the cumulative running time in nanoseconds
+     */
+    public long getRunningTimeNanos() {
+        return getSampled(ThreadPoolSnapshot.RUNNING_TIME,
+            wrapper.getThreadPoolStatistics()::getCumulativeRunningTimeNanos);
+    }
+
+    /**
+     * @return the cumulative stay in queue time in nanoseconds
+     */
+    public long getStayInQueueTimeNanos() {
+        return getSampled(ThreadPoolSnapshot.STAY_IN_QUEUE_TIME,
+            wrapper.getThreadPoolStatistics()::getCumulativeStayInQueueTimeNanos);
+    }
+
+    @Override
+    public long getLastIntervalTaskCount() {
+        return wrapper.getThreadPoolStatistics().getLastInterval().getTaskCount();
+    }
+
+    @Override
+    public long getLastIntervalAverageRunningTime() {
+        return wrapper.getThreadPoolStatistics().getLastInterval().getAverageRunningTime();
+    }
+
+    @Override
+    public long getLastIntervalAverageStayInQueueTime() {
+        return wrapper.getThreadPoolStatistics().getLastInterval().getAverageStayInQueueTime();
+    }
+
+    /**
+     * Read the value from the shared snapshot, the live value is read if the thread pool is
+     * registered after the snapshot is sampled
+     */
+    private long getSampled(int field, LongSupplier live) {
+        ThreadPoolSnapshot snapshot = ThreadPoolGovernor.getInstance().getSharedSnapshot();
+        int index = snapshot.indexOf(getIdentity());
+        return index < 0 ? live.getAsLong() : snapshot.get(index, field);
+    }
+}
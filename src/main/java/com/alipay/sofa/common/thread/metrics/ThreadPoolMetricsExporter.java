@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.metrics;
+
+import com.alipay.sofa.common.thread.ThreadPoolGovernor;
+import com.alipay.sofa.common.thread.ThreadPoolMonitorWrapper;
+
+/**
+ * The SPI to publish the metrics of the thread pools registered in the {@link ThreadPoolGovernor},
+ * implementations are loaded by {@link java.util.ServiceLoader} or added by
+ * {@link MetricsExporterManager#addExporter(ThreadPoolMetricsExporter)}.
+ * <p>
+ * Exporters are notified when a thread pool is registered or unregistered, the metrics should
+ * be read from {@link ThreadPoolMonitorWrapper#getThreadPoolStatistics()} when they are collected,
+ * so nothing is computed while no one is collecting.
+ */
+public interface ThreadPoolMetricsExporter {
+
+    /**
+     * Start to publish the metrics of the thread pool, it's called on the registering thread
+     * @param wrapper the registered thread pool
+     */
+    void register(ThreadPoolMonitorWrapper wrapper);
+
+    /**
+     * Stop to publish the metrics of the thread pool
+     * @param wrapper the unregistered thread pool
+     */
+    void unregister(ThreadPoolMonitorWrapper wrapper);
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.metrics;
+
+/**
+ * The JMX view of a registered thread pool, times are in milliseconds
+ */
+public interface ThreadPoolMetricsMBean {
+
+    String getIdentity();
+
+    String getThreadPoolName();
+
+    String getSpaceName();
+
+    long getQueueSize();
+
+    long getPoolSize();
+
+    int getCorePoolSize();
+
+    int getMaximumPoolSize();
+
+    int getExecutingTaskCount();
+
+    int getDecayedTaskCount();
+
+    long getTaskCount();
+
+    long getRunningTime();
+
+    long getStayInQueueTime();
+
+    long getExpiredTaskCount();
+
+    long getShedTaskCount();
+
+    long getCpuTime();
+
+    long getAllocatedBytes();
+
+    long getLastIntervalTaskCount();
+
+    long getLastIntervalAverageRunningTime();
+
+    long getLastIntervalAverageStayInQueueTime();
+}
@@ -16,8 +16,12 @@
  */
 package com.alipay.sofa.common.thread.space;
 
+import com.alipay.sofa.common.thread.ThreadPoolSpaceStatistics;
+
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -31,6 +35,10 @@ public class ThreadPoolSpace {
 
     private final AtomicInteger threadPoolNumber = new AtomicInteger(0);
 
+    private final ThreadPoolSpaceStatistics statistics = new ThreadPoolSpaceStatistics();
+
+    private volatile int maxThreads;
+
     public void addThreadPool(String identify) {
         this.threadPoolIdentities.add(identify);
     }
@@ -43,7 +51,37 @@ public class ThreadPoolSpace {
         return threadPoolIdentities;
     }
 
+    /**
+     * Return a copy of the identities which is safe to iterate
+     * @return the identities
+     */
+    public List<String> getThreadPoolIdentitiesSnapshot() {
+        synchronized (threadPoolIdentities) {
+            return new ArrayList<>(threadPoolIdentities);
+        }
+    }
+
     public int getThreadPoolNumber() {
         return threadPoolNumber.getAndIncrement();
     }
+
+    /**
+     * The aggregated statistics of the thread pools in this space
+     * @return the statistics
+     */
+    public ThreadPoolSpaceStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * The max total threads of the thread pools in this space, 0 if it's unlimited
+     * @return the thread budget
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class AdaptiveSizingPolicyTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        AdaptiveSizingPolicy.newBuilder().minPoolSize(4).maxPoolSize(2).build();
+    }
+
+    @Test
+    public void testResizeWithHysteresis() throws Exception {
+        VariableLinkedBlockingQueue<Runnable> queue = new VariableLinkedBlockingQueue<>(100);
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            queue, "adaptiveSizingPool");
+        try {
+            // set by the config directly, the governor task is not scheduled
+            executor.getConfig().setAdaptiveSizingPolicy(
+                AdaptiveSizingPolicy.newBuilder().minPoolSize(1).maxPoolSize(3).stableIntervals(2)
+                    .queueCapacityPerThread(10).build());
+            ThreadPoolMonitorWrapper wrapper = ThreadPoolGovernor.getInstance()
+                .getThreadPoolMonitorWrapper(executor.getConfig().getIdentity());
+
+            // the queue capacity follows the core pool size once the policy is applied
+            wrapper.adjustPoolSize();
+            Assert.assertEquals(1, executor.getCorePoolSize());
+            Assert.assertEquals(10, queue.remainingCapacity());
+
+            final CountDownLatch blocker = new CountDownLatch(1);
+            for (int i = 0; i < 3; i++) {
+                executor.execute(() -> {
+                    try {
+                        blocker.await();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                });
+            }
+
+            // overloaded once is not enough
+            wrapper.adjustPoolSize();
+            Assert.assertEquals(1, executor.getCorePoolSize());
+            wrapper.adjustPoolSize();
+            Assert.assertEquals(2, executor.getCorePoolSize());
+            Assert.assertEquals(2, executor.getMaximumPoolSize());
+            Assert.assertEquals(20, queue.remainingCapacity() + queue.size());
+
+            blocker.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (executor.getCompletedTaskCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(3, executor.getCompletedTaskCount());
+
+            for (int i = 0; i < 3; i++) {
+                wrapper.adjustPoolSize();
+            }
+            Assert.assertEquals(1, executor.getCorePoolSize());
+            Assert.assertEquals(1, executor.getMaximumPoolSize());
+            Assert.assertEquals(10, queue.remainingCapacity());
+
+            // never below the lower bound
+            for (int i = 0; i < 4; i++) {
+                wrapper.adjustPoolSize();
+            }
+            Assert.assertEquals(1, executor.getCorePoolSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testResizeWithinSpaceBudget() throws Exception {
+        ThreadPoolGovernor.getInstance().setSpaceThreadBudget("adaptiveBudgetSpace", 3);
+        SofaThreadPoolExecutor other = new SofaThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+            new VariableLinkedBlockingQueue<>(100), "otherBudgetPool", "adaptiveBudgetSpace");
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new VariableLinkedBlockingQueue<>(100), "adaptiveBudgetPool", "adaptiveBudgetSpace");
+        final CountDownLatch blocker = new CountDownLatch(1);
+        try {
+            executor.getConfig().setAdaptiveSizingPolicy(
+                AdaptiveSizingPolicy.newBuilder().minPoolSize(1).maxPoolSize(4).stableIntervals(1)
+                    .build());
+            ThreadPoolMonitorWrapper wrapper = ThreadPoolGovernor.getInstance()
+                .getThreadPoolMonitorWrapper(executor.getConfig().getIdentity());
+            wrapper.adjustPoolSize();
+            for (int i = 0; i < 3; i++) {
+                executor.execute(() -> {
+                    try {
+                        blocker.await();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                });
+            }
+
+            // the budget leaves one thread, the core pool size can't grow beyond it
+            wrapper.adjustPoolSize();
+            wrapper.adjustPoolSize();
+            Assert.assertEquals(1, executor.getCorePoolSize());
+            Assert.assertEquals(1, executor.getMaximumPoolSize());
+        } finally {
+            blocker.countDown();
+            executor.shutdown();
+            other.shutdown();
+            ThreadPoolGovernor.getInstance().setSpaceThreadBudget("adaptiveBudgetSpace", 0);
+        }
+    }
+}
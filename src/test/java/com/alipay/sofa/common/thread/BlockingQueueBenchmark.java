@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the work queues with 1/4/16/64 producers offering to 4 consumers polling,
+ * it's not run by surefire, run {@link #main(String[])} from the test classpath.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockingQueueBenchmark {
+
+    private static final Integer   ELEMENT = 1;
+
+    @Param({ "VariableSegmentBlockingQueue", "VariableLinkedBlockingQueue", "LinkedBlockingQueue" })
+    public String                  queueType;
+
+    @Param({ "1024" })
+    public int                     capacity;
+
+    private BlockingQueue<Integer> queue;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        switch (queueType) {
+            case "VariableSegmentBlockingQueue":
+                queue = new VariableSegmentBlockingQueue<>(capacity);
+                break;
+            case "VariableLinkedBlockingQueue":
+                queue = new VariableLinkedBlockingQueue<>(capacity);
+                break;
+            case "LinkedBlockingQueue":
+                queue = new LinkedBlockingQueue<>(capacity);
+                break;
+            default:
+                throw new IllegalArgumentException(queueType);
+        }
+    }
+
+    @Benchmark
+    @Group("p1")
+    @GroupThreads(1)
+    public boolean offer1() {
+        return queue.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("p1")
+    @GroupThreads(4)
+    public Integer poll1() {
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("p4")
+    @GroupThreads(4)
+    public boolean offer4() {
+        return queue.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("p4")
+    @GroupThreads(4)
+    public Integer poll4() {
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("p16")
+    @GroupThreads(16)
+    public boolean offer16() {
+        return queue.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("p16")
+    @GroupThreads(4)
+    public Integer poll16() {
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("p64")
+    @GroupThreads(64)
+    public boolean offer64() {
+        return queue.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("p64")
+    @GroupThreads(4)
+    public Integer poll64() {
+        return queue.poll();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(BlockingQueueBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
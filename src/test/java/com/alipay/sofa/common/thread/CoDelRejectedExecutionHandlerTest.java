@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class CoDelRejectedExecutionHandlerTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testStandingQueue() {
+        CoDelRejectedExecutionHandler handler = new CoDelRejectedExecutionHandler(
+            new ThreadPoolExecutor.DiscardPolicy(), 5, 100, TimeUnit.MILLISECONDS);
+        long now = System.nanoTime();
+        // a short burst doesn't last the interval
+        handler.onDequeue(50 * MILLIS, now + 10 * MILLIS);
+        handler.onDequeue(MILLIS, now + 20 * MILLIS);
+        handler.onDequeue(50 * MILLIS, now + 100 * MILLIS);
+        Assert.assertFalse(handler.isOverloaded());
+        Assert.assertFalse(handler.shouldShed(now + 100 * MILLIS));
+
+        // a standing queue lasts the whole interval
+        handler.onDequeue(20 * MILLIS, now + 150 * MILLIS);
+        handler.onDequeue(30 * MILLIS, now + 200 * MILLIS);
+        Assert.assertTrue(handler.isOverloaded());
+        Assert.assertTrue(handler.shouldShed(now + 210 * MILLIS));
+        // nothing dequeued for an interval
+        Assert.assertFalse(handler.shouldShed(now + 400 * MILLIS));
+
+        // the queue is short enough
+        handler.onDequeue(8 * MILLIS, now + 250 * MILLIS);
+        Assert.assertFalse(handler.shouldShed(now + 250 * MILLIS));
+        handler.onDequeue(MILLIS, now + 310 * MILLIS);
+        Assert.assertFalse(handler.isOverloaded());
+    }
+
+    @Test
+    public void testShedOfThreadPool() throws Exception {
+        CoDelRejectedExecutionHandler handler = new CoDelRejectedExecutionHandler(
+            new ThreadPoolExecutor.DiscardPolicy(), 5, 50, TimeUnit.MILLISECONDS);
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), handler);
+        // five times more tasks than the pool can run
+        long deadline = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < deadline) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            });
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(handler.getShedCount() > 0);
+        Assert.assertEquals(handler.getShedCount(), executor.getStatistics().getShedTaskCount());
+        Assert.assertEquals(0, handler.getRejectedCount());
+        executor.shutdownNow();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.context.ContextCarrier;
+import com.alipay.sofa.common.thread.context.ContextPropagation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+public class DeadlineBlockingQueueTest {
+
+    @Test
+    public void testOrderAndExpire() throws Exception {
+        DeadlineBlockingQueue queue = new DeadlineBlockingQueue(10, 4);
+        final AtomicInteger handled = new AtomicInteger();
+        queue.setExpiredTaskHandler(task -> handled.incrementAndGet());
+        long now = System.nanoTime();
+        Runnable plain = () -> {};
+        Runnable late = new Task(now + TimeUnit.MINUTES.toNanos(2));
+        Runnable early = new Task(now + TimeUnit.MINUTES.toNanos(1));
+        Runnable expired = new Task(now - 1);
+        Assert.assertTrue(queue.offer(plain));
+        Assert.assertTrue(queue.offer(late));
+        Assert.assertTrue(queue.offer(new ExecutingRunnable(early)));
+        Assert.assertTrue(queue.offer(expired));
+        Assert.assertEquals(4, queue.size());
+        Assert.assertSame(expired, queue.peek());
+        Assert.assertEquals(4, queue.toArray().length);
+
+        Assert.assertSame(early, ((ExecutingRunnable) queue.take()).originRunnable);
+        Assert.assertEquals(1, queue.getExpiredCount());
+        Assert.assertEquals(1, handled.get());
+        Assert.assertSame(late, queue.poll());
+        // tasks without deadline are after the ones with deadline
+        Assert.assertSame(plain, queue.poll(1, TimeUnit.SECONDS));
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testFifoAcrossStripes() throws Exception {
+        DeadlineBlockingQueue queue = new DeadlineBlockingQueue(10, 2);
+        Runnable first = () -> {};
+        Runnable second = () -> {};
+        Runnable third = () -> {};
+        Thread producer1 = new Thread(() -> {
+            queue.offer(first);
+            queue.offer(second);
+        });
+        Thread producer2 = new Thread(() -> queue.offer(third));
+        // the producers put to different stripes
+        while ((producer2.getId() & 1) == (producer1.getId() & 1)) {
+            producer2 = new Thread(() -> queue.offer(third));
+        }
+        producer1.start();
+        producer1.join();
+        Assert.assertSame(first, queue.poll());
+        producer2.start();
+        producer2.join();
+        // the older task of the other stripe goes first
+        Assert.assertSame(second, queue.poll());
+        Assert.assertSame(third, queue.poll());
+    }
+
+    @Test
+    public void testWorkQueueOfThreadPool() throws Exception {
+        assertExpired(new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new DeadlineBlockingQueue(), "deadlineQueuePool"));
+    }
+
+    @Test
+    public void testWorkQueueOfLazyThreadPoolWithCarrier() throws Exception {
+        ContextCarrier carrier = new NoopContextCarrier();
+        ContextPropagation.addCarrier(carrier);
+        try {
+            assertExpired(new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new DeadlineBlockingQueue(), Executors.defaultThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy(), "lazyDeadlineQueuePool", null, 0, 0, null,
+                true));
+        } finally {
+            ContextPropagation.removeCarrier(carrier);
+        }
+    }
+
+    private void assertExpired(SofaThreadPoolExecutor executor) throws Exception {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        final AtomicInteger executed = new AtomicInteger();
+        Future<?> expired = executor.submit(new Task(System.nanoTime()
+                                                     + TimeUnit.MILLISECONDS.toNanos(10)) {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+        });
+        Future<?> alive = executor.submit(new Task(System.nanoTime() + TimeUnit.MINUTES.toNanos(1)) {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+        });
+        Thread.sleep(50);
+        blocker.countDown();
+        alive.get(5, TimeUnit.SECONDS);
+        try {
+            expired.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+        Assert.assertEquals(1, executed.get());
+        Assert.assertEquals(1, executor.getStatistics().getExpiredTaskCount());
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private static class Task implements Runnable, PrioritizedTask {
+
+        private final long deadline;
+
+        Task(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long value = 0; value < 100000; value++) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.bucketIndex(value));
+            Assert.assertTrue(upper >= value);
+            Assert.assertTrue(upper - value <= value / 16);
+        }
+        Assert.assertTrue(LatencyHistogram.upperBound(LatencyHistogram
+            .bucketIndex(LatencyHistogram.MAX_VALUE)) >= LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertSame(LatencyHistogram.Percentiles.EMPTY, histogram.snapshotAndReset());
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencyHistogram.Percentiles percentiles = histogram.snapshotAndReset();
+        Assert.assertEquals(1000, percentiles.getCount());
+        Assert.assertEquals(500000, percentiles.getP50(), 500000 / 16);
+        Assert.assertEquals(900000, percentiles.getP90(), 900000 / 16);
+        Assert.assertEquals(990000, percentiles.getP99(), 990000 / 16);
+        Assert.assertEquals(1000000, percentiles.getP999());
+        Assert.assertEquals(1000000, percentiles.getMax());
+
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        percentiles = histogram.snapshotAndReset();
+        Assert.assertEquals(2, percentiles.getCount());
+        Assert.assertEquals(0, percentiles.getP50());
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE, percentiles.getMax());
+        Assert.assertSame(LatencyHistogram.Percentiles.EMPTY, histogram.snapshotAndReset());
+    }
+
+    @Test
+    public void testConcurrentMax() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 1; t <= 8; t++) {
+            final long base = t * 1000;
+            threads.add(new Thread(() -> {
+                for (long i = 0; i < 1000; i++) {
+                    histogram.record(base + i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // the max of all the stripes is merged and they are reset
+        LatencyHistogram.Percentiles percentiles = histogram.snapshotAndReset();
+        Assert.assertEquals(8000, percentiles.getCount());
+        Assert.assertEquals(8999, percentiles.getMax());
+        histogram.record(10);
+        Assert.assertEquals(10, histogram.snapshotAndReset().getMax());
+    }
+}
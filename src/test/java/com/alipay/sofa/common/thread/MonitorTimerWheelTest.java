@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ */
+public class MonitorTimerWheelTest {
+
+    @Test
+    public void testFixedRateOnOneThread() throws Exception {
+        MonitorTimerWheel wheel = new MonitorTimerWheel(new NamedThreadFactory("wheelTest", true),
+            10, TimeUnit.MILLISECONDS, 8);
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger failingRuns = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(30);
+        final AtomicLong firstRun = new AtomicLong();
+        long scheduled = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            wheel.scheduleAtFixedRate(() -> {
+                threads.add(Thread.currentThread());
+                firstRun.compareAndSet(0, System.nanoTime());
+                latch.countDown();
+            }, 100, TimeUnit.MILLISECONDS);
+        }
+        // a failed execution doesn't stop the worker or the task
+        wheel.scheduleAtFixedRate(() -> {
+            failingRuns.incrementAndGet();
+            throw new IllegalStateException("expected");
+        }, 100, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, threads.size());
+        Assert.assertTrue(failingRuns.get() > 1);
+        // the first execution is one period later
+        Assert.assertTrue(firstRun.get() - scheduled >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        MonitorTimerWheel wheel = new MonitorTimerWheel(new NamedThreadFactory("wheelTest", true),
+            10, TimeUnit.MILLISECONDS, 8);
+        final AtomicInteger runs = new AtomicInteger();
+        MonitorTimerWheel.Timeout timeout = wheel.scheduleAtFixedRate(runs::incrementAndGet, 20,
+            TimeUnit.MILLISECONDS);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runs.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        timeout.cancel();
+        Assert.assertTrue(timeout.isCancelled());
+        Thread.sleep(50);
+        int cancelledRuns = runs.get();
+        Thread.sleep(200);
+        Assert.assertEquals(cancelledRuns, runs.get());
+
+        // the idle worker is woken up by a new task
+        final CountDownLatch latch = new CountDownLatch(1);
+        wheel.scheduleAtFixedRate(latch::countDown, 20, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.context.ContextCarrier;
+
+/**
+ * A carrier without any context, registering it makes the thread pools wrap the tasks
+ * with {@link com.alipay.sofa.common.thread.context.ContextPropagation.PropagatingRunnable}
+ */
+class NoopContextCarrier implements ContextCarrier {
+
+    @Override
+    public Object capture() {
+        return null;
+    }
+
+    @Override
+    public Object restore(Object captured) {
+        return null;
+    }
+
+    @Override
+    public void clear(Object previous) {
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import com.alipay.sofa.common.thread.context.ContextCarrier;
+import com.alipay.sofa.common.thread.context.ContextPropagation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class PriorityBucketBlockingQueueTest {
+
+    @Test
+    public void testOrder() throws Exception {
+        PriorityBucketBlockingQueue queue = new PriorityBucketBlockingQueue(4, 5);
+        Runnable plain = () -> {};
+        Runnable low = new Task(1);
+        Runnable high = new Task(3);
+        Runnable high2 = new Task(3);
+        Runnable overflow = new Task(100);
+        Assert.assertTrue(queue.offer(plain));
+        Assert.assertTrue(queue.offer(low));
+        Assert.assertTrue(queue.offer(new ExecutingRunnable(high)));
+        Assert.assertTrue(queue.offer(high2));
+        Assert.assertTrue(queue.offer(overflow));
+        // full
+        Assert.assertFalse(queue.offer(new Task(2)));
+        Assert.assertEquals(5, queue.size());
+
+        // priorities over the levels are clamped, the same level is FIFO
+        Assert.assertSame(high, ((ExecutingRunnable) queue.take()).originRunnable);
+        Assert.assertSame(high2, queue.poll());
+        Assert.assertSame(overflow, queue.poll());
+        Assert.assertTrue(queue.remove(low));
+        Assert.assertSame(plain, queue.poll(1, TimeUnit.SECONDS));
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testWrappedTasks() throws Exception {
+        PriorityBucketBlockingQueue queue = new PriorityBucketBlockingQueue(4, 5);
+        Runnable low = new Task(1);
+        Runnable middle = new Task(2);
+        Runnable high = new Task(3);
+        ContextCarrier carrier = new NoopContextCarrier();
+        ContextPropagation.addCarrier(carrier);
+        try {
+            Assert.assertTrue(queue.offer(ContextPropagation.wrap(low)));
+            Assert.assertTrue(queue.offer(new ExecutingRunnable(ContextPropagation.wrap(middle))));
+        } finally {
+            ContextPropagation.removeCarrier(carrier);
+        }
+        Assert.assertTrue(queue.offer(new SofaThreadPoolTaskExecutor.DecoratedRunnable(() -> {},
+            high)));
+
+        Assert.assertSame(high, OrderedTaskBlockingQueue.unwrap(queue.poll(), Task.class));
+        Assert.assertSame(middle, OrderedTaskBlockingQueue.unwrap(queue.poll(), Task.class));
+        Assert.assertSame(low, OrderedTaskBlockingQueue.unwrap(queue.poll(), Task.class));
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testWorkQueueOfThreadPool() throws Exception {
+        assertPriorityOrder(new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new PriorityBucketBlockingQueue(), "priorityQueuePool"));
+    }
+
+    @Test
+    public void testWorkQueueOfLazyThreadPoolWithCarrier() throws Exception {
+        ContextCarrier carrier = new NoopContextCarrier();
+        ContextPropagation.addCarrier(carrier);
+        try {
+            assertPriorityOrder(new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new PriorityBucketBlockingQueue(), Executors.defaultThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy(), "lazyPriorityQueuePool", null, 0, 0, null,
+                true));
+        } finally {
+            ContextPropagation.removeCarrier(carrier);
+        }
+    }
+
+    private void assertPriorityOrder(SofaThreadPoolExecutor executor) throws Exception {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        executor.submit(new Task(1) {
+            @Override
+            public void run() {
+                order.add(1);
+            }
+        });
+        executor.execute(new Task(5) {
+            @Override
+            public void run() {
+                order.add(5);
+            }
+        });
+        Future<?> last = executor.submit(new Task(3) {
+            @Override
+            public void run() {
+                order.add(3);
+            }
+        });
+        blocker.countDown();
+        last.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, order.size());
+        Assert.assertEquals(5, (int) order.get(0));
+        Assert.assertEquals(3, (int) order.get(1));
+        Assert.assertEquals(1, (int) order.get(2));
+    }
+
+    private static class Task implements Runnable, PrioritizedTask {
+
+        private final int priority;
+
+        Task(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
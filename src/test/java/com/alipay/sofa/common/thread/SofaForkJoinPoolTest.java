@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class SofaForkJoinPoolTest {
+
+    @Test
+    public void testRootTasksCounted() throws Exception {
+        SofaForkJoinPool pool = new SofaForkJoinPool("forkJoinCountPool", 2);
+        String identity = pool.getConfig().getIdentity();
+        Assert.assertSame(pool, ThreadPoolGovernor.getInstance()
+            .getThreadPoolMonitorWrapper(identity).getExecutorService());
+
+        Assert.assertEquals(Long.valueOf(5050), pool.invoke(new SumTask(1, 100)));
+        Assert.assertEquals("done", pool.submit(() -> "done").get(5, TimeUnit.SECONDS));
+        final CountDownLatch executed = new CountDownLatch(1);
+        pool.execute(executed::countDown);
+        Assert.assertTrue(executed.await(5, TimeUnit.SECONDS));
+
+        ThreadPoolStatistics statistics = pool.getStatistics();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (statistics.getTotalTaskCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // forked subtasks are not counted
+        Assert.assertEquals(3, statistics.getTotalTaskCount());
+
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(identity));
+    }
+
+    @Test
+    public void testExecutingTaskTracked() throws Exception {
+        SofaForkJoinPool pool = new SofaForkJoinPool("forkJoinTrackPool", 2);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final String[] workerName = new String[1];
+        ForkJoinTask<?> task = pool.submit(() -> {
+            workerName[0] = Thread.currentThread().getName();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        ThreadPoolStatistics statistics = pool.getStatistics();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (statistics.getExecutingTaskCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, statistics.getExecutingTaskCount());
+
+        blocker.countDown();
+        task.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(workerName[0].startsWith(pool.getConfig().getIdentity() + "-worker-"));
+        deadline = System.currentTimeMillis() + 5000;
+        while (statistics.getExecutingTaskCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, statistics.getExecutingTaskCount());
+        pool.shutdownNow();
+    }
+
+    private static class SumTask extends RecursiveTask<Long> {
+
+        private final int from;
+
+        private final int to;
+
+        SumTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from < 10) {
+                long sum = 0;
+                for (int i = from; i <= to; i++) {
+                    sum += i;
+                }
+                return sum;
+            }
+            int middle = (from + to) >>> 1;
+            SumTask left = new SumTask(from, middle);
+            left.fork();
+            return new SumTask(middle + 1, to).compute() + left.join();
+        }
+    }
+}
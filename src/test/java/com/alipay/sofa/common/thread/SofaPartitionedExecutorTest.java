@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ */
+public class SofaPartitionedExecutorTest {
+
+    @Test
+    public void testOrderPerKey() throws Exception {
+        SofaPartitionedExecutor executor = new SofaPartitionedExecutor("partitionedOrderPool", 4,
+            2);
+        String identity = executor.getConfig().getIdentity();
+        Assert.assertSame(executor, ThreadPoolGovernor.getInstance()
+            .getThreadPoolMonitorWrapper(identity).getExecutorService());
+
+        int keyCount = 8;
+        int taskCount = 400;
+        List<List<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < keyCount; i++) {
+            results.add(new ArrayList<>());
+        }
+        for (int i = 0; i < taskCount; i++) {
+            final int key = i % keyCount;
+            final int sequence = i;
+            // no lock, tasks of the same key never run concurrently
+            executor.execute("account-" + key, () -> results.get(key).add(sequence));
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        for (int key = 0; key < keyCount; key++) {
+            List<Integer> result = results.get(key);
+            Assert.assertEquals(taskCount / keyCount, result.size());
+            for (int i = 0; i < result.size(); i++) {
+                Assert.assertEquals(key + i * keyCount, (int) result.get(i));
+            }
+        }
+        Assert.assertEquals(taskCount, executor.getStatistics().getTotalTaskCount());
+        Assert.assertEquals(0, executor.getStatistics().getQueueSize());
+        Assert.assertNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(identity));
+        try {
+            executor.execute("account-0", () -> {});
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoHeadOfLineBlocking() throws Exception {
+        SofaPartitionedExecutor executor = new SofaPartitionedExecutor("partitionedBlockingPool",
+            4, 2);
+        String blockedKey = "blocked";
+        String otherKey = null;
+        for (int i = 0; otherKey == null; i++) {
+            if (executor.laneOf("other" + i) != executor.laneOf(blockedKey)) {
+                otherKey = "other" + i;
+            }
+        }
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(blockedKey, () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            executor.execute(blockedKey, () -> {});
+        }
+        final CountDownLatch others = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(otherKey, others::countDown);
+        }
+        // the other lane keeps running on the free worker
+        Assert.assertTrue(others.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, executor.getLaneBacklog(executor.laneOf(blockedKey)));
+        Assert.assertEquals(3, executor.getStatistics().getQueueSize());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStatistics().getExecutingTaskCount() > 1
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, executor.getStatistics().getExecutingTaskCount());
+
+        blocker.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(104, executor.getStatistics().getTotalTaskCount());
+    }
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        SofaPartitionedExecutor executor = new SofaPartitionedExecutor("partitionedShutdownPool",
+            1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute("key", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                // interrupted by shutdownNow
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Runnable queued = () -> {};
+        executor.execute("key", queued);
+        List<Runnable> dropped = executor.shutdownNow();
+        Assert.assertEquals(1, dropped.size());
+        Assert.assertSame(queued, dropped.get(0));
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInterruptAndErrorOfTask() throws Exception {
+        SofaPartitionedExecutor executor = new SofaPartitionedExecutor(
+            "partitionedInterruptPool", 1, 1);
+        final AtomicBoolean interrupted = new AtomicBoolean(true);
+        final CountDownLatch finished = new CountDownLatch(1);
+        executor.execute("key", () -> Thread.currentThread().interrupt());
+        executor.execute("key", () -> interrupted.set(Thread.currentThread().isInterrupted()));
+        executor.execute("key", () -> {
+            throw new Error("expected");
+        });
+        executor.execute("key", finished::countDown);
+
+        // the interrupt doesn't leak into the next task, the error doesn't stop the lane
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(interrupted.get());
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
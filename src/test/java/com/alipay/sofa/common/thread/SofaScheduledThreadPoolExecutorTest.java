@@ -21,7 +21,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -66,11 +68,13 @@ public class SofaScheduledThreadPoolExecutorTest extends ThreadPoolTestBase {
             TimeUnit.SECONDS);
         Thread.sleep(10500);
 
-        Assert.assertEquals(16, infoListAppender.list.size());
+        Assert.assertEquals(18, infoListAppender.list.size());
         Assert.assertEquals(2, aberrantListAppender.list.size());
+        // the stay in queue time is the schedule lag, it's followed by the periodic drift
         Assert.assertTrue(consecutiveInfoPattern(4, "0,1,0,1,0", "0,1,0,1,0", "0,1,0,1,1",
-            "0,1,0,1,1", "1,0,1,1,0", "0,420\\d", "0,1,0,1,0", "0,1,0,1,0", "0,1,0,1,1",
-            "0,1,0,1,1", "1,0,1,1,0", "0,420\\d"));
+            "0,1,0,1,1", "1,0,1,1,0", "\\[\\d+,420\\d", "periodic drift info: \\[1,", "0,1,0,1,0",
+            "0,1,0,1,0", "0,1,0,1,1", "0,1,0,1,1", "1,0,1,1,0", "\\[\\d+,420\\d",
+            "periodic drift info: \\[1,"));
         Assert.assertTrue(isMatch(lastWarnString().split("\n")[0], WARN,
             "Task .+ in thread pool \\S+ started on \\S+ \\S+ with traceId \\S+"
                     + " exceeds the limit of \\S+ execution time with stack trace:"));
@@ -81,6 +85,35 @@ public class SofaScheduledThreadPoolExecutorTest extends ThreadPoolTestBase {
         Assert.assertTrue(isLastInfoMatch("Thread pool with name '\\S+' unregistered"));
     }
 
+    @Test
+    public void testScheduleLag() throws Exception {
+        ThreadPoolStatistics statistics = threadPool.getStatistics();
+        // the only worker is blocked, so the next task starts about 100ms late
+        threadPool.schedule(new SleepTask(150), 0, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> delayed = threadPool.schedule(() -> {}, 50, TimeUnit.MILLISECONDS);
+        delayed.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(statistics.getCumulativeStayInQueueTimeNanos() >= TimeUnit.MILLISECONDS
+            .toNanos(80));
+        Assert.assertTrue(statistics.getPeriodicDrifts().isEmpty());
+
+        final CountDownLatch latch = new CountDownLatch(3);
+        ScheduledFuture<?> periodic = threadPool.scheduleAtFixedRate(latch::countDown, 0, 10,
+            TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Map<Future<?>, ThreadPoolStatistics.PeriodicTaskDrift> drifts = statistics
+            .getPeriodicDrifts();
+        Assert.assertEquals(1, drifts.size());
+        ThreadPoolStatistics.PeriodicTaskDrift drift = drifts.get(periodic);
+        Assert.assertTrue(drift.getExecutionCount() >= 3);
+        Assert.assertTrue(drift.getMaxDrift() >= drift.getLastDrift());
+
+        periodic.cancel(false);
+        Assert.assertTrue(statistics.getPeriodicDrifts().isEmpty());
+        statistics.snapshotAndReset();
+        threadPool.shutdown();
+        Assert.assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testRename() {
         threadPool.updateThreadPoolName("sofaThreadPoolName");
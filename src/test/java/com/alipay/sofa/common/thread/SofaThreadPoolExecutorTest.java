@@ -21,8 +21,16 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -49,10 +57,10 @@ public class SofaThreadPoolExecutorTest extends ThreadPoolTestBase {
 
     @Test
     public void testThreadNameChanged() throws InterruptedException {
-        int old = threadPool.getStatistics().getExecutingTasks().size();
+        int old = threadPool.getStatistics().getExecutingTaskCount();
         threadPool.execute(() -> Thread.currentThread().setName("test-name"));
         Thread.sleep(1000);
-        Assert.assertEquals(old, threadPool.getStatistics().getExecutingTasks().size());
+        Assert.assertEquals(old, threadPool.getStatistics().getExecutingTaskCount());
     }
 
     @Test
@@ -84,6 +92,41 @@ public class SofaThreadPoolExecutorTest extends ThreadPoolTestBase {
         Assert.assertEquals(2, queue.size());
     }
 
+    @Test
+    public void testExecuteAll() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(2, 2, 10, TimeUnit.SECONDS,
+            new VariableLinkedBlockingQueue<>(100));
+        final AtomicInteger executed = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(50);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            tasks.add(() -> {
+                executed.incrementAndGet();
+                latch.countDown();
+            });
+        }
+        executor.executeAll(tasks);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(50, executed.get());
+
+        List<Callable<Integer>> callables = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            callables.add(() -> value);
+        }
+        List<Future<Integer>> futures = executor.invokeAllBatched(callables);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(i, (int) futures.get(i).get());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStatistics().getTotalTaskCount() < 70
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(70, executor.getStatistics().getTotalTaskCount());
+        executor.shutdown();
+    }
+
     @Test
     public void testDecayedTask() throws Exception {
         Assert.assertTrue(isMatch(getInfoViaIndex(0), INFO, String.format(
@@ -219,4 +262,61 @@ public class SofaThreadPoolExecutorTest extends ThreadPoolTestBase {
         Assert.assertTrue(countDownLatch.await(20, TimeUnit.MILLISECONDS));
         Assert.assertEquals(success.get(), 2);
     }
+
+    @Test
+    public void testExecuteAllWithoutCoreThreads() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(0, 1, 1,
+            TimeUnit.MILLISECONDS, new VariableLinkedBlockingQueue<>(100));
+        // the worker times out between the batches
+        for (int round = 0; round < 20; round++) {
+            final CountDownLatch latch = new CountDownLatch(10);
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                tasks.add(latch::countDown);
+            }
+            executor.executeAll(tasks);
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(2);
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLazyMonitor() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(10), Executors.defaultThreadFactory(),
+            new ThreadPoolExecutor.AbortPolicy(), "lazyPool", null, 0, 0, null, true);
+        String identity = executor.getConfig().getIdentity();
+        Assert.assertFalse(executor.isMonitored());
+        Assert.assertNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(identity));
+
+        // tasks are not counted without the monitor
+        final CountDownLatch unmonitored = new CountDownLatch(2);
+        executor.execute(unmonitored::countDown);
+        executor.executeAll(Collections.singletonList(unmonitored::countDown));
+        Assert.assertTrue(unmonitored.await(5, TimeUnit.SECONDS));
+        // the statistics is not allocated without the monitor
+        Field statistics = SofaThreadPoolExecutor.class.getDeclaredField("statistics");
+        statistics.setAccessible(true);
+        Assert.assertNull(statistics.get(executor));
+        Assert.assertEquals(0, executor.getStatistics().getTotalTaskCount());
+
+        executor.startSchedule();
+        Assert.assertTrue(executor.isMonitored());
+        Assert.assertSame(executor, ThreadPoolGovernor.getInstance().getThreadPoolExecutor(identity));
+        executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStatistics().getTotalTaskCount() < 1
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, executor.getStatistics().getTotalTaskCount());
+
+        executor.disableMonitor();
+        Assert.assertFalse(executor.isMonitored());
+        Assert.assertNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(identity));
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
 }
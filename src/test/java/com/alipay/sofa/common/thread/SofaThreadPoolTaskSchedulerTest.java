@@ -53,11 +53,13 @@ public class SofaThreadPoolTaskSchedulerTest extends ThreadPoolTestBase {
 
         Thread.sleep(10500);
 
-        Assert.assertEquals(16, infoListAppender.list.size());
+        Assert.assertEquals(18, infoListAppender.list.size());
         Assert.assertEquals(2, aberrantListAppender.list.size());
+        // the stay in queue time is the schedule lag, it's followed by the periodic drift
         Assert.assertTrue(consecutiveInfoPattern(4, "0,1,0,1,0", "0,1,0,1,0", "0,1,0,1,1",
-            "0,1,0,1,1", "1,0,1,1,0", "0,420\\d", "0,1,0,1,0", "0,1,0,1,0", "0,1,0,1,1",
-            "0,1,0,1,1", "1,0,1,1,0", "0,420\\d"));
+            "0,1,0,1,1", "1,0,1,1,0", "\\[\\d+,420\\d", "periodic drift info: \\[1,", "0,1,0,1,0",
+            "0,1,0,1,0", "0,1,0,1,1", "0,1,0,1,1", "1,0,1,1,0", "\\[\\d+,420\\d",
+            "periodic drift info: \\[1,"));
         Assert.assertTrue(isMatch(lastWarnString().split("\n")[0], WARN, String.format(
             "Task .+ in thread pool (%s\\S+) started on \\S+ \\S+ with traceId \\S+ "
                     + "exceeds the limit of \\S+ execution time with stack trace:",
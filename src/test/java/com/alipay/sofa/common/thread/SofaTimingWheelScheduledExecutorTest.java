@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small wheel is used so the tasks are moved down through all the levels
+ */
+public class SofaTimingWheelScheduledExecutorTest {
+
+    @Test
+    public void testScheduleAcrossLevels() throws Exception {
+        SofaTimingWheelScheduledExecutor executor = new SofaTimingWheelScheduledExecutor(
+            "wheelSchedulePool", null, 2, 1, TimeUnit.MILLISECONDS, 8);
+        String identity = executor.getConfig().getIdentity();
+        Assert.assertSame(executor, ThreadPoolGovernor.getInstance()
+            .getThreadPoolMonitorWrapper(identity).getExecutorService());
+        Assert.assertEquals(8, executor.getWheelSize());
+
+        long[] delays = { 0, 5, 30, 200, 700 };
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final AtomicInteger early = new AtomicInteger();
+        List<ScheduledFuture<Long>> futures = new ArrayList<>();
+        for (final long delay : delays) {
+            final long scheduled = System.nanoTime();
+            futures.add(executor.schedule(() -> {
+                long elapsed = System.nanoTime() - scheduled;
+                if (elapsed < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                    early.incrementAndGet();
+                }
+                latch.countDown();
+                return elapsed;
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, early.get());
+        for (ScheduledFuture<Long> future : futures) {
+            Assert.assertTrue(future.get() >= 0);
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(delays.length, executor.getStatistics().getTotalTaskCount());
+        Assert.assertNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(identity));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        SofaTimingWheelScheduledExecutor executor = new SofaTimingWheelScheduledExecutor(
+            "wheelCancelPool", null, 1, 1, TimeUnit.MILLISECONDS, 8);
+        final AtomicInteger runs = new AtomicInteger();
+        List<ScheduledFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(executor.schedule(runs::incrementAndGet, 50 + i % 100,
+                TimeUnit.MILLISECONDS));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getScheduledCount() < 1000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(1000, executor.getScheduledCount());
+        for (ScheduledFuture<?> future : futures) {
+            Assert.assertTrue(future.cancel(false));
+        }
+        // the cancelled tasks are removed from the wheel before they are due
+        while (executor.getScheduledCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(0, executor.getScheduledCount());
+        Thread.sleep(200);
+        Assert.assertEquals(0, runs.get());
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPeriodicAndShutdown() throws Exception {
+        SofaTimingWheelScheduledExecutor executor = new SofaTimingWheelScheduledExecutor(
+            "wheelPeriodicPool", 1);
+        final CountDownLatch fixedRate = new CountDownLatch(5);
+        final CountDownLatch fixedDelay = new CountDownLatch(5);
+        ScheduledFuture<?> rateFuture = executor.scheduleAtFixedRate(fixedRate::countDown, 10, 10,
+            TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(fixedDelay::countDown, 10, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(fixedRate.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(fixedDelay.await(5, TimeUnit.SECONDS));
+
+        // delayed tasks still run after shutdown, periodic tasks are cancelled
+        final AtomicLong delayedRun = new AtomicLong();
+        executor.schedule(() -> delayedRun.set(System.nanoTime()), 100, TimeUnit.MILLISECONDS);
+        executor.shutdown();
+        try {
+            executor.execute(() -> {});
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(rateFuture.isCancelled());
+        Assert.assertTrue(delayedRun.get() > 0);
+    }
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        SofaTimingWheelScheduledExecutor executor = new SofaTimingWheelScheduledExecutor(
+            "wheelShutdownPool", 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger interrupted = new AtomicInteger();
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+            }
+        });
+        ScheduledFuture<?> pending = executor.schedule(() -> {}, 1, TimeUnit.MINUTES);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        List<Runnable> dropped = executor.shutdownNow();
+        Assert.assertEquals(1, dropped.size());
+        Assert.assertSame(pending, dropped.get(0));
+        Assert.assertTrue(pending.isCancelled());
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, interrupted.get());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Platform threads are used since virtual threads are not available on all build JDKs
+ */
+public class SofaVirtualThreadExecutorTest {
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        SofaVirtualThreadExecutor executor = new SofaVirtualThreadExecutor("virtualLimitPool",
+            null, 2, Executors.defaultThreadFactory(), 0, 0, null);
+        String identity = executor.getConfig().getIdentity();
+        Assert.assertNotNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(identity));
+        Assert.assertSame(executor, ThreadPoolGovernor.getInstance()
+            .getThreadPoolMonitorWrapper(identity).getExecutorService());
+
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 6; i++) {
+            executor.execute(() -> {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        }
+        ThreadPoolStatistics statistics = executor.getStatistics();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (statistics.getExecutingTaskCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, statistics.getExecutingTaskCount());
+        Assert.assertEquals(2, statistics.getPoolSize());
+        Assert.assertEquals(4, statistics.getQueueSize());
+        Assert.assertEquals(6, executor.getInFlightCount());
+
+        blocker.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.isTerminated());
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(6, statistics.getTotalTaskCount());
+        Assert.assertEquals(0, statistics.getExecutingTaskCount());
+        Assert.assertNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(identity));
+    }
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r);
+            threads.add(thread);
+            return thread;
+        };
+        SofaVirtualThreadExecutor executor = new SofaVirtualThreadExecutor("virtualShutdownPool",
+            null, 1, threadFactory, 0, 0, null);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger executed = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            executor.execute(() -> {
+                executed.incrementAndGet();
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    // interrupted by shutdownNow
+                }
+            });
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        // the other two threads wait for the permit
+        long deadline = System.currentTimeMillis() + 5000;
+        while (threads.stream().filter(t -> t.getState() == Thread.State.WAITING).count() < 2
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        List<Runnable> waiting = executor.shutdownNow();
+        Assert.assertEquals(2, waiting.size());
+        Assert.assertTrue(waiting.get(0) instanceof ExecutingRunnable);
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, executed.get());
+        try {
+            executor.execute(() -> {});
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSlotsReused() throws Exception {
+        SofaVirtualThreadExecutor executor = new SofaVirtualThreadExecutor("virtualSlotPool",
+            null, 2, Executors.defaultThreadFactory(), 0, 0, null);
+        final CountDownLatch finished = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(finished::countDown);
+        }
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // no more slots than the max concurrency are created
+        int slots = 0;
+        for (ExecutingTaskSlot slot : executor.getStatistics().getExecutingTaskSlots()) {
+            if (slot != null) {
+                slots++;
+            }
+        }
+        Assert.assertTrue(slots <= 2);
+        Assert.assertEquals(100, executor.getStatistics().getTotalTaskCount());
+    }
+}
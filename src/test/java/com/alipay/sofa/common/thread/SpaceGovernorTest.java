@@ -19,8 +19,20 @@ package com.alipay.sofa.common.thread;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author huzijie
@@ -83,4 +95,271 @@ public class SpaceGovernorTest extends ThreadPoolTestBase {
         threadPoolExecutor.shutdown();
         threadPoolExecutor.awaitTermination(100, TimeUnit.SECONDS);
     }
+
+    @Test
+    public void testDrainThreadPoolBySpace() throws InterruptedException {
+        SofaThreadPoolExecutor drainedExecutor = new SofaThreadPoolExecutor(1, 1, 10,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(100), "drainedPool", "drainSpace");
+        SofaThreadPoolExecutor stuckExecutor = new SofaThreadPoolExecutor(1, 1, 10,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(100), "stuckPool", "drainSpace");
+        SofaThreadPoolExecutor otherExecutor = new SofaThreadPoolExecutor(1, 1, 10,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(100), "otherPool", "otherSpace");
+        final AtomicInteger executed = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            drainedExecutor.execute(() -> {
+                new SleepTask(20).run();
+                executed.incrementAndGet();
+            });
+        }
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        stuckExecutor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        stuckExecutor.execute(executed::incrementAndGet);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Map<String, List<Runnable>> abandoned = ThreadPoolGovernor.getInstance()
+            .drainThreadPoolBySpaceName("drainSpace", 500, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, abandoned.size());
+        Assert.assertEquals(1, abandoned.get(stuckExecutor.getConfig().getIdentity()).size());
+        Assert.assertTrue(drainedExecutor.isTerminated());
+        Assert.assertEquals(5, executed.get());
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(stuckExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertFalse(otherExecutor.isShutdown());
+
+        Assert.assertTrue(ThreadPoolGovernor.getInstance()
+            .drainThreadPoolBySpaceName("otherSpace", 5, TimeUnit.SECONDS).isEmpty());
+        Assert.assertTrue(otherExecutor.isTerminated());
+    }
+
+    @Test
+    public void testDrainChainedThreadPoolsInOrder() throws InterruptedException {
+        SofaThreadPoolExecutor upstreamExecutor = new SofaThreadPoolExecutor(1, 1, 10,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(100), "upstreamPool", "chainSpace");
+        final SofaThreadPoolExecutor downstreamExecutor = new SofaThreadPoolExecutor(1, 1, 10,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(100), "downstreamPool", "chainSpace");
+        final AtomicInteger executed = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            upstreamExecutor.execute(() -> {
+                new SleepTask(20).run();
+                try {
+                    downstreamExecutor.execute(executed::incrementAndGet);
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                }
+            });
+        }
+
+        Map<String, List<Runnable>> abandoned = ThreadPoolGovernor.getInstance()
+            .drainThreadPoolsInOrder(
+                Arrays.asList(upstreamExecutor.getConfig().getIdentity(), downstreamExecutor
+                    .getConfig().getIdentity()), 5, TimeUnit.SECONDS);
+        Assert.assertTrue(abandoned.isEmpty());
+        Assert.assertTrue(upstreamExecutor.isTerminated());
+        Assert.assertTrue(downstreamExecutor.isTerminated());
+        Assert.assertEquals(0, rejected.get());
+        Assert.assertEquals(5, executed.get());
+    }
+
+    @Test
+    public void testWarmUpThreadPoolBySpace() throws InterruptedException {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(3, 3, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), "warmUpPool", "warmUpSpace");
+        SofaThreadPoolExecutor otherExecutor = new SofaThreadPoolExecutor(2, 2, 10,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(100), "otherWarmUpPool", "warmUpSpace");
+        Assert.assertEquals(0, executor.getPoolSize());
+        final Set<Thread> warmedUp = ConcurrentHashMap.newKeySet();
+        Map<String, ThreadPoolWarmUpResult> results = ThreadPoolGovernor.getInstance()
+            .warmUpThreadPoolBySpaceName("warmUpSpace", () -> warmedUp.add(Thread.currentThread()),
+                5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(2, results.size());
+        ThreadPoolWarmUpResult result = results.get(executor.getConfig().getIdentity());
+        Assert.assertTrue(result.isCompleted());
+        Assert.assertEquals(3, result.getStartedThreads());
+        Assert.assertEquals(3, result.getWarmedUpThreads());
+        Assert.assertTrue(result.getWarmUpTaskTime() >= 0);
+        Assert.assertEquals(3, executor.getPoolSize());
+        Assert.assertEquals(2, otherExecutor.getPoolSize());
+        // the warm-up tasks only run on the core threads
+        Assert.assertFalse(warmedUp.isEmpty());
+        Assert.assertTrue(warmedUp.size() <= 5);
+        Assert.assertFalse(warmedUp.contains(Thread.currentThread()));
+
+        // the started threads are not started again
+        results = ThreadPoolGovernor.getInstance().warmUpThreadPools(
+            Collections.singletonList(executor.getConfig().getIdentity()), 1, null, 5,
+            TimeUnit.SECONDS);
+        result = results.get(executor.getConfig().getIdentity());
+        Assert.assertEquals(0, result.getStartedThreads());
+        Assert.assertEquals(-1, result.getWarmUpTaskTime());
+
+        executor.shutdown();
+        otherExecutor.shutdown();
+    }
+
+    @Test
+    public void testWarmUpBusyThreadPool() throws InterruptedException {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), Executors.defaultThreadFactory(),
+            new ThreadPoolExecutor.CallerRunsPolicy(), "busyWarmUpPool", "busyWarmUpSpace");
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // the warm-up task is neither run by the caller nor waits for the busy core thread
+        final Set<Thread> warmedUp = ConcurrentHashMap.newKeySet();
+        ThreadPoolWarmUpResult result = ThreadPoolGovernor.getInstance()
+            .warmUpThreadPoolBySpaceName("busyWarmUpSpace",
+                () -> warmedUp.add(Thread.currentThread()), 5, TimeUnit.SECONDS)
+            .get(executor.getConfig().getIdentity());
+        Assert.assertTrue(result.isCompleted());
+        Assert.assertEquals(0, result.getStartedThreads());
+        Assert.assertEquals(0, result.getWarmedUpThreads());
+        Assert.assertTrue(result.getWarmUpTaskTime() < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertTrue(warmedUp.isEmpty());
+
+        blocker.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSnapshotSpace() throws InterruptedException {
+        SofaThreadPoolExecutor executor1 = new SofaThreadPoolExecutor(2, 2, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), "aggregatePool1", "aggregateSpace");
+        SofaThreadPoolExecutor executor2 = new SofaThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), "aggregatePool2", "aggregateSpace");
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(5);
+        for (int i = 0; i < 3; i++) {
+            executor1.execute(finished::countDown);
+        }
+        Assert.assertTrue(waitTaskCount(executor1, 3));
+        final CountDownLatch started = new CountDownLatch(1);
+        executor2.execute(() -> {
+            finished.countDown();
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        executor2.execute(finished::countDown);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        ThreadPoolSpaceStatistics.SpaceSnapshot snapshot = ThreadPoolGovernor.getInstance()
+            .snapshotSpace("aggregateSpace");
+        Assert.assertEquals(2, snapshot.getThreadPoolCount());
+        Assert.assertEquals(3, snapshot.getPoolSize());
+        Assert.assertEquals(1, snapshot.getActiveCount());
+        Assert.assertEquals(1, snapshot.getQueueSize());
+        Assert.assertEquals(3, snapshot.getTaskCount());
+        Assert.assertEquals(3, snapshot.getRunningTimePercentiles().getCount());
+        Assert.assertTrue(snapshot.getThroughput() > 0);
+
+        blocker.countDown();
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(waitTaskCount(executor2, 2));
+        // only the tasks since the last snapshot are counted
+        ThreadPoolSpaceStatistics.SpaceSnapshot previous = snapshot;
+        snapshot = ThreadPoolGovernor.getInstance().snapshotSpace("aggregateSpace", previous);
+        Assert.assertEquals(2, snapshot.getTaskCount());
+        Assert.assertEquals(5, snapshot.getTotalTaskCount());
+        Assert.assertEquals(2, snapshot.getStayInQueueTimePercentiles().getCount());
+        Assert.assertTrue(snapshot.getRunningTimePercentiles().getMax() > 0);
+        // another consumer doesn't steal the interval
+        Assert.assertEquals(2, ThreadPoolGovernor.getInstance()
+            .snapshotSpace("aggregateSpace", previous).getTaskCount());
+        Assert.assertEquals(5, ThreadPoolGovernor.getInstance().snapshotSpace("aggregateSpace")
+            .getTaskCount());
+
+        // the counts of a thread pool leaving the space are kept
+        executor1.shutdown();
+        Assert.assertTrue(executor1.awaitTermination(5, TimeUnit.SECONDS));
+        previous = snapshot;
+        snapshot = ThreadPoolGovernor.getInstance().snapshotSpace("aggregateSpace", previous);
+        Assert.assertEquals(1, snapshot.getThreadPoolCount());
+        Assert.assertEquals(5, snapshot.getTotalTaskCount());
+        Assert.assertEquals(0, snapshot.getTaskCount());
+        executor2.shutdown();
+    }
+
+    @Test
+    public void testSpaceThreadBudget() {
+        ThreadPoolGovernor.getInstance().setSpaceThreadBudget("budgetSpace", 10);
+        Assert.assertEquals(10, ThreadPoolGovernor.getInstance().getSpaceThreadBudget("budgetSpace"));
+        SofaThreadPoolExecutor executor1 = new SofaThreadPoolExecutor(2, 6, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), "budgetPool1", "budgetSpace");
+        // registered over the budget
+        SofaThreadPoolExecutor executor2 = new SofaThreadPoolExecutor(6, 8, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), "budgetPool2", "budgetSpace");
+        Assert.assertEquals(4, executor2.getCorePoolSize());
+        Assert.assertEquals(4, executor2.getMaximumPoolSize());
+
+        // refused to grow beyond the budget
+        executor1.setMaximumPoolSize(20);
+        Assert.assertEquals(6, executor1.getMaximumPoolSize());
+        executor2.setCorePoolSize(3);
+        executor2.setMaximumPoolSize(3);
+        executor1.setMaximumPoolSize(20);
+        Assert.assertEquals(7, executor1.getMaximumPoolSize());
+
+        ThreadPoolGovernor.getInstance().setSpaceThreadBudget("budgetSpace", 0);
+        executor1.setMaximumPoolSize(20);
+        Assert.assertEquals(20, executor1.getMaximumPoolSize());
+
+        executor1.shutdown();
+        executor2.shutdown();
+    }
+
+    @Test
+    public void testSpaceThreadBudgetWithUnboundedPool() {
+        SofaThreadPoolExecutor cachedExecutor = new SofaThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS, new SynchronousQueue<>(), "cachedPool", "unboundedSpace");
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 2, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), "boundedPool", "unboundedSpace");
+        ThreadPoolGovernor.getInstance().setSpaceThreadBudget("unboundedSpace", 10);
+        // the unbounded thread pool is counted by it's live threads
+        executor.setMaximumPoolSize(8);
+        Assert.assertEquals(8, executor.getMaximumPoolSize());
+        executor.setMaximumPoolSize(20);
+        Assert.assertEquals(10, executor.getMaximumPoolSize());
+
+        // an unbounded thread pool registered to the space is shrunk
+        SofaThreadPoolExecutor lateExecutor = new SofaThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS, new SynchronousQueue<>(), "lateCachedPool", "unboundedSpace");
+        Assert.assertEquals(1, lateExecutor.getMaximumPoolSize());
+
+        ThreadPoolGovernor.getInstance().setSpaceThreadBudget("unboundedSpace", 0);
+        cachedExecutor.shutdown();
+        executor.shutdown();
+        lateExecutor.shutdown();
+    }
+
+    private boolean waitTaskCount(SofaThreadPoolExecutor executor, long count)
+                                                                              throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStatistics().getCumulativeTaskCount() < count
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return executor.getStatistics().getCumulativeTaskCount() >= count;
+    }
 }
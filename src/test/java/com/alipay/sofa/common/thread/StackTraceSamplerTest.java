@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ *
+ */
+public class StackTraceSamplerTest {
+
+    @Test
+    public void testCaptureBounded() throws Exception {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            });
+            threads[i].start();
+        }
+        // a thread not running yet has an empty stack
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        try {
+            StackTraceSampler sampler = new StackTraceSampler();
+            sampler.setMaxDepth(3);
+            sampler.setCapturesPerSecond(2);
+            StackTraceElement[][] stacks = sampler.capture(threads);
+            Assert.assertEquals(3, stacks.length);
+            Assert.assertTrue(stacks[0].length > 0 && stacks[0].length <= 3);
+            Assert.assertTrue(stacks[1].length > 0 && stacks[1].length <= 3);
+            // over the rate limit
+            Assert.assertNull(stacks[2]);
+            Assert.assertTrue(sampler.format(stacks[2]).contains("not captured"));
+
+            String first = sampler.format(stacks[0]);
+            Assert.assertTrue(first.contains(stacks[0][0].toString()));
+            // the same stack is printed as a reference
+            Assert.assertTrue(sampler.format(stacks[1]).contains("same as stack trace"));
+        } finally {
+            blocker.countDown();
+        }
+    }
+
+    @Test
+    public void testCaptureRotated() throws Exception {
+        StackTraceSampler sampler = new StackTraceSampler();
+        sampler.setCapturesPerSecond(1);
+        Thread[] threads = { Thread.currentThread(), Thread.currentThread() };
+        StackTraceElement[][] stacks = sampler.capture(threads);
+        Assert.assertNotNull(stacks[0]);
+        Assert.assertNull(stacks[1]);
+        Thread.sleep(1100);
+        // the thread refused last time is granted first
+        stacks = sampler.capture(threads);
+        Assert.assertNull(stacks[0]);
+        Assert.assertNotNull(stacks[1]);
+    }
+
+    @Test
+    public void testFrameLimit() throws Exception {
+        StackTraceSampler sampler = new StackTraceSampler();
+        sampler.setMaxFrames(4);
+        Thread[] threads = { Thread.currentThread(), Thread.currentThread() };
+        StackTraceElement[][] stacks = sampler.capture(threads);
+        Assert.assertTrue(stacks[0].length <= 2);
+        Assert.assertTrue(stacks[1].length <= 2);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class StuckThreadWatchdogTest {
+
+    @Test
+    public void testCommonFrame() throws Exception {
+        StuckThreadWatchdog watchdog = new StuckThreadWatchdog(4);
+        File file = File.createTempFile("stuck", ".collapsed");
+        file.deleteOnExit();
+        watchdog.setOutputFile(file);
+
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch blocker = new CountDownLatch(1);
+        SofaThreadPoolExecutor first = newExecutor("watchdogFirstPool");
+        SofaThreadPoolExecutor second = newExecutor("watchdogSecondPool");
+        try {
+            first.execute(() -> SharedClient.call(started, blocker));
+            second.execute(() -> SharedClient.call(started, blocker));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+
+            List<String> commonFrames = watchdog.sample();
+            Assert.assertEquals(1, commonFrames.size());
+            Assert.assertEquals(SharedClient.class.getName() + ".call", commonFrames.get(0));
+            Assert.assertEquals(2, watchdog.getSamples().size());
+
+            // only the frames shared by enough pools are common frames
+            watchdog.setMinPools(3);
+            Assert.assertTrue(watchdog.sample().isEmpty());
+            Assert.assertEquals(4, watchdog.getSamples().size());
+
+            // the ring buffer keeps the latest samples
+            watchdog.sample();
+            Assert.assertEquals(4, watchdog.getSamples().size());
+        } finally {
+            blocker.countDown();
+            first.shutdown();
+            second.shutdown();
+        }
+
+        // the file is written by the writer thread of the watchdog
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!(lines.size() == 2 && lines.get(0).endsWith(" 2") && lines.get(1).endsWith(" 2"))
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        }
+        Assert.assertEquals(2, lines.size());
+        for (String line : lines) {
+            Assert.assertTrue(line, line.startsWith("watchdog"));
+            Assert.assertTrue(line, line.endsWith(" 2"));
+            Assert.assertTrue(line, line.contains(SharedClient.class.getName() + ".call;"));
+        }
+    }
+
+    @Test
+    public void testNoStuckTask() throws Exception {
+        StuckThreadWatchdog watchdog = new StuckThreadWatchdog(4);
+        File file = File.createTempFile("empty", ".collapsed");
+        Assert.assertTrue(file.delete());
+        watchdog.setOutputFile(file);
+        watchdog.run();
+        Assert.assertTrue(watchdog.getSamples().isEmpty());
+        Assert.assertFalse(file.exists());
+    }
+
+    private SofaThreadPoolExecutor newExecutor(String name) {
+        return new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new NamedThreadFactory(name), (r, e) -> {
+            }, name, 10, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    static class SharedClient {
+        static void call(CountDownLatch started, CountDownLatch blocker) {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class TaskTypeBreakdownTest {
+
+    @Test
+    public void testTaskTypeOf() {
+        SlowTask task = new SlowTask();
+        Assert.assertEquals(SlowTask.class, TaskTypeBreakdown.taskTypeOf(task));
+        Assert.assertEquals(SlowTask.class,
+            TaskTypeBreakdown.taskTypeOf(new ExecutingRunnable(new ExecutingRunnable(task))));
+        Assert.assertEquals(SlowTask.class, TaskTypeBreakdown.taskTypeOf(new ExecutingRunnable(
+            new PrioritizedFutureTask<>(task, null, PrioritizedFutureTask.NO_ATTRIBUTES))));
+        Assert.assertEquals(SlowTask.class, TaskTypeBreakdown
+            .taskTypeOf(new SofaThreadPoolTaskExecutor.DecoratedRunnable(() -> {}, task)));
+    }
+
+    @Test
+    public void testBoundedTaskTypes() {
+        TaskTypeBreakdown breakdown = new TaskTypeBreakdown(2);
+        breakdown.record(new SlowTask(), 100, 0, -1, -1);
+        breakdown.record(new FastTask(), 10, 0, -1, -1);
+        breakdown.record(() -> {}, 1000, 0, -1, -1);
+        breakdown.record(() -> {}, 1000, 0, -1, -1);
+        Assert.assertEquals(2, breakdown.getTaskTypeCount());
+
+        List<TaskTypeBreakdown.TaskTypeSnapshot> snapshots = breakdown.snapshotAndReset();
+        Assert.assertEquals(3, snapshots.size());
+        Assert.assertEquals(TaskTypeBreakdown.OTHER_TYPE, snapshots.get(0).getTaskType());
+        Assert.assertEquals(2, snapshots.get(0).getTaskCount());
+        Assert.assertEquals(SlowTask.class.getName(), snapshots.get(1).getTaskType());
+        Assert.assertEquals(FastTask.class.getName(), snapshots.get(2).getTaskType());
+        // the p99 is the upper bound of the power of two bucket
+        Assert.assertEquals(127, snapshots.get(1).getP99RunningTime());
+        Assert.assertTrue(breakdown.snapshotAndReset().isEmpty());
+    }
+
+    @Test
+    public void testThreadPoolBreakdown() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100));
+        executor.stopSchedule();
+        executor.getStatistics().setTaskTypeBreakdownEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new SlowTask());
+        }
+        for (int i = 0; i < 10; i++) {
+            executor.submit(new FastTask()).get();
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        List<TaskTypeBreakdown.TaskTypeSnapshot> snapshots = executor.getStatistics()
+            .getTaskTypeBreakdown().snapshotAndReset();
+        Assert.assertEquals(2, snapshots.size());
+        Assert.assertEquals(SlowTask.class.getName(), snapshots.get(0).getTaskType());
+        Assert.assertEquals(3, snapshots.get(0).getTaskCount());
+        Assert.assertTrue(snapshots.get(0).getAverageRunningTime() >= TimeUnit.MILLISECONDS
+            .toNanos(20));
+        Assert.assertEquals(FastTask.class.getName(), snapshots.get(1).getTaskType());
+        Assert.assertEquals(10, snapshots.get(1).getTaskCount());
+    }
+
+    private static class SlowTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static class FastTask implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class ThreadPoolSnapshotTest {
+
+    @Test
+    public void testSnapshot() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), "snapshotPool", "snapshotSpace");
+        SofaVirtualThreadExecutor virtualExecutor = new SofaVirtualThreadExecutor(
+            "snapshotVirtualPool", null, 1, null, 0, 0, null);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        try {
+            executor.submit(() -> {}).get();
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            });
+            executor.execute(() -> {});
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            ThreadPoolSnapshot snapshot = new ThreadPoolSnapshot().fill(Arrays.asList(
+                ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(
+                    executor.getConfig().getIdentity()), ThreadPoolGovernor.getInstance()
+                    .getThreadPoolMonitorWrapper(virtualExecutor.getConfig().getIdentity())));
+            Assert.assertEquals(2, snapshot.size());
+            int index = snapshot.indexOf(executor.getConfig().getIdentity());
+            Assert.assertEquals(0, index);
+            Assert.assertEquals("snapshotSpace", snapshot.getSpaceName(index));
+            Assert.assertEquals(1, snapshot.get(index, ThreadPoolSnapshot.QUEUE_SIZE));
+            Assert.assertEquals(1, snapshot.get(index, ThreadPoolSnapshot.POOL_SIZE));
+            Assert.assertEquals(1, snapshot.get(index, ThreadPoolSnapshot.CORE_POOL_SIZE));
+            Assert.assertEquals(2, snapshot.get(index, ThreadPoolSnapshot.MAXIMUM_POOL_SIZE));
+            Assert.assertEquals(1, snapshot.get(index, ThreadPoolSnapshot.EXECUTING_TASK_COUNT));
+            Assert.assertEquals(-1, snapshot.get(index, ThreadPoolSnapshot.CPU_TIME));
+            int virtualIndex = snapshot.indexOf(virtualExecutor.getConfig().getIdentity());
+            Assert.assertEquals(1, virtualIndex);
+            Assert.assertEquals(-1, snapshot.get(virtualIndex, ThreadPoolSnapshot.CORE_POOL_SIZE));
+
+            // the snapshot is filled again with less pools
+            snapshot.fill(Arrays.asList(ThreadPoolGovernor.getInstance()
+                .getThreadPoolMonitorWrapper(virtualExecutor.getConfig().getIdentity())));
+            Assert.assertEquals(1, snapshot.size());
+            Assert.assertEquals(-1, snapshot.indexOf(executor.getConfig().getIdentity()));
+            try {
+                snapshot.get(1, ThreadPoolSnapshot.QUEUE_SIZE);
+                Assert.fail();
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        } finally {
+            blocker.countDown();
+            executor.shutdown();
+            virtualExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedSnapshot() throws Exception {
+        ThreadPoolGovernor governor = ThreadPoolGovernor.getInstance();
+        ThreadPoolSnapshot snapshot = governor.getSharedSnapshot(1, TimeUnit.MINUTES);
+        Assert.assertSame(snapshot, governor.getSharedSnapshot(1, TimeUnit.MINUTES));
+        Thread.sleep(1);
+        ThreadPoolSnapshot refreshed = governor.getSharedSnapshot(0, TimeUnit.NANOSECONDS);
+        Assert.assertNotSame(snapshot, refreshed);
+        Assert.assertTrue(refreshed.getTimestamp() > snapshot.getTimestamp());
+        // the two buffers are filled in turn
+        Thread.sleep(1);
+        Assert.assertSame(snapshot, governor.getSharedSnapshot(0, TimeUnit.NANOSECONDS));
+        Assert.assertTrue(snapshot.getTimestamp() > refreshed.getTimestamp());
+    }
+}
@@ -83,10 +83,116 @@ public class ThreadPoolStaticsTest extends ThreadPoolTestBase {
         System.out.println("Average running time:" + executor.getStatistics().getAverageRunningTime());
         Assert.assertEquals(1000, executor.getStatistics().getAverageRunningTime(), 10);
         System.out.println("Average stay in queue time:" + executor.getStatistics().getAverageStayInQueueTime());
-        Assert.assertEquals(0, executor.getStatistics().getAverageStayInQueueTime());
+        // the stay in queue time of a scheduled task is the schedule lag, a few milliseconds at most
+        Assert.assertEquals(0, executor.getStatistics().getAverageStayInQueueTime(), 10);
         executor.getStatistics().resetAverageStatics();
         Assert.assertEquals(0, executor.getStatistics().getTotalTaskCount());
         executor.shutdown();
         executor.awaitTermination(1000, TimeUnit.MILLISECONDS);
     }
+
+    @Test
+    public void testSnapshotAndResetKeepIncrements() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(4, 4, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100000), new ThreadPoolExecutor.AbortPolicy());
+        executor.stopSchedule();
+        int taskCount = 20000;
+        for (int i = 0; i < taskCount; i++) {
+            executor.execute(() -> {
+            });
+        }
+        long counted = 0;
+        while (executor.getCompletedTaskCount() < taskCount) {
+            counted += executor.getStatistics().snapshotAndReset().getTaskCount();
+        }
+        executor.shutdown();
+        executor.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        counted += executor.getStatistics().snapshotAndReset().getTaskCount();
+        Assert.assertEquals(taskCount, counted);
+        Assert.assertEquals(0, executor.getStatistics().getTotalTaskCount());
+        Assert.assertEquals(-1, executor.getStatistics().getAverageRunningTimeNanos());
+    }
+
+    @Test
+    public void testSubMillisecondRunningTime() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), new ThreadPoolExecutor.AbortPolicy());
+        executor.stopSchedule();
+        for (int i = 0; i < 10; i++) {
+            executor.execute(() -> {
+                long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(200);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(executor.getStatistics().getAverageRunningTimeNanos() >= TimeUnit.MICROSECONDS
+            .toNanos(200));
+    }
+
+    @Test
+    public void testResourceAccounting() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(100), new ThreadPoolExecutor.AbortPolicy());
+        executor.stopSchedule();
+        ThreadPoolStatistics statistics = executor.getStatistics();
+        Assert.assertFalse(statistics.isResourceAccountingEnabled());
+        executor.submit(() -> new byte[1024 * 1024]).get();
+        Assert.assertEquals(0, statistics.getCumulativeResourceTaskCount());
+        Assert.assertEquals(0, statistics.getCumulativeAllocatedBytes());
+
+        statistics.setResourceAccountingEnabled(true);
+        for (int i = 0; i < 4; i++) {
+            executor.submit(() -> {
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                return new byte[1024 * 1024];
+            }).get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(4, statistics.getCumulativeResourceTaskCount());
+        if (ThreadResourceMeter.currentThreadCpuTime() >= 0) {
+            Assert.assertTrue(statistics.getCumulativeCpuTimeNanos() > 0);
+        }
+        if (ThreadResourceMeter.currentThreadAllocatedBytes() >= 0) {
+            Assert.assertTrue(statistics.getCumulativeAllocatedBytes() >= 4 * 1024 * 1024);
+        }
+    }
+
+    @Test
+    public void testMillisecondTimes() {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(10), new ThreadPoolExecutor.AbortPolicy());
+        executor.stopSchedule();
+        ThreadPoolStatistics statistics = executor.getStatistics();
+        statistics.addTotalRunningTime(20);
+        statistics.addTotalStayInQueueTimeNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        statistics.addTotalTaskCount();
+        Assert.assertEquals(20, statistics.getAverageRunningTime());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(20), statistics.getAverageRunningTimeNanos());
+        Assert.assertEquals(10, statistics.getAverageStayInQueueTime());
+
+        ExecutingRunnable runnable = new ExecutingRunnable(() -> {});
+        long now = System.nanoTime();
+        runnable.setEnqueueTimeNanos(now);
+        runnable.setDequeueTimeNanos(now + TimeUnit.MILLISECONDS.toNanos(3));
+        runnable.setFinishTimeNanos(now + TimeUnit.MILLISECONDS.toNanos(8));
+        Assert.assertEquals(3, runnable.getStayInQueueTime());
+        Assert.assertEquals(5, runnable.getRunningTime());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(5), runnable.getRunningTimeNanos());
+        // the millisecond accessors are epoch milliseconds
+        Assert.assertEquals(System.currentTimeMillis(), runnable.getEnqueueTime(), 100);
+        Assert.assertEquals(3, runnable.getDequeueTime() - runnable.getEnqueueTime(), 1);
+        long epochMillis = System.currentTimeMillis() - 1000;
+        runnable.setEnqueueTime(epochMillis);
+        Assert.assertEquals(epochMillis, runnable.getEnqueueTime(), 2);
+        Assert.assertEquals(now - TimeUnit.SECONDS.toNanos(1), runnable.getEnqueueTimeNanos(),
+            TimeUnit.MILLISECONDS.toNanos(100));
+        executor.shutdown();
+    }
 }
@@ -93,6 +93,29 @@ public class VariableLinkedBlockingQueueTest {
         queue.poll(1, TimeUnit.MILLISECONDS);
     }
 
+    @Test
+    public void testOfferAll() throws Exception {
+        VariableLinkedBlockingQueue<String> queue = new VariableLinkedBlockingQueue<>(4);
+        queue.offer("a");
+        Assert.assertEquals(2, queue.offerAll(Arrays.asList("b", "c")));
+        // only the first ones are added when the capacity is not enough
+        Assert.assertEquals(1, queue.offerAll(Arrays.asList("d", "e")));
+        Assert.assertEquals(0, queue.offerAll(Arrays.asList("f")));
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertEquals("a", queue.take());
+        Assert.assertEquals("b", queue.take());
+        Assert.assertEquals("c", queue.take());
+        Assert.assertEquals("d", queue.take());
+        try {
+            queue.offerAll(Arrays.asList("g", null));
+            Assert.fail();
+        } catch (NullPointerException e) {
+            // nothing is added
+            Assert.assertEquals(0, queue.size());
+        }
+    }
+
     @Test
     public void testSerializable() throws Exception {
         BlockingQueue<String> queue = new VariableLinkedBlockingQueue<>(1);
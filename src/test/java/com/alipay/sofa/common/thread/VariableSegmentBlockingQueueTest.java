@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ */
+public class VariableSegmentBlockingQueueTest {
+
+    @Test
+    public void commonTest() throws Exception {
+        VariableSegmentBlockingQueue<String> queue = new VariableSegmentBlockingQueue<>(Arrays.asList("a"));
+        Assert.assertEquals(1, queue.size());
+
+        //confirm remaining capacity
+        queue.setCapacity(3);
+        Assert.assertEquals(2, queue.remainingCapacity());
+
+        //write and read data to queue
+        queue.put("b");
+        queue.offer("c");
+        Assert.assertFalse(queue.offer("d"));
+        Assert.assertEquals("a", queue.peek());
+        Assert.assertEquals("a", queue.take());
+        Assert.assertEquals("b", queue.poll());
+        Assert.assertEquals("c", queue.poll(1, TimeUnit.MILLISECONDS));
+
+        queue.offer("a");
+        Assert.assertEquals(1, queue.toArray().length);
+        Assert.assertEquals("a", queue.toArray(new String[0])[0]);
+
+        List<String> anotherList = new ArrayList<>();
+        queue.drainTo(anotherList);
+        Assert.assertEquals("a", anotherList.get(0));
+        Assert.assertEquals(0, queue.size());
+
+        queue = new VariableSegmentBlockingQueue<>(1);
+        queue.offer("a", 1, TimeUnit.MILLISECONDS);
+        anotherList.clear();
+        queue.drainTo(anotherList, 1);
+        Assert.assertEquals("a", anotherList.get(0));
+        Assert.assertEquals(0, queue.size());
+
+        queue = new VariableSegmentBlockingQueue<>(1);
+        queue.offer("a");
+        Iterator<String> it = queue.iterator();
+        while (it.hasNext()) {
+            Assert.assertEquals("a", it.next());
+            it.remove();
+        }
+        Assert.assertEquals(0, queue.size());
+        queue.offer("a");
+        Assert.assertEquals("[a]", queue.toString());
+        Assert.assertTrue(queue.remove("a"));
+        Assert.assertNull(queue.poll());
+        queue.clear();
+
+        //cover timeout logic
+        queue = new VariableSegmentBlockingQueue<>(1);
+        queue.offer("a");
+        //offer timeout
+        Assert.assertFalse(queue.offer("a", 1, TimeUnit.MILLISECONDS));
+        queue.poll();
+        queue.poll();
+        //poll timeout
+        Assert.assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRemoveKeepOrderAcrossSegments() {
+        int total = VariableSegmentBlockingQueue.SEGMENT_SIZE * 3 + 7;
+        VariableSegmentBlockingQueue<Integer> queue = new VariableSegmentBlockingQueue<>();
+        for (int i = 0; i < total; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertTrue(queue.remove(VariableSegmentBlockingQueue.SEGMENT_SIZE));
+        Assert.assertFalse(queue.remove(VariableSegmentBlockingQueue.SEGMENT_SIZE));
+        Assert.assertEquals(total - 1, queue.size());
+        for (int i = 0; i < total; i++) {
+            if (i != VariableSegmentBlockingQueue.SEGMENT_SIZE) {
+                Assert.assertEquals(Integer.valueOf(i), queue.poll());
+            }
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testFindFromLaggingHeadSegment() {
+        int size = VariableSegmentBlockingQueue.SEGMENT_SIZE;
+        VariableSegmentBlockingQueue.Segment first = new VariableSegmentBlockingQueue.Segment(0);
+        VariableSegmentBlockingQueue.Segment segment = first;
+        for (int i = 1; i < 4; i++) {
+            VariableSegmentBlockingQueue.Segment next = new VariableSegmentBlockingQueue.Segment(
+                (long) i * size);
+            segment.next.set(next);
+            segment = next;
+        }
+        // the head is three segments ahead of the head segment
+        Assert.assertSame(segment, VariableSegmentBlockingQueue.find(first, 3L * size + 5));
+        Assert.assertSame(first, VariableSegmentBlockingQueue.find(first, size - 1));
+        // the segment is not linked yet
+        Assert.assertNull(VariableSegmentBlockingQueue.find(first, 4L * size));
+    }
+
+    @Test
+    public void testSetCapacityWakeUpPut() throws Exception {
+        final VariableSegmentBlockingQueue<String> queue = new VariableSegmentBlockingQueue<>(1);
+        queue.put("a");
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put("b");
+                latch.countDown();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        producer.start();
+        Assert.assertFalse(latch.await(50, TimeUnit.MILLISECONDS));
+        queue.setCapacity(2);
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testMultiProducerConsumer() throws Exception {
+        final int producers = 4;
+        final int consumers = 4;
+        final int perProducer = 20000;
+        final VariableSegmentBlockingQueue<Long> queue = new VariableSegmentBlockingQueue<>(64);
+        final AtomicLong sum = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(producers + consumers);
+        for (int i = 0; i < producers; i++) {
+            final long base = (long) i * perProducer;
+            new Thread(() -> {
+                try {
+                    for (int j = 1; j <= perProducer; j++) {
+                        queue.put(base + j);
+                    }
+                } catch (InterruptedException e) {
+                    // ignore
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        for (int i = 0; i < consumers; i++) {
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < perProducer; j++) {
+                        sum.addAndGet(queue.take());
+                    }
+                } catch (InterruptedException e) {
+                    // ignore
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        long n = (long) producers * perProducer;
+        Assert.assertEquals(n * (n + 1) / 2, sum.get());
+        Assert.assertEquals(0, queue.size());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testWorkQueueOfThreadPool() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+            new VariableSegmentBlockingQueue<>(1000));
+        try {
+            final CountDownLatch latch = new CountDownLatch(1000);
+            for (int i = 0; i < 1000; i++) {
+                executor.execute(latch::countDown);
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
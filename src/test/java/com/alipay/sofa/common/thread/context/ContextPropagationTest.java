@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.context;
+
+import com.alipay.sofa.common.thread.SofaScheduledThreadPoolExecutor;
+import com.alipay.sofa.common.thread.SofaThreadPoolExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ */
+public class ContextPropagationTest {
+
+    private static final ThreadLocal<String> TENANT = new ThreadLocal<>();
+
+    private static final ThreadLocal<String> USER   = new ThreadLocal<>();
+
+    private final ContextCarrier             tenantCarrier = new ThreadLocalCarrier(TENANT);
+
+    private final ContextCarrier             userCarrier   = new ThreadLocalCarrier(USER);
+
+    @Before
+    public void setUp() {
+        ContextPropagation.addCarrier(tenantCarrier);
+        ContextPropagation.addCarrier(userCarrier);
+    }
+
+    @After
+    public void tearDown() {
+        ContextPropagation.removeCarrier(tenantCarrier);
+        ContextPropagation.removeCarrier(userCarrier);
+        TENANT.remove();
+        USER.remove();
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        TENANT.set("tenant");
+        USER.set("user");
+        Object[] snapshot = ContextPropagation.capture();
+        Assert.assertNotNull(snapshot);
+
+        TENANT.set("other");
+        USER.remove();
+        ContextPropagation.restore(snapshot);
+        Assert.assertEquals("tenant", TENANT.get());
+        Assert.assertEquals("user", USER.get());
+        ContextPropagation.clear(snapshot);
+        Assert.assertEquals("other", TENANT.get());
+        Assert.assertNull(USER.get());
+
+        // a removed carrier still restores the snapshots captured by it
+        ContextPropagation.removeCarrier(userCarrier);
+        Callable<String> callable = ContextPropagation.wrap(() -> TENANT.get() + "/" + USER.get());
+        ContextPropagation.addCarrier(userCarrier);
+        TENANT.remove();
+        Assert.assertEquals("other/null", callable.call());
+        Assert.assertNull(TENANT.get());
+
+        ContextPropagation.removeCarrier(tenantCarrier);
+        ContextPropagation.removeCarrier(userCarrier);
+        Assert.assertNull(ContextPropagation.capture());
+        Runnable runnable = () -> {};
+        Assert.assertSame(runnable, ContextPropagation.wrap(runnable));
+    }
+
+    @Test
+    public void testExecutors() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), "contextPool");
+        SofaScheduledThreadPoolExecutor scheduledExecutor = new SofaScheduledThreadPoolExecutor(1,
+            "contextScheduledPool");
+        try {
+            TENANT.set("tenant");
+            USER.set("user");
+            final AtomicReference<String> seen = new AtomicReference<>();
+            executor.submit(() -> seen.set(TENANT.get() + "/" + USER.get())).get(5,
+                TimeUnit.SECONDS);
+            Assert.assertEquals("tenant/user", seen.get());
+            Assert.assertEquals("tenant/user",
+                scheduledExecutor.schedule(() -> TENANT.get() + "/" + USER.get(), 1,
+                    TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS));
+
+            // the context is cleared from the worker after the task
+            TENANT.remove();
+            USER.remove();
+            executor.submit(() -> seen.set(TENANT.get() + "/" + USER.get())).get(5,
+                TimeUnit.SECONDS);
+            Assert.assertEquals("null/null", seen.get());
+            scheduledExecutor.execute(() -> seen.set(TENANT.get() + "/" + USER.get()));
+            scheduledExecutor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals("null/null", seen.get());
+        } finally {
+            executor.shutdown();
+            scheduledExecutor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertTrue(scheduledExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    static class ThreadLocalCarrier implements ContextCarrier {
+
+        private final ThreadLocal<String> threadLocal;
+
+        ThreadLocalCarrier(ThreadLocal<String> threadLocal) {
+            this.threadLocal = threadLocal;
+        }
+
+        @Override
+        public Object capture() {
+            return threadLocal.get();
+        }
+
+        @Override
+        public Object restore(Object captured) {
+            String previous = threadLocal.get();
+            set((String) captured);
+            return previous;
+        }
+
+        @Override
+        public void clear(Object previous) {
+            set((String) previous);
+        }
+
+        private void set(String value) {
+            if (value == null) {
+                threadLocal.remove();
+            } else {
+                threadLocal.set(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alipay.sofa.common.thread.metrics;
+
+import com.alipay.sofa.common.thread.SofaThreadPoolExecutor;
+import com.alipay.sofa.common.thread.ThreadPoolGovernor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class MetricsExporterTest {
+
+    @Test
+    public void testJmxExporter() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        JmxThreadPoolMetricsExporter exporter = new JmxThreadPoolMetricsExporter();
+        MetricsExporterManager.addExporter(exporter);
+        try {
+            SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(1, 1, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), "jmxMetricsPool", "metricsSpace");
+            ObjectName objectName = JmxThreadPoolMetricsExporter.getObjectName(executor
+                .getConfig().getIdentity());
+            Assert.assertTrue(mBeanServer.isRegistered(objectName));
+
+            executor.submit(() -> {}).get();
+            executor.submit(() -> {}).get();
+            waitTaskCount(executor, 2);
+            Assert.assertEquals(2L, mBeanServer.getAttribute(objectName, "TaskCount"));
+            Assert.assertEquals(1, mBeanServer.getAttribute(objectName, "CorePoolSize"));
+            Assert.assertEquals(0, mBeanServer.getAttribute(objectName, "ExecutingTaskCount"));
+            Assert.assertEquals(0, mBeanServer.getAttribute(objectName, "DecayedTaskCount"));
+            Assert.assertEquals("metricsSpace", mBeanServer.getAttribute(objectName, "SpaceName"));
+
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertNull(ThreadPoolGovernor.getInstance().getThreadPoolMonitorWrapper(
+                executor.getConfig().getIdentity()));
+            Assert.assertFalse(mBeanServer.isRegistered(objectName));
+        } finally {
+            MetricsExporterManager.removeExporter(exporter);
+        }
+    }
+
+    @Test
+    public void testPrometheusText() throws Exception {
+        SofaThreadPoolExecutor executor = new SofaThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), "prometheus\"Pool");
+        try {
+            executor.submit(() -> {}).get();
+            waitTaskCount(executor, 1);
+            StringBuilder sb = new StringBuilder();
+            PrometheusTextWriter.write(sb, Collections.singletonList(ThreadPoolGovernor
+                .getInstance().getThreadPoolMonitorWrapper(executor.getConfig().getIdentity())));
+            String text = sb.toString();
+            Assert.assertTrue(text.contains("# TYPE sofa_thread_pool_tasks_total counter\n"));
+            Assert.assertTrue(text
+                .contains("sofa_thread_pool_tasks_total{pool=\"prometheus\\\"Pool\",space=\"\"} 1\n"));
+            Assert.assertTrue(text
+                .contains("sofa_thread_pool_core_pool_size{pool=\"prometheus\\\"Pool\",space=\"\"} 2\n"));
+            Assert.assertTrue(text
+                .contains("sofa_thread_pool_queue_size{pool=\"prometheus\\\"Pool\",space=\"\"} 0\n"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void waitTaskCount(SofaThreadPoolExecutor executor, long count)
+                                                                                  throws InterruptedException {
+        // the task is counted after the future is done
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStatistics().getCumulativeTaskCount() < count
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}